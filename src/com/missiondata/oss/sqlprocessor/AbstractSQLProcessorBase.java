@@ -19,11 +19,19 @@
 package com.missiondata.oss.sqlprocessor;
 
 
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.*;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Base functionality for various SQLProcessor implementations. Allows for the
@@ -39,12 +47,16 @@ abstract public class AbstractSQLProcessorBase
 {
   /**
    * @param description will be used in logging statements
-   * @param sqlText will be parsed into valid SQL
+   * @param sqlText will be parsed into valid SQL; the parsed form is cached and
+   *  shared between processors built from the same text
    */
   public AbstractSQLProcessorBase(String description, String sqlText)
   {
     this.rawSQL = sqlText;
-    this.taggedSQL = new TaggedSQL(sqlText);
+    this.taggedSQL = new TaggedSQL(TaggedSQLTemplate.compile(sqlText));
+    this.boundValues = new Object[taggedSQL.getTemplate().getParameterKeyCount()];
+    this.primitiveBinders = new ParameterBinder.Primitive[boundValues.length];
+    this.primitiveBits = new long[boundValues.length];
     this.description = description;
   }
 
@@ -176,17 +188,7 @@ abstract public class AbstractSQLProcessorBase
    */
   public int execute(final Connection connection) throws SQLSystemException
   {
-    return execute(new ConnectionSource()
-    {
-      public Connection getConnection()
-      {
-        return connection;
-      }
-
-      public void returnConnection(Connection c)
-      {
-      }
-    });
+    return execute(new GivenConnectionSource(connection));
   }
 
   /**
@@ -199,13 +201,19 @@ abstract public class AbstractSQLProcessorBase
    */
   public void addEvaluator(ParameterEvaluator evaluator)
   {
+    if (evaluator != null)
+    {
+      evaluatorCount++;
+    }
     chainingParameterEvaluator.addEvaluator(evaluator);
   }
 
   /**
    * Runs the update, insert or query that was specified in the constructor.
+   * The DataSource is only looked up in JNDI the first time a name is used.
    *
    * @param dataSourceJndiName - the JNDI name of a DataSource that the sql will act on
+   * @see DataSourceConnectionSource#lookup(String)
    * @return The number of rows updated
    */
   @SuppressWarnings("unused")
@@ -217,6 +225,13 @@ abstract public class AbstractSQLProcessorBase
   /**
    * Runs the update, insert or query that was specified in the constructor.
    *
+   * The statement is closed when execution ends; with a
+   * {@link StatementCachingConnectionSource} that only clears its parameters
+   * and returns it to the connection's statement cache.
+   *
+   * The fetch size, max rows and query timeout in effect are set on the
+   * statement before it runs.
+   *
    * @param connectionSource  the ConnectionSource for the database that the sql will act on
    * @return The number of rows updated
    * @throws SQLSystemException A wrapped SQLException with an added message
@@ -224,40 +239,128 @@ abstract public class AbstractSQLProcessorBase
   public int execute(ConnectionSource connectionSource) throws SQLSystemException
   {
     int rowsUpdated = 0;
+    int batchedRows = 0;
+    boolean batchSent = false;
+    Object[][] pendingRows = null;
+    int pendingCount = 0;
     setupOverridden = true;
 
+    MetricsCapability metrics = metricsImpl;
+    long slowNanos = getSlowQueryThresholdNanos();
+    boolean timed = metrics != null || slowNanos > 0;
+    long prepareNanos = 0;
+    long executeNanos = 0;
+    long fetchNanos = 0;
+    long rowsFetched = 0;
+    boolean completed = false;
+
     result = null;
-    Connection connection = connectionSource.getConnection();
+    boolean caching = resultCache != null && taggedSQL.isQuery() && rowCollector == null &&
+      !(connectionSource instanceof GivenConnectionSource &&
+        isTransactional(((GivenConnectionSource) connectionSource).connection));
+    boolean storable = caching;
+    Connection connection = caching ? null : connectionSource.getConnection();
     PreparedStatement preparedStatement = null;
+    String preparedSQL = null;
 
     try
     {
-      preparedStatement = connection.prepareStatement(taggedSQL.getPreparedString());
+      preparedSQL = taggedSQL.getPreparedString();
+      int rowsPerInsert = getRowsPerInsert();
+      String multiRowSQL = rowsPerInsert > 0 ? taggedSQL.getMultiRowPreparedString(rowsPerInsert) : null;
+      if (multiRowSQL != null)
+      {
+        pendingRows = new Object[rowsPerInsert][];
+      }
+      if (!caching && multiRowSQL == null)
+      {
+        long mark = clock(timed);
+        preparedStatement = prepare(connection, preparedSQL);
+        applyLimits(preparedStatement, false);
+        prepareNanos += clock(timed) - mark;
+      }
 
       ResultSet resultSet;
       while (isSetUp())
       {
-        prepareStatement(preparedStatement);
+        QueryResultCache.Key cacheKey = null;
+        long cacheGeneration = 0;
+        if (caching)
+        {
+          bindValues();
+          cacheKey = new QueryResultCache.Key(preparedSQL, copyBoundValues());
+          QueryResultCache.Entry cached = resultCache.get(cacheKey);
+          if (cached != null)
+          {
+            if (cached.rows)
+            {
+              results = true;
+              result = cached.value;
+            }
+            continue;
+          }
+          cacheGeneration = resultCache.generation(cacheKey);
+          if (preparedStatement == null)
+          {
+            connection = connectionSource.getConnection();
+            storable = !isTransactional(connection);
+            long mark = clock(timed);
+            preparedStatement = prepare(connection, preparedSQL);
+            applyLimits(preparedStatement, false);
+            prepareNanos += clock(timed) - mark;
+          }
+          setParameters(preparedStatement);
+        }
+        else if (pendingRows != null)
+        {
+          bindValues();
+        }
+        else
+        {
+          prepareStatement(preparedStatement);
+        }
 
-        logStatement();
+        logStatement(true);
 
         if (taggedSQL.isQuery())
         {
+          boolean rowsHere = false;
           resultSet = null;
           try
           {
+            long rowsBefore = rowsFetched;
+            long mark = clock(timed);
             resultSet = preparedStatement.executeQuery();
+            long executed = clock(timed);
+            executeNanos += executed - mark;
 
             if (resultSet != null)
             {
-              processMetaData(resultSet.getMetaData());
+              ResultSetMetaData metadata = resultSet.getMetaData();
+              processMetaData(metadata);
               boolean continueProcessing = true;
-              ProxyRestrictingResultSet.RestrictedResultSet restrictedResultSet = ProxyRestrictingResultSet.restrict(resultSet);
+              ProxyRestrictingResultSet.RestrictedResultSet restrictedResultSet = new RestrictingResultSet(resultSet);
+              if (rowCollector != null)
+              {
+                rowCollector.processMetaData(metadata);
+              }
               while (continueProcessing && resultSet.next())
               {
                 results = true;
-                continueProcessing = processAndContinue(restrictedResultSet);
+                rowsHere = true;
+                rowsFetched++;
+                if (rowCollector != null)
+                {
+                  rowCollector.collect(restrictedResultSet);
+                }
+                else
+                {
+                  continueProcessing = processAndContinue(restrictedResultSet);
+                }
               }
+              long fetched = clock(timed);
+              fetchNanos += fetched - executed;
+              logIfSlow(slowNanos, fetched - mark, rowsFetched - rowsBefore);
             }
           }
           finally
@@ -274,26 +377,106 @@ abstract public class AbstractSQLProcessorBase
 
             }
           }
+          if (cacheKey != null && storable)
+          {
+            resultCache.put(cacheKey, resultCacheTtl, rowsHere, rowsHere ? result : null, cacheGeneration);
+          }
         }
-        else
+        else if (pendingRows != null)
         {
-          int rowsUpdatedHere = preparedStatement.executeUpdate();
-          if (taggedSQL.isInsert())
+          pendingRows[pendingCount++] = copyBoundValues();
+          if (pendingCount == pendingRows.length)
           {
-            checkForInsertedId(connection, rowsUpdatedHere);
+            long mark = clock(timed);
+            if (preparedStatement == null)
+            {
+              preparedStatement = prepare(connection, multiRowSQL);
+              applyLimits(preparedStatement, false);
+              prepareNanos += clock(timed) - mark;
+              mark = clock(timed);
+            }
+            int rowsUpdatedHere = executeMultiRow(preparedStatement, pendingRows, pendingCount);
+            long elapsed = clock(timed) - mark;
+            executeNanos += elapsed;
+            logIfSlow(slowNanos, elapsed, rowsUpdatedHere);
+            rowsUpdated += rowsUpdatedHere;
+            pendingCount = 0;
           }
-          else
+        }
+        else if (batchSize > 1)
+        {
+          preparedStatement.addBatch();
+          if (++batchedRows == batchSize)
           {
-            process(rowsUpdatedHere);
+            long mark = clock(timed);
+            int rowsUpdatedHere = executeBatch(preparedStatement);
+            long elapsed = clock(timed) - mark;
+            executeNanos += elapsed;
+            logIfSlow(slowNanos, elapsed, rowsUpdatedHere);
+            rowsUpdated += rowsUpdatedHere;
+            batchedRows = 0;
+            batchSent = true;
           }
+        }
+        else
+        {
+          long mark = clock(timed);
+          int rowsUpdatedHere = preparedStatement.executeUpdate();
+          long elapsed = clock(timed) - mark;
+          executeNanos += elapsed;
+          logIfSlow(slowNanos, elapsed, rowsUpdatedHere);
+          processUpdate(connection, preparedStatement, rowsUpdatedHere);
+          rowsUpdated += rowsUpdatedHere;
+        }
+      }
+      if (batchedRows == 1 && !batchSent)
+      {
+        // A lone row runs as it would unbatched, so inserted ids are still checked;
+        // its parameters are still bound after addBatch
+        preparedStatement.clearBatch();
+        long mark = clock(timed);
+        int rowsUpdatedHere = preparedStatement.executeUpdate();
+        long elapsed = clock(timed) - mark;
+        executeNanos += elapsed;
+        logIfSlow(slowNanos, elapsed, rowsUpdatedHere);
+        processUpdate(connection, preparedStatement, rowsUpdatedHere);
+        rowsUpdated += rowsUpdatedHere;
+      }
+      else if (batchedRows > 0)
+      {
+        long mark = clock(timed);
+        int rowsUpdatedHere = executeBatch(preparedStatement);
+        long elapsed = clock(timed) - mark;
+        executeNanos += elapsed;
+        logIfSlow(slowNanos, elapsed, rowsUpdatedHere);
+        rowsUpdated += rowsUpdatedHere;
+      }
+      if (pendingCount > 0)
+      {
+        long mark = clock(timed);
+        PreparedStatement remainder = prepare(connection, taggedSQL.getMultiRowPreparedString(pendingCount));
+        try
+        {
+          applyLimits(remainder, false);
+          long prepared = clock(timed);
+          prepareNanos += prepared - mark;
+          int rowsUpdatedHere = executeMultiRow(remainder, pendingRows, pendingCount);
+          long elapsed = clock(timed) - prepared;
+          executeNanos += elapsed;
+          logIfSlow(slowNanos, elapsed, rowsUpdatedHere);
           rowsUpdated += rowsUpdatedHere;
         }
+        finally
+        {
+          remainder.close();
+        }
       }
+      completed = true;
       return rowsUpdated;
     }
     catch (SQLException e)
     {
-      throw new SQLSystemException("SQL Description: " + description + "\nSQL: " + getSQLText(), e);
+      throw new SQLSystemException(getFailureMessage(), e);
     }
     finally
     {
@@ -308,264 +491,1506 @@ abstract public class AbstractSQLProcessorBase
       {
         logWarning("SQLException cleaning up preparedStatement", ignore);
       }
-      connectionSource.returnConnection(connection);
-    }
-  }
-
-  private void prepareStatement(PreparedStatement preparedStatement) throws SQLException
-  {
-    Iterator iterator = taggedSQL.getParameterKeys();
-    while (iterator.hasNext())
-    {
-      String key = (String) iterator.next();
-      Object value = getValue(key);
-
-      if (value == null)
+      if (connection != null)
       {
-        throw new IllegalArgumentException("The parameter |" + key + "| was not set\n" +
-          "SQL Description: " + description + "\n" +
-          "SQL: " + rawSQL);
+        connectionSource.returnConnection(connection);
       }
-
-      for (Object o : taggedSQL.getParameterIndices(key))
+      if (preparedSQL != null && !taggedSQL.isQuery())
+      {
+        QueryResultCache.invalidateTables(preparedSQL);
+        if (connection instanceof TransactionConnection)
+        {
+          ((TransactionConnection) connection).recordWrite(preparedSQL);
+        }
+      }
+      if (metrics != null)
       {
-        int idx = (Integer) o;
-        if (value instanceof SQLNull)
+        try
         {
-          preparedStatement.setNull(idx, ((SQLNull) value).getType());
-        } else
+          metrics.recordExecution(description, taggedSQL.getTemplate(), prepareNanos, executeNanos, fetchNanos,
+            taggedSQL.isQuery() ? rowsFetched : rowsUpdated, !completed);
+        }
+        catch (RuntimeException e)
         {
-          preparedStatement.setObject(idx, value);
+          logWarning("RuntimeException recording statement metrics", e);
         }
       }
     }
   }
 
-  protected Object getValue(String parameter)
-  {
-    Object value = chainingParameterEvaluator.getParameterValue(parameter, null);
-    if(value == null)
-    {
-      throw new IllegalArgumentException("The parameter |" + parameter + "| was not set\n" +
-        "SQL Description: " + getDescription() + "\n" +
-        "SQL: " + getRawSQL());
-    }
-    return value;
-  }
-
-  private Object getValueForLogging(String key)
+  /**
+   * @return true if work on <code>connection</code> may not be committed yet,
+   *  so what it reads must not be shared through a result cache
+   */
+  private static boolean isTransactional(Connection connection)
   {
-    Object value;
     try
     {
-      value = getValue(key);
-    }
-
-    catch (IllegalArgumentException e)
-    {
-      value = "!SET{" + key + "}!";
+      return connection instanceof TransactionConnection || !connection.getAutoCommit();
     }
-
-    return value;
-  }
-
-  private String getSQLText()
-  {
-    StringBuffer sqlText = new StringBuffer(taggedSQL.getPreparedStringForLogging());
-    StringBuffer output = new StringBuffer(sqlText.length());
-    int parameterIndex = 1;
-    for (int i = 0; i < sqlText.length(); i++)
+    catch (SQLException e)
     {
-      if (sqlText.charAt(i) == '?')
-      {
-        output.append(prettyParameter(getValueForLogging(taggedSQL.getParameterKey(parameterIndex++))));
-      }
-      else
-      {
-        output.append(sqlText.charAt(i));
-      }
+      return true;
     }
-    return output.toString();
   }
 
-  private void logStatement()
+  /**
+   * @return the current time, or 0 without reading the clock when neither
+   *  metrics nor slow statements are being recorded
+   */
+  private static long clock(boolean timed)
   {
-    logInfo(prettyPrint());
+    return timed ? System.nanoTime() : 0;
   }
 
-  protected String prettyPrint()
+  /**
+   * Runs the query and maps every row to a new instance of <code>type</code>.
+   *
+   * @param connectionSource the ConnectionSource for the database that the sql will act on
+   * @param type a bean class with setters named for the columns, or a record
+   * @return the mapped rows, in result order
+   * @throws SQLSystemException A wrapped SQLException with an added message
+   * @see BeanRowMapper
+   */
+  public <T> List<T> queryList(ConnectionSource connectionSource, Class<T> type) throws SQLSystemException
   {
-    return description + ": " + getSQLText();
+    return queryList(connectionSource, new BeanRowMapper<T>(type));
   }
 
-  private String prettyParameter(Object value)
+  /**
+   * Runs the query and maps every row with <code>mapper</code>.  The mapper is
+   * handed the result's metadata once per execution, then each row in turn;
+   * {@link #process(ResultSet)} is not called.
+   *
+   * @param connectionSource the ConnectionSource for the database that the sql will act on
+   * @param mapper maps one row
+   * @return the mapped rows, in result order
+   * @throws SQLSystemException A wrapped SQLException with an added message
+   */
+  public <T> List<T> queryList(ConnectionSource connectionSource, RowMapper<T> mapper) throws SQLSystemException
   {
-    if (!(value instanceof Number))
+    ListCollector<T> collector = new ListCollector<T>(mapper);
+    rowCollector = collector;
+    try
     {
-      return "'" + value + "'";
+      execute(connectionSource);
     }
-    else
+    finally
     {
-      return value.toString();
+      rowCollector = null;
     }
+    return collector.rows;
   }
 
   /**
-   * If you just want to use the tagged sql syntax and pretty printing power of the sqlprocessor,
-   * Use this method instead of executes
-   * @param connection Connection to generate prepared statement on.
-   * @return Returns prepared statement.
-   * @throws java.sql.SQLException Thrown by underlying JDBC
+   * Runs the query and keeps the rows column by column.
+   *
+   * @see #queryColumnar(ConnectionSource, int)
    */
-  @SuppressWarnings("unused")
-  public PreparedStatement getPreparedStatement(Connection connection) throws SQLException
-  {
-    PreparedStatement preparedStatement = connection.prepareStatement(taggedSQL.getPreparedString());
-    prepareStatement(preparedStatement);
-    logStatement();
-
-    return preparedStatement;
-  }
-
-  protected String getDescription()
+  public ColumnarResult queryColumnar(ConnectionSource connectionSource) throws SQLSystemException
   {
-    return description;
+    return queryColumnar(connectionSource, DEFAULT_COLUMNAR_ROWS);
   }
 
-  protected String getRawSQL()
+  /**
+   * Runs the query and keeps the rows column by column in primitive arrays,
+   * rather than as an object per row.  Column storage is chosen from the
+   * result's metadata, and allocated for <code>expectedRows</code> rows so a
+   * large extract of known size is not copied as it grows.
+   * {@link #process(ResultSet)} is not called.
+   *
+   * @param connectionSource the ConnectionSource for the database that the sql will act on
+   * @param expectedRows the rows to allocate for up front
+   * @return the rows, in result order
+   * @throws SQLSystemException A wrapped SQLException with an added message
+   * @see ColumnarResult
+   */
+  public ColumnarResult queryColumnar(ConnectionSource connectionSource, int expectedRows) throws SQLSystemException
   {
-    return rawSQL;
-  }
+    final ColumnarResult columnar = new ColumnarResult(expectedRows);
+    rowCollector = new RowCollector()
+    {
+      void processMetaData(ResultSetMetaData metadata) throws SQLException
+      {
+        columnar.processMetaData(metadata);
+      }
 
-  private void checkForInsertedId(Connection conn, int rowsUpdated) throws SQLException
-  {
-    BigInteger id = fetchLastInsertedId(conn);
-    if (id != null)
+      void collect(ResultSet resultSet) throws SQLException
+      {
+        columnar.add(resultSet);
+      }
+    };
+    try
     {
-      insertedIds.add(id);
-      process(rowsUpdated, id);
+      execute(connectionSource);
     }
-    else
+    finally
     {
-      process(rowsUpdated);
+      rowCollector = null;
     }
+    columnar.finish();
+    return columnar;
   }
 
   /**
-   * Get the id of the last item inserted into the table.
-   * If not implemented by a derived class, a null is always
-   * returned and no inserted ids are tracked during execution.
-   *
-   * @param conn The JDBC connection to call this statement on.
-   * @see #getInsertedIds()
-   * @see #getLastInsertedId()
+   * Runs {@link #execute(ConnectionSource)} on the {@link AsyncExecution}
+   * executor.  The processor is in use until the future completes; do not set
+   * values on it or execute it again before then.
    *
-   * @return Row ID of last inserted row.
+   * @param connectionSource the ConnectionSource for the database that the sql will act on
+   * @return the number of rows updated, or a future completed exceptionally
+   *  with the {@link SQLSystemException}
    */
-  protected BigInteger fetchLastInsertedId(Connection conn)
+  public CompletableFuture<Integer> executeAsync(final ConnectionSource connectionSource)
   {
-    return insertedIdCapability==null ? null : insertedIdCapability.fetchLastInsertedId(conn);
+    return AsyncExecution.supply(connectionSource, new Supplier<Integer>()
+    {
+      public Integer get()
+      {
+        return execute(connectionSource);
+      }
+    });
   }
 
   /**
-   * Get array of ids that were inserted during this sqlprocessor's
-   * execution. An empty array is returned if no inserted ids were
-   * encountered during processing.
-   *
-   * @see #fetchLastInsertedId(java.sql.Connection))
-   * @see #getLastInsertedId()
+   * Runs the query asynchronously for its {@link #getSingleResult() single result}.
    *
-   * @return Array of all row ID's from inserts.
+   * @see #executeAsync(ConnectionSource)
    */
-  public BigInteger[] getInsertedIds()
+  public CompletableFuture<Object> getSingleResultAsync(final ConnectionSource connectionSource)
   {
-    return insertedIds.toArray(new BigInteger[insertedIds.size()]);
+    return AsyncExecution.supply(connectionSource, new Supplier<Object>()
+    {
+      public Object get()
+      {
+        execute(connectionSource);
+        return getSingleResult();
+      }
+    });
   }
 
   /**
-   * Get last id that was inserted during this sqlprocessor's
-   * execution. Null is returned if no inserted ids were
-   * encountered during processing.
-   *
-   * @see #fetchLastInsertedId(java.sql.Connection))
-   * @see #getInsertedIds()
+   * Runs {@link #queryList(ConnectionSource, Class)} asynchronously.
    *
-   * @return Row ID of last Insert.
+   * @see #executeAsync(ConnectionSource)
    */
-  public BigInteger getLastInsertedId()
+  public <T> CompletableFuture<List<T>> queryListAsync(ConnectionSource connectionSource, Class<T> type)
   {
-    BigInteger last = null;
-    if (getInsertedIds().length > 0)
-    {
-      last = getInsertedIds()[getInsertedIds().length - 1];
-    }
-
-    return last;
+    return queryListAsync(connectionSource, new BeanRowMapper<T>(type));
   }
 
   /**
-   * A LoggingCapability defines how an AbstractSQLProcessor can interface
-   * with the current system's loggin environment.
-   *
-   * AbstractSQLProcessor strives to provide useful logging messages, such
-   * as info messages consisting of executed statements in a form that can
-   * be copied and used in database query tools
+   * Runs {@link #queryList(ConnectionSource, RowMapper)} asynchronously.
    *
-   * @param loggingCapability See(@LoggingCapability)
+   * @see #executeAsync(ConnectionSource)
    */
-  public void setLoggingCapability(LoggingCapability loggingCapability)
+  public <T> CompletableFuture<List<T>> queryListAsync(final ConnectionSource connectionSource,
+    final RowMapper<T> mapper)
   {
-    AbstractSQLProcessorBase.loggingImpl = loggingCapability;
+    return AsyncExecution.supply(connectionSource, new Supplier<List<T>>()
+    {
+      public List<T> get()
+      {
+        return queryList(connectionSource, mapper);
+      }
+    });
   }
 
   /**
-   * {@link InsertedIdCapability} provides AbstractSQLProcessor with the ability
-   * to store the ids generated by INSERT statements.
+   * Runs the query and returns its rows as a lazily pulled stream of
+   * <code>type</code> instances.
    *
-   * @param insertedIdCapability See(@InsertedIdCapability)
+   * @see #stream(ConnectionSource, RowMapper)
+   * @see BeanRowMapper
    */
-  public void setInsertedIdCapability(InsertedIdCapability insertedIdCapability)
+  public <T> Stream<T> stream(ConnectionSource connectionSource, Class<T> type) throws SQLSystemException
   {
-    this.insertedIdCapability = insertedIdCapability;
+    return stream(connectionSource, new BeanRowMapper<T>(type));
   }
 
-  protected void logInfo(String information)
+  /**
+   * Runs the query and returns its rows as a lazily pulled stream.  Rows are
+   * read from the result set and mapped only as the stream consumes them, so a
+   * large result is never held in memory, and a short-circuiting operation such
+   * as <code>limit</code> stops reading early.
+   * <p>
+   * The statement is prepared forward-only and read-only and is given the
+   * processor's fetch size, or failing that the default streaming fetch size.  The connection, statement and result set stay open
+   * until the rows are exhausted or the stream is closed; always close it, for
+   * example with try-with-resources.  Some drivers, PostgreSQL among them, only
+   * honor the fetch size when the connection is not in auto-commit mode.
+   * <p>
+   * The statement runs once with the parameters of the first {@link #setUp()};
+   * {@link #process(ResultSet)} is not called.
+   *
+   * @param connectionSource the ConnectionSource for the database that the sql will act on
+   * @param mapper maps one row
+   * @return the rows, which must be closed
+   * @throws SQLSystemException A wrapped SQLException with an added message.
+   *  Exceptions while reading later rows are thrown from the stream's terminal operation.
+   * @see #setFetchSize(int)
+   * @see #setDefaultStreamingFetchSize(int)
+   */
+  public <T> Stream<T> stream(ConnectionSource connectionSource, RowMapper<T> mapper) throws SQLSystemException
   {
-    if(loggingImpl!=null)
+    if (!taggedSQL.isQuery())
     {
-      loggingImpl.logInfo(information);
+      throw new IllegalStateException("Only queries can be streamed\nSQL Description: " + description);
     }
-  }
-
-  protected void logWarning(String warning, Throwable t)
-  {
-    if(loggingImpl!=null)
+    setupOverridden = true;
+    if (!isSetUp())
     {
-      loggingImpl.logWarning(warning, t);
+      return Stream.empty();
     }
-  }
 
-  protected void logError(String error, Throwable t)
-  {
-    if(loggingImpl!=null)
+    long slowNanos = getSlowQueryThresholdNanos();
+    long started = 0;
+    Connection connection = connectionSource.getConnection();
+    PreparedStatement preparedStatement = null;
+    ResultSet resultSet = null;
+    boolean opened = false;
+    try
     {
-      loggingImpl.logError(error,t);
-    }
-  }
+      preparedStatement = connection.prepareStatement(taggedSQL.getPreparedString(),
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      applyLimits(preparedStatement, true);
+      prepareStatement(preparedStatement);
 
-  protected TaggedSQL taggedSQL;
-  private String rawSQL;
-  private Object result;
-  private String description;
-  private boolean results;
-  private ChainingParameterEvaluator chainingParameterEvaluator = new ChainingParameterEvaluator();
+      logStatement(true);
 
+      started = slowNanos > 0 ? System.nanoTime() : 0;
+      resultSet = preparedStatement.executeQuery();
+      ResultSetMetaData metadata = resultSet.getMetaData();
+      processMetaData(metadata);
+      mapper.processMetaData(metadata);
+      opened = true;
+    }
+    catch (SQLException e)
+    {
+      throw new SQLSystemException(getFailureMessage(), e);
+    }
+    finally
+    {
+      if (!opened)
+      {
+        ResultSetIterator.release(this, connectionSource, connection, preparedStatement, resultSet);
+      }
+    }
 
-  private InsertedIdCapability insertedIdCapability;
+    final ResultSetIterator<T> iterator =
+      new ResultSetIterator<T>(this, connectionSource, connection, preparedStatement, resultSet, mapper, slowNanos,
+        started);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+      .onClose(new Runnable()
+      {
+        public void run()
+        {
+          iterator.close();
+        }
+      });
+  }
 
-  private boolean setupOverridden=true;
+  /**
+   * Sends the rows added since the last flush and reports each row's update
+   * count through {@link #process(int)}, or through
+   * {@link #process(int, BigInteger)} when generated keys came back one per row.  Counts of
+   * {@link Statement#SUCCESS_NO_INFO} are reported but not added to the total.
+   */
+  private int executeBatch(PreparedStatement preparedStatement) throws SQLException
+  {
+    int rowsUpdated = 0;
+    int[] updateCounts = preparedStatement.executeBatch();
+    int first = insertedIds.size();
+    boolean keyPerRow = false;
+    if (isReturningGeneratedKeys())
+    {
+      readGeneratedKeys(preparedStatement);
+      keyPerRow = insertedIds.size() - first == updateCounts.length;
+    }
+    for (int i = 0; i < updateCounts.length; i++)
+    {
+      if (keyPerRow)
+      {
+        process(updateCounts[i], insertedIds.get(first + i));
+      }
+      else
+      {
+        process(updateCounts[i]);
+      }
+      if (updateCounts[i] > 0)
+      {
+        rowsUpdated += updateCounts[i];
+      }
+    }
+    return rowsUpdated;
+  }
+
+  /**
+   * @return the rows per multi-row insert statement, or 0 if this execution
+   *  does not rewrite inserts
+   */
+  private int getRowsPerInsert()
+  {
+    int parameters = taggedSQL.getTemplate().getParameterCount();
+    if (multiRowMaxParameters <= 0 || !taggedSQL.isInsert() || parameters == 0)
+    {
+      return 0;
+    }
+    int rows = multiRowMaxParameters / parameters;
+    if (batchSize > 1 && batchSize < rows)
+    {
+      rows = batchSize;
+    }
+    return rows > 1 ? rows : 0;
+  }
+
+  /**
+   * Binds the first <code>rows</code> buffered rows to a multi-row insert and
+   * runs it.  When the update count matches the row count each row is reported
+   * through {@link #process(int)} as in a batch; otherwise the count is
+   * reported once for the statement.
+   */
+  private int executeMultiRow(PreparedStatement preparedStatement, Object[][] pendingRows, int rows) throws SQLException
+  {
+    int parameters = taggedSQL.getTemplate().getParameterCount();
+    for (int r = 0; r < rows; r++)
+    {
+      for (int keyIndex = 0; keyIndex < pendingRows[r].length; keyIndex++)
+      {
+        setParameter(preparedStatement, keyIndex, pendingRows[r][keyIndex], r * parameters);
+      }
+    }
+    int rowsUpdated = preparedStatement.executeUpdate();
+    int first = insertedIds.size();
+    boolean keyPerRow = false;
+    if (isReturningGeneratedKeys())
+    {
+      readGeneratedKeys(preparedStatement);
+      keyPerRow = insertedIds.size() - first == rows;
+    }
+    if (rowsUpdated == rows)
+    {
+      for (int r = 0; r < rows; r++)
+      {
+        if (keyPerRow)
+        {
+          process(1, insertedIds.get(first + r));
+        }
+        else
+        {
+          process(1);
+        }
+      }
+    }
+    else
+    {
+      process(rowsUpdated);
+    }
+    return rowsUpdated;
+  }
+
+  private boolean isReturningGeneratedKeys()
+  {
+    return generatedKeys && taggedSQL.isInsert();
+  }
+
+  private PreparedStatement prepare(Connection connection, String sql) throws SQLException
+  {
+    if (!isReturningGeneratedKeys())
+    {
+      return connection.prepareStatement(sql);
+    }
+    return generatedKeyColumns != null
+      ? connection.prepareStatement(sql, generatedKeyColumns)
+      : connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+  }
+
+  /**
+   * Adds the first column of each generated key row to the inserted ids,
+   * read as a long unless the driver says it does not fit.
+   */
+  private void readGeneratedKeys(PreparedStatement preparedStatement) throws SQLException
+  {
+    ResultSet keys = preparedStatement.getGeneratedKeys();
+    if (keys == null)
+    {
+      return;
+    }
+    try
+    {
+      while (keys.next())
+      {
+        long id;
+        try
+        {
+          id = keys.getLong(1);
+        }
+        catch (SQLException e)
+        {
+          BigDecimal key = keys.getBigDecimal(1);
+          if (key != null)
+          {
+            insertedIds.add(key.toBigInteger());
+          }
+          continue;
+        }
+        if (!keys.wasNull())
+        {
+          insertedIds.add(id);
+        }
+      }
+    }
+    finally
+    {
+      try
+      {
+        keys.close();
+      }
+      catch (SQLException ignore)
+      {
+      }
+    }
+  }
+
+  /**
+   * Sets the fetch size, max rows and query timeout in effect for this
+   * processor.  Settings left at zero are not sent, so the driver's defaults
+   * apply.  Fetch size and max rows only apply to queries.
+   */
+  private void applyLimits(PreparedStatement preparedStatement, boolean streaming) throws SQLException
+  {
+    if (taggedSQL.isQuery())
+    {
+      int fetch = fetchSize != UNSET ? fetchSize : streaming ? defaultStreamingFetchSize : defaultFetchSize;
+      if (fetch != 0)
+      {
+        preparedStatement.setFetchSize(fetch);
+      }
+      int rows = maxRows != UNSET ? maxRows : defaultMaxRows;
+      if (rows != 0)
+      {
+        preparedStatement.setMaxRows(rows);
+      }
+    }
+    int timeout = queryTimeout != UNSET ? queryTimeout : defaultQueryTimeout;
+    if (timeout != 0)
+    {
+      preparedStatement.setQueryTimeout(timeout);
+    }
+  }
+
+  /**
+   * Evaluates each parameter into {@link #boundValues} and sets it on the
+   * statement before moving to the next.
+   */
+  private void prepareStatement(PreparedStatement preparedStatement) throws SQLException
+  {
+    for (int keyIndex = 0; keyIndex < boundValues.length; keyIndex++)
+    {
+      bindValue(keyIndex);
+      setParameter(preparedStatement, keyIndex);
+    }
+  }
+
+  /**
+   * Evaluates every parameter into {@link #boundValues} without a statement,
+   * as needed to look up a cached result.
+   */
+  private void bindValues()
+  {
+    for (int keyIndex = 0; keyIndex < boundValues.length; keyIndex++)
+    {
+      bindValue(keyIndex);
+    }
+  }
+
+  private void setParameters(PreparedStatement preparedStatement) throws SQLException
+  {
+    for (int keyIndex = 0; keyIndex < boundValues.length; keyIndex++)
+    {
+      setParameter(preparedStatement, keyIndex);
+    }
+  }
+
+  private void bindValue(int keyIndex)
+  {
+    if (isBindingDirectly())
+    {
+      if (primitiveBinders[keyIndex] != null)
+      {
+        boundValues[keyIndex] = PRIMITIVE;
+        return;
+      }
+      Object value = evaluate(keyIndex);
+      if (value != null)
+      {
+        boundValues[keyIndex] = value;
+        return;
+      }
+    }
+    String key = taggedSQL.getTemplate().getParameterKey(keyIndex);
+    Object value = getValue(key);
+
+    if (value == null)
+    {
+      throw new IllegalArgumentException("The parameter |" + key + "| was not set\n" +
+        "SQL Description: " + description + "\n" +
+        "SQL: " + rawSQL);
+    }
+    boundValues[keyIndex] = value;
+  }
+
+  private void setParameter(PreparedStatement preparedStatement, int keyIndex) throws SQLException
+  {
+    Object value = boundValues[keyIndex];
+    if (value == PRIMITIVE)
+    {
+      ParameterBinder.Primitive binder = primitiveBinders[keyIndex];
+      long bits = primitiveBits[keyIndex];
+      int[] indices = taggedSQL.getTemplate().getParameterIndices(keyIndex);
+      for (int i = 0; i < indices.length; i++)
+      {
+        binder.bindBits(preparedStatement, indices[i], bits);
+      }
+      return;
+    }
+    setParameter(preparedStatement, keyIndex, value, 0);
+  }
+
+  /**
+   * Sets <code>value</code> at every index of the key, shifted by
+   * <code>offset</code> for the later rows of a multi-row insert, with the
+   * setter for its type.
+   */
+  private void setParameter(PreparedStatement preparedStatement, int keyIndex, Object value, int offset) throws SQLException
+  {
+    ParameterBinder binder = ParameterBinder.forValue(value);
+    int[] indices = taggedSQL.getTemplate().getParameterIndices(keyIndex);
+    for (int i = 0; i < indices.length; i++)
+    {
+      binder.bind(preparedStatement, offset + indices[i], value);
+    }
+  }
+
+  /**
+   * A copy of {@link #boundValues} with primitives boxed, for values that
+   * outlive the bind: log messages, cache keys and buffered insert rows.
+   */
+  private Object[] copyBoundValues()
+  {
+    Object[] values = boundValues.clone();
+    for (int keyIndex = 0; keyIndex < values.length; keyIndex++)
+    {
+      if (values[keyIndex] == PRIMITIVE)
+      {
+        values[keyIndex] = primitiveBinders[keyIndex].box(primitiveBits[keyIndex]);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Values are bound through {@link #evaluate(int)} and primitives set through
+   * {@link #setPrimitiveValue} skip the evaluators, which is only safe when
+   * nothing but the processor's own evaluator and {@link #getValue(String)}
+   * could see them.
+   */
+  private boolean isBindingDirectly()
+  {
+    return evaluatorCount == 1 && !getValueOverridden;
+  }
+
+  /**
+   * Evaluates the parameter at <code>keyIndex</code> as the processor's own
+   * evaluator would, without going through the evaluator chain.
+   *
+   * @return the value, or null to evaluate it through {@link #getValue(String)}
+   */
+  Object evaluate(int keyIndex)
+  {
+    return null;
+  }
+
+  /**
+   * Holds a parameter value as raw bits instead of boxing it.  Subclasses
+   * that keep primitives this way must still return them, boxed, from their
+   * evaluator for the cases {@link #isBindingDirectly()} rules out.
+   */
+  void setPrimitiveValue(int keyIndex, ParameterBinder.Primitive binder, long bits)
+  {
+    primitiveBinders[keyIndex] = binder;
+    primitiveBits[keyIndex] = bits;
+  }
+
+  void clearPrimitiveValue(int keyIndex)
+  {
+    primitiveBinders[keyIndex] = null;
+  }
+
+  /**
+   * @return the primitive held for the key, boxed, or null if there is none
+   */
+  Object getPrimitiveValue(int keyIndex)
+  {
+    ParameterBinder.Primitive binder = primitiveBinders[keyIndex];
+    return binder == null ? null : binder.box(primitiveBits[keyIndex]);
+  }
+
+  protected Object getValue(String parameter)
+  {
+    Object value = chainingParameterEvaluator.getParameterValue(parameter, null);
+    if(value == null)
+    {
+      throw new IllegalArgumentException("The parameter |" + parameter + "| was not set\n" +
+        "SQL Description: " + getDescription() + "\n" +
+        "SQL: " + getRawSQL());
+    }
+    return value;
+  }
+
+  private Object getValueForLogging(String key)
+  {
+    Object value;
+    try
+    {
+      value = getValue(key);
+    }
+
+    catch (IllegalArgumentException e)
+    {
+      value = "!SET{" + key + "}!";
+    }
+
+    return value;
+  }
+
+  String getFailureMessage()
+  {
+    return "SQL Description: " + description + "\nSQL: " + getSQLText();
+  }
+
+  private String getSQLText()
+  {
+    TaggedSQLTemplate template = taggedSQL.getTemplate();
+    Object[] values = new Object[template.getParameterKeyCount()];
+    for (int keyIndex = 0; keyIndex < values.length; keyIndex++)
+    {
+      values[keyIndex] = getValueForLogging(template.getParameterKey(keyIndex));
+    }
+    StringBuilder output = new StringBuilder();
+    StatementLogMessage.appendSQLText(output, taggedSQL.getPreparedStringForLogging(), template, values);
+    return output.toString();
+  }
+
+  /**
+   * Logs the statement about to run.  A subclass that overrides
+   * {@link #prettyPrint()} or {@link #logInfo(String)}, say to mask values,
+   * gets <code>logInfo(prettyPrint())</code> as always; otherwise the text is
+   * rendered later, and only if the capability writes it.
+   *
+   * @param timed false if the statement runs out of sight of the slow query
+   *  log, so it is logged here even in slow query mode
+   */
+  private void logStatement(boolean timed)
+  {
+    if (timed && getSlowQueryThresholdNanos() != 0)
+    {
+      return;
+    }
+    if (statementTextOverridden)
+    {
+      if (isSampled())
+      {
+        logInfo(prettyPrint());
+      }
+    }
+    else if (loggingImpl != null && loggingImpl.isInfoEnabled() && isSampled())
+    {
+      logInfo(new StatementLogMessage(description, taggedSQL.getPreparedStringForLogging(),
+        taggedSQL.getTemplate(), copyBoundValues()));
+    }
+  }
+
+  /**
+   * Logs a warning for a statement run that took at least the slow query
+   * threshold.  The SQL is rendered with {@link #prettyPrint()}, so a batch
+   * shows the values of its last row.  At most one is logged per statement
+   * text in each {@link #setSlowQueryLogInterval(long) interval}; the next one
+   * logged says how many were skipped.
+   */
+  void logIfSlow(long thresholdNanos, long elapsedNanos, long rows)
+  {
+    if (thresholdNanos <= 0 || elapsedNanos < thresholdNanos || loggingImpl == null)
+    {
+      return;
+    }
+    long skipped = taggedSQL.getTemplate().claimSlowLog(System.nanoTime(), slowQueryLogIntervalNanos);
+    if (skipped < 0)
+    {
+      return;
+    }
+    StringBuilder message = new StringBuilder("Slow statement took ")
+      .append(elapsedNanos / 1000000).append(" ms for ").append(rows).append(rows == 1 ? " row: " : " rows: ")
+      .append(prettyPrint());
+    if (skipped > 0)
+    {
+      message.append("\n").append(skipped).append(" more slow executions were not logged");
+    }
+    logWarning(message.toString(), null);
+  }
+
+  private long getSlowQueryThresholdNanos()
+  {
+    long millis = slowQueryThreshold != UNSET ? slowQueryThreshold : defaultSlowQueryThreshold;
+    return millis * 1000000;
+  }
+
+  private boolean isSampled()
+  {
+    int rate = logSampleRate > 0 ? logSampleRate : defaultLogSampleRate;
+    return rate <= 1 || taggedSQL.getTemplate().nextLogSequence() % rate == 0;
+  }
+
+  protected String prettyPrint()
+  {
+    return description + ": " + getSQLText();
+  }
+
+  /**
+   * If you just want to use the tagged sql syntax and pretty printing power of the sqlprocessor,
+   * Use this method instead of executes
+   * @param connection Connection to generate prepared statement on.
+   * @return Returns prepared statement.
+   * @throws java.sql.SQLException Thrown by underlying JDBC
+   */
+  @SuppressWarnings("unused")
+  public PreparedStatement getPreparedStatement(Connection connection) throws SQLException
+  {
+    PreparedStatement preparedStatement = prepare(connection, taggedSQL.getPreparedString());
+    applyLimits(preparedStatement, false);
+    prepareStatement(preparedStatement);
+    logStatement(false);
+
+    return preparedStatement;
+  }
+
+  protected String getDescription()
+  {
+    return description;
+  }
+
+  protected String getRawSQL()
+  {
+    return rawSQL;
+  }
+
+  /**
+   * Reports one unbatched update through {@link #process(int)}, or through
+   * {@link #process(int, BigInteger)} with the row's inserted id when there is one.
+   */
+  private void processUpdate(Connection connection, PreparedStatement preparedStatement, int rowsUpdated)
+    throws SQLException
+  {
+    if (isReturningGeneratedKeys())
+    {
+      int first = insertedIds.size();
+      readGeneratedKeys(preparedStatement);
+      if (insertedIds.size() > first)
+      {
+        process(rowsUpdated, insertedIds.last());
+      }
+      else
+      {
+        process(rowsUpdated);
+      }
+    }
+    else if (taggedSQL.isInsert())
+    {
+      checkForInsertedId(connection, rowsUpdated);
+    }
+    else
+    {
+      process(rowsUpdated);
+    }
+  }
+
+  private void checkForInsertedId(Connection conn, int rowsUpdated) throws SQLException
+  {
+    BigInteger id = fetchLastInsertedId(conn);
+    if (id != null)
+    {
+      insertedIds.add(id);
+      process(rowsUpdated, id);
+    }
+    else
+    {
+      process(rowsUpdated);
+    }
+  }
+
+  /**
+   * Get the id of the last item inserted into the table.
+   * If not implemented by a derived class, a null is always
+   * returned and no inserted ids are tracked during execution.
+   *
+   * @param conn The JDBC connection to call this statement on.
+   * @see #getInsertedIds()
+   * @see #getLastInsertedId()
+   *
+   * @return Row ID of last inserted row.
+   */
+  protected BigInteger fetchLastInsertedId(Connection conn)
+  {
+    return insertedIdCapability==null ? null : insertedIdCapability.fetchLastInsertedId(conn);
+  }
+
+  /**
+   * Get array of ids that were inserted during this sqlprocessor's
+   * execution. An empty array is returned if no inserted ids were
+   * encountered during processing.
+   *
+   * @see #fetchLastInsertedId(java.sql.Connection))
+   * @see #getLastInsertedId()
+   *
+   * @return Array of all row ID's from inserts.
+   */
+  public BigInteger[] getInsertedIds()
+  {
+    return insertedIds.toArray();
+  }
+
+  /**
+   * The inserted ids as primitive longs.
+   *
+   * @return Array of all row ID's from inserts.
+   * @throws ArithmeticException if an id does not fit in a long
+   * @see #getInsertedIds()
+   */
+  public long[] getInsertedIdValues()
+  {
+    return insertedIds.toLongArray();
+  }
+
+  /**
+   * Get last id that was inserted during this sqlprocessor's
+   * execution. Null is returned if no inserted ids were
+   * encountered during processing.
+   *
+   * @see #fetchLastInsertedId(java.sql.Connection))
+   * @see #getInsertedIds()
+   *
+   * @return Row ID of last Insert.
+   */
+  public BigInteger getLastInsertedId()
+  {
+    return insertedIds.last();
+  }
+
+  /**
+   * A LoggingCapability defines how an AbstractSQLProcessor can interface
+   * with the current system's loggin environment.
+   *
+   * AbstractSQLProcessor strives to provide useful logging messages, such
+   * as info messages consisting of executed statements in a form that can
+   * be copied and used in database query tools
+   *
+   * @param loggingCapability See(@LoggingCapability)
+   */
+  public void setLoggingCapability(LoggingCapability loggingCapability)
+  {
+    AbstractSQLProcessorBase.loggingImpl = loggingCapability;
+  }
+
+  /**
+   * Sets where execution timings go, for all processors.  With none set, the
+   * default, executions are not timed.  Executions through
+   * {@link #stream(ConnectionSource, RowMapper)} are not recorded.
+   *
+   * @param metricsCapability the metrics to record to, or null for none
+   * @see StatementMetrics
+   */
+  public static void setMetricsCapability(MetricsCapability metricsCapability)
+  {
+    metricsImpl = metricsCapability;
+  }
+
+  public static MetricsCapability getMetricsCapability()
+  {
+    return metricsImpl;
+  }
+
+  /**
+   * Turns on JDBC batching for updates and inserts that execute more than once,
+   * such as those driven by a bean iterator.  Each set of bound parameters is
+   * added to the batch, which is sent every <code>batchSize</code> rows and
+   * once more when execution ends.  Update counts are reported per row through
+   * {@link #process(int)}.  Inserted ids are only collected in batch mode when
+   * {@link #setGeneratedKeys(boolean) generated keys} are on, except that an
+   * execution of a single row runs unbatched, exactly as without batching.
+   * <p>
+   * Queries are never batched.
+   *
+   * @param batchSize rows per batch; 0 or 1 executes each row immediately
+   */
+  public void setBatchSize(int batchSize)
+  {
+    if (batchSize < 0)
+    {
+      throw new IllegalArgumentException("Batch size cannot be negative: " + batchSize);
+    }
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize()
+  {
+    return batchSize;
+  }
+
+  /**
+   * Answers this processor's queries from <code>cache</code> when it holds a
+   * live result for the same SQL and parameter values, without borrowing a
+   * connection.  Otherwise the query runs and its result is stored for
+   * <code>ttlMillis</code>.
+   * <p>
+   * Only {@link #getSingleResult()} and {@link #resultsExist()} are restored
+   * from the cache, so a processor that overrides {@link #process(ResultSet)}
+   * or {@link #processAndContinue(ResultSet)} cannot use one.
+   * {@link #queryList(ConnectionSource, RowMapper)} and
+   * {@link #stream(ConnectionSource, RowMapper)} always go to the database.
+   * <p>
+   * Results read in a transaction may not be committed, so they are never
+   * stored.  A processor run in an {@link SQLTransaction}, or on a connection
+   * with auto-commit off, neither reads from nor stores to the cache.  Its
+   * writes drop cached results when it runs and again when an
+   * <code>SQLTransaction</code> commits; writes in other transactions only
+   * drop them when they run.
+   *
+   * @param cache the cache to use, or null to stop caching
+   * @param ttlMillis how long a stored result is used
+   * @throws IllegalStateException if this processor handles rows itself
+   */
+  public void setResultCache(QueryResultCache cache, long ttlMillis)
+  {
+    if (cache != null)
+    {
+      if (overridesRowProcessing.get(getClass()))
+      {
+        throw new IllegalStateException(getClass().getName() + " processes rows itself, so its results cannot be cached");
+      }
+      if (ttlMillis <= 0)
+      {
+        throw new IllegalArgumentException("Time to live must be positive: " + ttlMillis);
+      }
+    }
+    this.resultCache = cache;
+    this.resultCacheTtl = ttlMillis;
+  }
+
+  /**
+   * Gives the driver a hint of how many rows to fetch per round trip.  Without
+   * one, drivers such as PostgreSQL's read the whole result into memory before
+   * returning the first row.
+   *
+   * @param fetchSize rows per fetch; 0 leaves it to the driver, and -1 uses
+   *  the default.  <code>Integer.MIN_VALUE</code> is accepted for MySQL's
+   *  row-by-row streaming.
+   * @see #setDefaultFetchSize(int)
+   * @see #setDefaultStreamingFetchSize(int)
+   */
+  public void setFetchSize(int fetchSize)
+  {
+    if (fetchSize < UNSET && fetchSize != Integer.MIN_VALUE)
+    {
+      throw new IllegalArgumentException("Invalid fetch size: " + fetchSize);
+    }
+    this.fetchSize = fetchSize;
+  }
+
+  public int getFetchSize()
+  {
+    return fetchSize;
+  }
+
+  /**
+   * Limits the number of rows a query returns; the driver silently drops the rest.
+   *
+   * @param maxRows the row limit; 0 for no limit, and -1 uses the default
+   * @see #setDefaultMaxRows(int)
+   */
+  public void setMaxRows(int maxRows)
+  {
+    if (maxRows < UNSET)
+    {
+      throw new IllegalArgumentException("Invalid max rows: " + maxRows);
+    }
+    this.maxRows = maxRows;
+  }
+
+  public int getMaxRows()
+  {
+    return maxRows;
+  }
+
+  /**
+   * Limits how long the driver waits for the statement to run before
+   * cancelling it and throwing an SQLException.
+   *
+   * @param seconds the timeout; 0 for none, and -1 uses the default
+   * @see #setDefaultQueryTimeout(int)
+   */
+  public void setQueryTimeout(int seconds)
+  {
+    if (seconds < UNSET)
+    {
+      throw new IllegalArgumentException("Invalid query timeout: " + seconds);
+    }
+    this.queryTimeout = seconds;
+  }
+
+  public int getQueryTimeout()
+  {
+    return queryTimeout;
+  }
+
+  /**
+   * Sets the fetch size for queries on processors that do not set their own.
+   *
+   * @param fetchSize rows per fetch; 0, the initial default, leaves it to the driver
+   * @see #setFetchSize(int)
+   */
+  public static void setDefaultFetchSize(int fetchSize)
+  {
+    if (fetchSize < 0 && fetchSize != Integer.MIN_VALUE)
+    {
+      throw new IllegalArgumentException("Invalid fetch size: " + fetchSize);
+    }
+    defaultFetchSize = fetchSize;
+  }
+
+  /**
+   * Sets the fetch size for {@link #stream(ConnectionSource, RowMapper) streamed}
+   * queries on processors that do not set their own.  It is kept apart from the
+   * ordinary default because a streamed result is usually too large to buffer.
+   *
+   * @param fetchSize rows per fetch; initially 1000
+   * @see #setFetchSize(int)
+   */
+  public static void setDefaultStreamingFetchSize(int fetchSize)
+  {
+    if (fetchSize < 0 && fetchSize != Integer.MIN_VALUE)
+    {
+      throw new IllegalArgumentException("Invalid fetch size: " + fetchSize);
+    }
+    defaultStreamingFetchSize = fetchSize;
+  }
+
+  /**
+   * Sets the row limit for queries on processors that do not set their own.
+   *
+   * @param maxRows the row limit; 0, the initial default, for none
+   * @see #setMaxRows(int)
+   */
+  public static void setDefaultMaxRows(int maxRows)
+  {
+    if (maxRows < 0)
+    {
+      throw new IllegalArgumentException("Invalid max rows: " + maxRows);
+    }
+    defaultMaxRows = maxRows;
+  }
+
+  /**
+   * Sets the query timeout for processors that do not set their own.
+   *
+   * @param seconds the timeout; 0, the initial default, for none
+   * @see #setQueryTimeout(int)
+   */
+  public static void setDefaultQueryTimeout(int seconds)
+  {
+    if (seconds < 0)
+    {
+      throw new IllegalArgumentException("Invalid query timeout: " + seconds);
+    }
+    defaultQueryTimeout = seconds;
+  }
+
+  /**
+   * Logs only one in every <code>rate</code> executions of this processor's
+   * statement.  The count is kept per statement text, so sampling also applies
+   * across many short-lived processors running the same SQL.
+   *
+   * @param rate 1 logs every execution; 0 uses the default rate
+   * @see #setDefaultLogSampleRate(int)
+   */
+  public void setLogSampleRate(int rate)
+  {
+    if (rate < 0)
+    {
+      throw new IllegalArgumentException("Sample rate cannot be negative: " + rate);
+    }
+    this.logSampleRate = rate;
+  }
+
+  /**
+   * Replaces the info message logged before each statement with a warning
+   * logged after any statement run that takes at least <code>millis</code>.
+   * The warning gives the time taken, the rows read or updated, and the SQL
+   * with its values.
+   * <p>
+   * A {@link #stream(ConnectionSource, RowMapper) stream} is timed from its
+   * query until its rows run out or it is closed, so the time includes the
+   * caller's work on each row.  A statement from
+   * {@link #getPreparedStatement(Connection)} is run by the caller and cannot
+   * be timed, so it is logged before it runs as if no threshold were set.
+   *
+   * @param millis the threshold; 0 logs every statement before it runs, as usual
+   * @see #setDefaultSlowQueryThreshold(long)
+   * @see #setSlowQueryLogInterval(long)
+   */
+  public void setSlowQueryThreshold(long millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("Slow query threshold cannot be negative: " + millis);
+    }
+    this.slowQueryThreshold = millis;
+  }
+
+  public long getSlowQueryThreshold()
+  {
+    return slowQueryThreshold != UNSET ? slowQueryThreshold : defaultSlowQueryThreshold;
+  }
+
+  /**
+   * Sets the slow query threshold for processors that do not set their own.
+   *
+   * @param millis the threshold; 0, the initial default, turns slow query logging off
+   * @see #setSlowQueryThreshold(long)
+   */
+  public static void setDefaultSlowQueryThreshold(long millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("Slow query threshold cannot be negative: " + millis);
+    }
+    defaultSlowQueryThreshold = millis;
+  }
+
+  /**
+   * Sets the least time between slow query warnings for the same statement
+   * text, so a burst of slow executions logs one warning.
+   *
+   * @param millis the interval; initially one second, 0 logs every slow execution
+   */
+  public static void setSlowQueryLogInterval(long millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("Slow query log interval cannot be negative: " + millis);
+    }
+    slowQueryLogIntervalNanos = millis * 1000000;
+  }
+
+  /**
+   * Sets the log sample rate for processors that do not set their own.
+   *
+   * @param rate 1, the initial default, logs every execution
+   * @see #setLogSampleRate(int)
+   */
+  public static void setDefaultLogSampleRate(int rate)
+  {
+    if (rate < 1)
+    {
+      throw new IllegalArgumentException("Default sample rate must be at least 1: " + rate);
+    }
+    defaultLogSampleRate = rate;
+  }
+
+  /**
+   * Rewrites inserts driven by a bean iterator into
+   * <code>INSERT ... VALUES (...), (...), ...</code> with as many rows per
+   * statement as fit in <code>maxParameters</code> parameters, for drivers
+   * that handle JDBC batches poorly.  Rows per statement are further limited
+   * by the {@link #setBatchSize(int) batch size} when one is set; SQL Server,
+   * for one, takes at most 1000 rows.  Inserts whose VALUES row does not hold
+   * every parameter run as before.  Inserted ids are only collected with
+   * {@link #setGeneratedKeys(boolean) generated keys}.
+   *
+   * @param maxParameters the driver's limit on parameters per statement,
+   *  such as 2100 for SQL Server or 65535 for MySQL; 0 turns rewriting off
+   */
+  public void setMultiRowInsert(int maxParameters)
+  {
+    if (maxParameters < 0)
+    {
+      throw new IllegalArgumentException("Parameter limit cannot be negative: " + maxParameters);
+    }
+    this.multiRowMaxParameters = maxParameters;
+  }
+
+  public int getMultiRowInsert()
+  {
+    return multiRowMaxParameters;
+  }
+
+  /**
+   * Prepares inserts with {@link Statement#RETURN_GENERATED_KEYS} and reads
+   * their ids from {@link Statement#getGeneratedKeys()}, a row at a time or
+   * for a whole batch, instead of asking the {@link InsertedIdCapability} after
+   * each row.  Ids are reported through {@link #process(int, BigInteger)} and
+   * {@link #getInsertedIds()}.
+   *
+   * @param generatedKeys true to read generated keys
+   * @see #setGeneratedKeyColumns(String...)
+   */
+  public void setGeneratedKeys(boolean generatedKeys)
+  {
+    this.generatedKeys = generatedKeys;
+  }
+
+  /**
+   * Reads generated keys from the named columns, for drivers such as Oracle's
+   * that need to be told which columns to return.  Turns generated keys on.
+   *
+   * @param columnNames the key columns; the first is taken as the id
+   */
+  public void setGeneratedKeyColumns(String... columnNames)
+  {
+    this.generatedKeyColumns = columnNames.length == 0 ? null : columnNames.clone();
+    this.generatedKeys = true;
+  }
+
+  /**
+   * {@link InsertedIdCapability} provides AbstractSQLProcessor with the ability
+   * to store the ids generated by INSERT statements.
+   *
+   * @param insertedIdCapability See(@InsertedIdCapability)
+   */
+  public void setInsertedIdCapability(InsertedIdCapability insertedIdCapability)
+  {
+    this.insertedIdCapability = insertedIdCapability;
+  }
+
+  protected void logInfo(String information)
+  {
+    if(loggingImpl!=null)
+    {
+      loggingImpl.logInfo(information);
+    }
+  }
+
+  protected void logInfo(LogMessage message)
+  {
+    if(loggingImpl!=null)
+    {
+      loggingImpl.logInfo(message);
+    }
+  }
+
+  protected void logWarning(String warning, Throwable t)
+  {
+    if(loggingImpl!=null)
+    {
+      loggingImpl.logWarning(warning, t);
+    }
+  }
+
+  protected void logError(String error, Throwable t)
+  {
+    if(loggingImpl!=null)
+    {
+      loggingImpl.logError(error,t);
+    }
+  }
+
+  /**
+   * Takes the rows of a query in place of {@link #processAndContinue(ResultSet)}.
+   */
+  private abstract static class RowCollector
+  {
+    abstract void processMetaData(ResultSetMetaData metadata) throws SQLException;
+
+    abstract void collect(ResultSet resultSet) throws SQLException;
+  }
+
+  /**
+   * The source {@link #execute(Connection)} runs against, which hands out the
+   * caller's connection and leaves it open.
+   */
+  private static final class GivenConnectionSource implements ConnectionSource
+  {
+    final Connection connection;
+
+    GivenConnectionSource(Connection connection)
+    {
+      this.connection = connection;
+    }
+
+    public Connection getConnection()
+    {
+      return connection;
+    }
+
+    public void returnConnection(Connection c)
+    {
+    }
+  }
+
+  private static final class ListCollector<T> extends RowCollector
+  {
+    final RowMapper<T> mapper;
+    final List<T> rows = new ArrayList<T>();
+
+    ListCollector(RowMapper<T> mapper)
+    {
+      this.mapper = mapper;
+    }
+
+    void processMetaData(ResultSetMetaData metadata) throws SQLException
+    {
+      mapper.processMetaData(metadata);
+    }
+
+    void collect(ResultSet resultSet) throws SQLException
+    {
+      rows.add(mapper.mapRow(resultSet));
+    }
+  }
+
+  protected TaggedSQL taggedSQL;
+  private String rawSQL;
+  private Object result;
+  private String description;
+  private boolean results;
+  private ChainingParameterEvaluator chainingParameterEvaluator = new ChainingParameterEvaluator();
+
+
+  private InsertedIdCapability insertedIdCapability;
+
+  private boolean setupOverridden=true;
 
-  private List<BigInteger> insertedIds = new LinkedList<BigInteger>();
+  private int batchSize;
+
+  private int multiRowMaxParameters;
+
+  private int logSampleRate;
+
+  private long slowQueryThreshold = UNSET;
+
+  private int fetchSize = UNSET;
+
+  private int maxRows = UNSET;
+
+  private int queryTimeout = UNSET;
+
+  private Object[] boundValues;
+
+  private final ParameterBinder.Primitive[] primitiveBinders;
+
+  private final long[] primitiveBits;
+
+  private int evaluatorCount;
+
+  private final boolean getValueOverridden = overridesGetValue.get(getClass());
+
+  private final boolean statementTextOverridden = overridesStatementText.get(getClass());
+
+  private RowCollector rowCollector;
+
+  private QueryResultCache resultCache;
+
+  private long resultCacheTtl;
+
+  private InsertedIds insertedIds = new InsertedIds();
+
+  private boolean generatedKeys;
+
+  private String[] generatedKeyColumns;
 
   private static LoggingCapability loggingImpl = LoggingCapabilityFactory.getLoggingCapability("sqlprocessor");
+
+  private static volatile MetricsCapability metricsImpl;
+
+  private static volatile int defaultLogSampleRate = 1;
+
+  private static volatile long defaultSlowQueryThreshold;
+
+  private static volatile long slowQueryLogIntervalNanos = 1000000000L;
+
+  private static volatile int defaultFetchSize;
+
+  private static volatile int defaultStreamingFetchSize = 1000;
+
+  private static volatile int defaultMaxRows;
+
+  private static volatile int defaultQueryTimeout;
+
+  /**
+   * The description of processors constructed without one.
+   */
+  static final String NO_DESCRIPTION = "<No description>";
+
+  private static final int UNSET = -1;
+
+  private static final int DEFAULT_COLUMNAR_ROWS = 1024;
+
+  /**
+   * Marks a bound value that is held in {@link #primitiveBits}.
+   */
+  private static final Object PRIMITIVE = new Object();
+
+  private static final ClassValue<Boolean> overridesGetValue = new ClassValue<Boolean>()
+  {
+    protected Boolean computeValue(Class<?> type)
+    {
+      return declaresBelowBase(type, "getValue", String.class);
+    }
+  };
+
+  private static final ClassValue<Boolean> overridesStatementText = new ClassValue<Boolean>()
+  {
+    protected Boolean computeValue(Class<?> type)
+    {
+      return declaresBelowBase(type, "prettyPrint") || declaresBelowBase(type, "logInfo", String.class);
+    }
+  };
+
+  /**
+   * @return true if a class from <code>type</code> up to, but not including,
+   *  this one declares the method
+   */
+  private static boolean declaresBelowBase(Class<?> type, String name, Class<?>... parameterTypes)
+  {
+    for (Class<?> c = type; c != null && c != AbstractSQLProcessorBase.class; c = c.getSuperclass())
+    {
+      try
+      {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      }
+      catch (NoSuchMethodException e)
+      {
+      }
+    }
+    return false;
+  }
+
+  private static final ClassValue<Boolean> overridesRowProcessing = new ClassValue<Boolean>()
+  {
+    protected Boolean computeValue(Class<?> type)
+    {
+      for (Class<?> c = type; c != null && c != AbstractSQLProcessorBase.class; c = c.getSuperclass())
+      {
+        for (Method method : c.getDeclaredMethods())
+        {
+          if ((method.getName().equals("process") || method.getName().equals("processAndContinue")) &&
+            Arrays.equals(method.getParameterTypes(), new Class<?>[]{ResultSet.class}))
+          {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  };
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Where the <code>executeAsync</code> methods run, and how many of them may
+ * use one {@link ConnectionSource} at a time.
+ * <p>
+ * The default executor starts a virtual thread per task when the JVM has
+ * them (Java 21 and later), and otherwise uses a cached pool of daemon threads.
+ * <p>
+ * A source given a limit with {@link #setMaxConcurrency(ConnectionSource, int)}
+ * runs at most that many asynchronous executions at once.  The rest wait in a
+ * queue, without holding an executor thread, and are handed to the executor
+ * in order as running ones finish.  A
+ * {@link PooledConnectionSource} is limited to its maximum size unless given
+ * another limit.  Other sources are not limited.
+ *
+ * @see AbstractSQLProcessorBase#executeAsync(ConnectionSource)
+ * @see SQLTransaction#executeAsync(ConnectionSource)
+ */
+public final class AsyncExecution
+{
+  private AsyncExecution()
+  {
+  }
+
+  /**
+   * @param executor runs asynchronous executions from now on
+   */
+  public static void setExecutor(Executor executor)
+  {
+    if (executor == null)
+    {
+      throw new IllegalArgumentException("Executor cannot be null");
+    }
+    AsyncExecution.executor = executor;
+  }
+
+  public static Executor getExecutor()
+  {
+    return executor;
+  }
+
+  /**
+   * @param connectionSource the source to limit
+   * @param maxConcurrency the most asynchronous executions using it at once; 0 for no limit
+   */
+  public static void setMaxConcurrency(ConnectionSource connectionSource, int maxConcurrency)
+  {
+    if (maxConcurrency < 0)
+    {
+      throw new IllegalArgumentException("Concurrency cannot be negative: " + maxConcurrency);
+    }
+    synchronized (limits)
+    {
+      limits.put(connectionSource, maxConcurrency == 0 ? NO_LIMIT : new Limit(maxConcurrency));
+    }
+  }
+
+  /**
+   * Runs <code>work</code> on the executor once the source has a permit
+   * free, holding the permit while it runs.
+   */
+  static <T> CompletableFuture<T> supply(ConnectionSource connectionSource, final Supplier<T> work)
+  {
+    Limit limit = limitFor(connectionSource);
+    if (limit == null)
+    {
+      return CompletableFuture.supplyAsync(work, executor);
+    }
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    limit.submit(new Task()
+    {
+      public void run()
+      {
+        try
+        {
+          future.complete(work.get());
+        }
+        catch (Throwable t)
+        {
+          fail(t);
+        }
+      }
+
+      void fail(Throwable t)
+      {
+        future.completeExceptionally(t instanceof CompletionException ? t : new CompletionException(t));
+      }
+    });
+    return future;
+  }
+
+  private static Limit limitFor(ConnectionSource connectionSource)
+  {
+    synchronized (limits)
+    {
+      Limit limit = limits.get(connectionSource);
+      if (limit == null && connectionSource instanceof PooledConnectionSource)
+      {
+        limit = new Limit(((PooledConnectionSource) connectionSource).getMaxSize());
+        limits.put(connectionSource, limit);
+      }
+      return limit == NO_LIMIT ? null : limit;
+    }
+  }
+
+  /**
+   * Work waiting for a permit, which can be failed if the executor refuses it.
+   */
+  private abstract static class Task implements Runnable
+  {
+    abstract void fail(Throwable t);
+  }
+
+  /**
+   * The permits of one source and the tasks waiting for them.
+   */
+  private static final class Limit
+  {
+    Limit(int permits)
+    {
+      this.permits = permits;
+    }
+
+    void submit(Task task)
+    {
+      synchronized (this)
+      {
+        if (running >= permits)
+        {
+          waiting.add(task);
+          return;
+        }
+        running++;
+      }
+      start(task);
+    }
+
+    /**
+     * Runs <code>task</code> on the executor with a permit already taken,
+     * passing the permit on to the next waiting task when it finishes.
+     */
+    private void start(final Task task)
+    {
+      try
+      {
+        executor.execute(new Runnable()
+        {
+          public void run()
+          {
+            try
+            {
+              task.run();
+            }
+            finally
+            {
+              release();
+            }
+          }
+        });
+      }
+      catch (RejectedExecutionException e)
+      {
+        task.fail(e);
+        release();
+      }
+    }
+
+    private void release()
+    {
+      Task next;
+      synchronized (this)
+      {
+        next = waiting.poll();
+        if (next == null)
+        {
+          running--;
+          return;
+        }
+      }
+      start(next);
+    }
+
+    private final int permits;
+    private final Queue<Task> waiting = new ArrayDeque<Task>();
+    private int running;
+  }
+
+  private static Executor createDefaultExecutor()
+  {
+    try
+    {
+      return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (Exception e)
+    {
+      return Executors.newCachedThreadPool(new ThreadFactory()
+      {
+        public Thread newThread(Runnable runnable)
+        {
+          Thread thread = new Thread(runnable, "sqlprocessor-async");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+
+  private static final Limit NO_LIMIT = new Limit(0);
+
+  private static final Map<ConnectionSource, Limit> limits = new WeakHashMap<ConnectionSource, Limit>();
+
+  private static volatile Executor executor = createDefaultExecutor();
+}
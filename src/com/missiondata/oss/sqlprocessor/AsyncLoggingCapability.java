@@ -0,0 +1,331 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log messages to another capability on a background thread, so a
+ * statement only pays for queueing its message, not for rendering it or for
+ * the appender's I/O.
+ * <p>
+ * Messages go into a bounded lock-free ring buffer.  Statement messages keep
+ * the values bound when they were logged, and their text is rendered by the
+ * background thread, which drains whatever has queued up in one pass.  When
+ * the buffer is full an info message is dropped and counted; the number
+ * dropped is logged as a warning once there is room again.  Warnings and
+ * errors are never dropped: when there is no room they are written on the
+ * caller's thread.
+ *
+ * @see #close()
+ */
+public class AsyncLoggingCapability implements LoggingCapability
+{
+  public AsyncLoggingCapability(LoggingCapability delegated)
+  {
+    this(delegated, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the most messages waiting to be written, rounded up to a power of two
+   */
+  public AsyncLoggingCapability(LoggingCapability delegated, int capacity)
+  {
+    if (capacity < 1 || capacity > 1 << 30)
+    {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    size = size < capacity ? size << 1 : size;
+    this.delegated = delegated;
+    this.entries = new AtomicReferenceArray<Entry>(size);
+    this.sequences = new AtomicLongArray(size);
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++)
+    {
+      sequences.set(i, i);
+    }
+    this.writer = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        drainUntilClosed();
+      }
+    }, "sqlprocessor-async-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public void logInfo(String information)
+  {
+    if (!offer(new Entry(INFO, information, null, null)))
+    {
+      dropped.incrementAndGet();
+    }
+  }
+
+  public void logInfo(LogMessage message)
+  {
+    if (!offer(new Entry(INFO, null, message, null)))
+    {
+      dropped.incrementAndGet();
+    }
+  }
+
+  public boolean isInfoEnabled()
+  {
+    return delegated.isInfoEnabled();
+  }
+
+  public void logWarning(String error, Throwable t)
+  {
+    if (!offer(new Entry(WARNING, error, null, t)))
+    {
+      delegated.logWarning(error, t);
+    }
+  }
+
+  public void logError(String error, Throwable t)
+  {
+    if (!offer(new Entry(ERROR, error, null, t)))
+    {
+      delegated.logError(error, t);
+    }
+  }
+
+  /**
+   * @return the info messages dropped because the buffer was full
+   */
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+
+  /**
+   * @return the messages queued and not yet written
+   */
+  public int getPendingCount()
+  {
+    return (int) (tail.get() - head);
+  }
+
+  /**
+   * Waits for every message queued before this call to be written.
+   *
+   * @return false if they were not all written within <code>timeoutMillis</code>
+   */
+  public boolean flush(long timeoutMillis)
+  {
+    long target = tail.get();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (head < target)
+    {
+      if (!writer.isAlive() || System.nanoTime() - deadline >= 0)
+      {
+        return false;
+      }
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(FLUSH_POLL_NANOS);
+    }
+    return true;
+  }
+
+  /**
+   * Writes what is queued and stops the background thread.  Messages logged
+   * afterwards are written on the caller's thread.
+   */
+  public void close()
+  {
+    closed = true;
+    LockSupport.unpark(writer);
+    try
+    {
+      writer.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    // a message queued by a thread that had not yet seen the close
+    drain();
+  }
+
+  /**
+   * Claims the next slot and publishes <code>entry</code> in it.  This is the
+   * multi-producer side of a sequenced ring buffer: a slot is free for the
+   * producer whose position matches the slot's sequence, and the writer
+   * advances the sequence by a lap once it has taken the entry out.
+   *
+   * @return false if the buffer is full
+   */
+  private boolean offer(Entry entry)
+  {
+    if (closed)
+    {
+      write(entry);
+      return true;
+    }
+    while (true)
+    {
+      long position = tail.get();
+      int slot = (int) position & mask;
+      long sequence = sequences.get(slot);
+      if (sequence == position)
+      {
+        if (tail.compareAndSet(position, position + 1))
+        {
+          entries.lazySet(slot, entry);
+          sequences.lazySet(slot, position + 1);
+          if (writerParked)
+          {
+            LockSupport.unpark(writer);
+          }
+          return true;
+        }
+      }
+      else if (sequence < position)
+      {
+        return false;
+      }
+    }
+  }
+
+  private void drainUntilClosed()
+  {
+    while (true)
+    {
+      boolean stopping = closed;
+      if (drain() == 0)
+      {
+        if (stopping)
+        {
+          return;
+        }
+        writerParked = true;
+        if (sequences.get((int) head & mask) != head + 1)
+        {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        writerParked = false;
+      }
+    }
+  }
+
+  /**
+   * Writes every published entry, then reports any drops since the last pass.
+   *
+   * @return the entries written
+   */
+  private int drain()
+  {
+    int written = 0;
+    while (true)
+    {
+      long position = head;
+      int slot = (int) position & mask;
+      if (sequences.get(slot) != position + 1)
+      {
+        break;
+      }
+      Entry entry = entries.get(slot);
+      entries.lazySet(slot, null);
+      sequences.lazySet(slot, position + mask + 1);
+      write(entry);
+      head = position + 1;
+      written++;
+    }
+    long droppedNow = dropped.get();
+    if (droppedNow != droppedReported)
+    {
+      write(new Entry(WARNING, (droppedNow - droppedReported) + " log messages were dropped because the buffer was full", null, null));
+      droppedReported = droppedNow;
+    }
+    return written;
+  }
+
+  private void write(Entry entry)
+  {
+    try
+    {
+      switch (entry.level)
+      {
+        case INFO:
+          if (entry.message != null)
+          {
+            delegated.logInfo(entry.message);
+          }
+          else
+          {
+            delegated.logInfo(entry.text);
+          }
+          break;
+        case WARNING:
+          delegated.logWarning(entry.text, entry.throwable);
+          break;
+        default:
+          delegated.logError(entry.text, entry.throwable);
+      }
+    }
+    catch (RuntimeException e)
+    {
+      // one bad message must not stop the writer
+    }
+  }
+
+  private static final class Entry
+  {
+    Entry(int level, String text, LogMessage message, Throwable throwable)
+    {
+      this.level = level;
+      this.text = text;
+      this.message = message;
+      this.throwable = throwable;
+    }
+
+    final int level;
+    final String text;
+    final LogMessage message;
+    final Throwable throwable;
+  }
+
+  private static final int INFO = 0;
+  private static final int WARNING = 1;
+  private static final int ERROR = 2;
+
+  private static final int DEFAULT_CAPACITY = 8192;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long FLUSH_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final LoggingCapability delegated;
+  private final AtomicReferenceArray<Entry> entries;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+  private volatile long head;
+  private volatile boolean writerParked;
+  private volatile boolean closed;
+  private long droppedReported;
+}
@@ -0,0 +1,183 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The <code>getX</code> accessors of one bean class, resolved once into
+ * {@link MethodHandle}s.
+ * <p>
+ * {@link #plan(TaggedSQLTemplate)} returns an array with one accessor per
+ * parameter key of a template, in the template's dense key order, so binding a
+ * bean is a walk over that array with no reflection lookups.  Parameters with
+ * no matching getter have a null entry.
+ *
+ * @see SQLProcessor#setBean(Object)
+ */
+final class BeanAccessors
+{
+  private static final ClassValue<BeanAccessors> accessors = new ClassValue<BeanAccessors>()
+  {
+    protected BeanAccessors computeValue(Class<?> type)
+    {
+      return new BeanAccessors(type);
+    }
+  };
+
+  private static final Accessor NO_ACCESSOR = new Accessor(null, null);
+
+  static BeanAccessors forClass(Class<?> beanClass)
+  {
+    return accessors.get(beanClass);
+  }
+
+  private final Class<?> beanClass;
+  private final ConcurrentMap<String, Accessor> byKey = new ConcurrentHashMap<String, Accessor>();
+  // Keyed weakly by template, so a plan goes when its template leaves the template cache
+  private final Map<TaggedSQLTemplate, Accessor[]> plans =
+    Collections.synchronizedMap(new WeakHashMap<TaggedSQLTemplate, Accessor[]>());
+
+  private BeanAccessors(Class<?> beanClass)
+  {
+    this.beanClass = beanClass;
+  }
+
+  /**
+   * @return the accessor for each parameter key of <code>template</code>,
+   *  indexed by {@link TaggedSQLTemplate#getParameterKeyIndex(String)}
+   */
+  Accessor[] plan(TaggedSQLTemplate template)
+  {
+    Accessor[] plan = plans.get(template);
+    if (plan == null)
+    {
+      plan = new Accessor[template.getParameterKeyCount()];
+      for (int i = 0; i < plan.length; i++)
+      {
+        plan[i] = accessor(template.getParameterKey(i));
+      }
+      plans.put(template, plan);
+    }
+    return plan;
+  }
+
+  /**
+   * @return the accessor for <code>key</code>, or null if the class has no such getter
+   */
+  Accessor accessor(String key)
+  {
+    Accessor accessor = byKey.get(key);
+    if (accessor == null)
+    {
+      accessor = resolve(key);
+      byKey.putIfAbsent(key, accessor);
+    }
+    return accessor == NO_ACCESSOR ? null : accessor;
+  }
+
+  private Accessor resolve(String key)
+  {
+    if (key.length() == 0)
+    {
+      return NO_ACCESSOR;
+    }
+
+    String getterName = "get" + key.substring(0, 1).toUpperCase() + key.substring(1);
+    Method method;
+    try
+    {
+      method = beanClass.getMethod(getterName);
+    }
+    catch (NoSuchMethodException e)
+    {
+      return NO_ACCESSOR;
+    }
+
+    MethodHandle handle;
+    try
+    {
+      if (!Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+      {
+        method.setAccessible(true);
+      }
+      handle = MethodHandles.lookup().unreflect(method)
+        .asType(MethodType.methodType(Object.class, Object.class));
+    }
+    catch (IllegalAccessException e)
+    {
+      handle = null;
+    }
+    catch (RuntimeException e)
+    {
+      handle = null;
+    }
+    return new Accessor(method, handle);
+  }
+
+  static final class Accessor
+  {
+    private final Method method;
+    private final MethodHandle handle;
+
+    private Accessor(Method method, MethodHandle handle)
+    {
+      this.method = method;
+      this.handle = handle;
+    }
+
+    Class<?> getReturnType()
+    {
+      return method.getReturnType();
+    }
+
+    Object get(Object bean) throws Exception
+    {
+      if (handle == null)
+      {
+        return method.invoke(bean);
+      }
+      try
+      {
+        return handle.invokeExact(bean);
+      }
+      catch (Exception e)
+      {
+        throw e;
+      }
+      catch (Error e)
+      {
+        throw e;
+      }
+      catch (Throwable t)
+      {
+        throw new RuntimeException(t);
+      }
+    }
+  }
+}
@@ -0,0 +1,598 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import com.missiondata.oss.exception.SystemException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each row to a new instance of a bean or record class.
+ * <p>
+ * A column is matched to a property by name, ignoring case and underscores,
+ * so <code>FIRST_NAME</code> fills <code>setFirstName</code> or a record component
+ * named <code>firstName</code>.  Columns without a matching property are ignored.
+ * <p>
+ * Setters and record components are found once per class.  Column positions
+ * are resolved once per execution in {@link #processMetaData(ResultSetMetaData)},
+ * and each column is read with the getter for the property's type, so a bean
+ * with an <code>int</code> setter is filled from <code>getInt</code> with no
+ * boxing.  Record components are passed to the canonical constructor as objects.
+ * <p>
+ * An instance holds the column plan of the execution in progress and must not be
+ * shared between processors running at the same time.
+ *
+ * @see AbstractSQLProcessorBase#queryList(ConnectionSource, Class)
+ */
+public class BeanRowMapper<T> implements RowMapper<T>
+{
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  private static final ClassValue<Target> targets = new ClassValue<Target>()
+  {
+    protected Target computeValue(Class<?> type)
+    {
+      return isRecord(type) ? new RecordTarget(type) : new BeanTarget(type);
+    }
+  };
+
+  /**
+   * @param type a class with a public no-argument constructor and setters, or a record
+   */
+  public BeanRowMapper(Class<T> type)
+  {
+    this.type = type;
+    this.target = targets.get(type);
+  }
+
+  public void processMetaData(ResultSetMetaData metadata) throws SQLException
+  {
+    int columnCount = metadata.getColumnCount();
+    List<Column> bound = new ArrayList<Column>(columnCount);
+    for (int i = 1; i <= columnCount; i++)
+    {
+      Column column = target.bind(normalize(metadata.getColumnLabel(i)), metadata, i);
+      if (column != null)
+      {
+        bound.add(column);
+      }
+    }
+    columns = bound.toArray(new Column[bound.size()]);
+  }
+
+  public T mapRow(ResultSet resultSet) throws SQLException
+  {
+    if (columns == null)
+    {
+      processMetaData(resultSet.getMetaData());
+    }
+    return type.cast(target.create(resultSet, columns));
+  }
+
+  static String normalize(String name)
+  {
+    StringBuilder normalized = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++)
+    {
+      char c = name.charAt(i);
+      if (c != '_')
+      {
+        normalized.append(Character.toLowerCase(c));
+      }
+    }
+    return normalized.toString();
+  }
+
+  private static boolean isRecord(Class<?> type)
+  {
+    // Class.isRecord() only exists from Java 16 on
+    try
+    {
+      return (Boolean) Class.class.getMethod("isRecord").invoke(type);
+    }
+    catch (Exception e)
+    {
+      return false;
+    }
+  }
+
+  private static void makeAccessible(Class<?> type, AccessibleObject member)
+  {
+    if (!Modifier.isPublic(type.getModifiers()))
+    {
+      member.setAccessible(true);
+    }
+  }
+
+  private static SQLException rethrow(Throwable t)
+  {
+    if (t instanceof SQLException)
+    {
+      return (SQLException) t;
+    }
+    if (t instanceof RuntimeException)
+    {
+      throw (RuntimeException) t;
+    }
+    if (t instanceof Error)
+    {
+      throw (Error) t;
+    }
+    throw new SystemException("could not map row", t);
+  }
+
+  /**
+   * Reads a column with the getter suited to <code>type</code>, returning null
+   * for SQL NULL unless <code>type</code> is primitive.
+   */
+  static Object read(ResultSet resultSet, int index, Class<?> type) throws SQLException
+  {
+    Object value;
+    if (type == String.class)
+    {
+      return resultSet.getString(index);
+    }
+    else if (type == int.class || type == Integer.class)
+    {
+      value = resultSet.getInt(index);
+    }
+    else if (type == long.class || type == Long.class)
+    {
+      value = resultSet.getLong(index);
+    }
+    else if (type == double.class || type == Double.class)
+    {
+      value = resultSet.getDouble(index);
+    }
+    else if (type == boolean.class || type == Boolean.class)
+    {
+      value = resultSet.getBoolean(index);
+    }
+    else if (type == float.class || type == Float.class)
+    {
+      value = resultSet.getFloat(index);
+    }
+    else if (type == short.class || type == Short.class)
+    {
+      value = resultSet.getShort(index);
+    }
+    else if (type == byte.class || type == Byte.class)
+    {
+      value = resultSet.getByte(index);
+    }
+    else if (type == BigDecimal.class)
+    {
+      return resultSet.getBigDecimal(index);
+    }
+    else if (type == java.sql.Date.class)
+    {
+      return resultSet.getDate(index);
+    }
+    else if (type == java.sql.Time.class)
+    {
+      return resultSet.getTime(index);
+    }
+    else if (type == java.sql.Timestamp.class || type == java.util.Date.class)
+    {
+      return resultSet.getTimestamp(index);
+    }
+    else if (type == byte[].class)
+    {
+      return resultSet.getBytes(index);
+    }
+    else
+    {
+      return resultSet.getObject(index);
+    }
+    return !type.isPrimitive() && resultSet.wasNull() ? null : value;
+  }
+
+  /**
+   * How rows become instances of one class.
+   */
+  private abstract static class Target
+  {
+    abstract Column bind(String normalizedName, ResultSetMetaData metadata, int index) throws SQLException;
+
+    abstract Object create(ResultSet resultSet, Column[] columns) throws SQLException;
+  }
+
+  /**
+   * A public no-argument constructor followed by a setter call per column.
+   * A property with overloaded setters is filled through the one that takes
+   * the Java type of the column's SQL type.
+   */
+  private static final class BeanTarget extends Target
+  {
+    private final Map<String, List<Method>> setters = new HashMap<String, List<Method>>();
+    private final Map<Method, MethodHandle> handles = new HashMap<Method, MethodHandle>();
+    private final MethodHandle constructor;
+
+    BeanTarget(Class<?> type)
+    {
+      try
+      {
+        Constructor<?> noArgs = type.getDeclaredConstructor();
+        makeAccessible(type, noArgs);
+        constructor = lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+      }
+      catch (NoSuchMethodException e)
+      {
+        throw new IllegalArgumentException(type.getName() + " has no no-argument constructor", e);
+      }
+      catch (IllegalAccessException e)
+      {
+        throw new IllegalArgumentException(type.getName() + " cannot be instantiated", e);
+      }
+
+      for (Method method : type.getMethods())
+      {
+        String name = method.getName();
+        if (name.length() > 3 && name.startsWith("set") && method.getParameterTypes().length == 1 &&
+          !Modifier.isStatic(method.getModifiers()) && !method.isBridge() && !method.isSynthetic())
+        {
+          try
+          {
+            makeAccessible(type, method);
+            Class<?> parameterType = method.getParameterTypes()[0];
+            handles.put(method, lookup.unreflect(method).asType(MethodType.methodType(void.class, Object.class,
+              parameterType.isPrimitive() ? parameterType : Object.class)));
+          }
+          catch (IllegalAccessException e)
+          {
+            continue;
+          }
+          String key = normalize(name.substring(3));
+          List<Method> overloads = setters.get(key);
+          if (overloads == null)
+          {
+            overloads = new ArrayList<Method>(1);
+            setters.put(key, overloads);
+          }
+          overloads.add(method);
+        }
+      }
+    }
+
+    Column bind(String normalizedName, ResultSetMetaData metadata, int index) throws SQLException
+    {
+      List<Method> overloads = setters.get(normalizedName);
+      if (overloads == null)
+      {
+        return null;
+      }
+      Method setter = overloads.size() == 1 ? overloads.get(0) : choose(overloads, metadata, index);
+      MethodHandle handle = handles.get(setter);
+      Class<?> parameterType = setter.getParameterTypes()[0];
+      if (parameterType == int.class)
+      {
+        return new IntColumn(index, handle);
+      }
+      else if (parameterType == long.class)
+      {
+        return new LongColumn(index, handle);
+      }
+      else if (parameterType == double.class)
+      {
+        return new DoubleColumn(index, handle);
+      }
+      else if (parameterType == boolean.class)
+      {
+        return new BooleanColumn(index, handle);
+      }
+      return new ObjectColumn(index, handle, parameterType);
+    }
+
+    /**
+     * Picks the overload whose parameter is the first of the column's
+     * preferred Java types that any overload takes.
+     */
+    private static Method choose(List<Method> overloads, ResultSetMetaData metadata, int index) throws SQLException
+    {
+      for (Class<?> preferred : preferredTypes(metadata.getColumnType(index)))
+      {
+        for (Method overload : overloads)
+        {
+          if (overload.getParameterTypes()[0] == preferred)
+          {
+            return overload;
+          }
+        }
+      }
+      throw new IllegalArgumentException("Column " + metadata.getColumnLabel(index) + " matches " +
+        overloads.size() + " setters of " + overloads.get(0).getDeclaringClass().getName() +
+        " and none takes the column's type");
+    }
+
+    private static Class<?>[] preferredTypes(int sqlType)
+    {
+      switch (sqlType)
+      {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+          return new Class<?>[]{int.class, Integer.class, long.class, Long.class};
+        case Types.BIGINT:
+          return new Class<?>[]{long.class, Long.class};
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+          return new Class<?>[]{BigDecimal.class};
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+          return new Class<?>[]{double.class, Double.class, float.class, Float.class};
+        case Types.BIT:
+        case Types.BOOLEAN:
+          return new Class<?>[]{boolean.class, Boolean.class};
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+        case Types.CLOB:
+          return new Class<?>[]{String.class};
+        case Types.DATE:
+          return new Class<?>[]{java.sql.Date.class, java.util.Date.class};
+        case Types.TIME:
+          return new Class<?>[]{java.sql.Time.class, java.util.Date.class};
+        case Types.TIMESTAMP:
+          return new Class<?>[]{java.sql.Timestamp.class, java.util.Date.class};
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+          return new Class<?>[]{byte[].class};
+        default:
+          return new Class<?>[]{Object.class};
+      }
+    }
+
+    Object create(ResultSet resultSet, Column[] columns) throws SQLException
+    {
+      try
+      {
+        Object bean = constructor.invokeExact();
+        for (int i = 0; i < columns.length; i++)
+        {
+          ((BeanColumn) columns[i]).set(bean, resultSet);
+        }
+        return bean;
+      }
+      catch (Throwable t)
+      {
+        throw rethrow(t);
+      }
+    }
+  }
+
+  /**
+   * The canonical constructor, called with the matched columns in component
+   * order and a null or zero for components without a column.
+   */
+  private static final class RecordTarget extends Target
+  {
+    private final Map<String, Integer> components = new HashMap<String, Integer>();
+    private final Class<?>[] componentTypes;
+    private final Object[] defaults;
+    private final MethodHandle constructor;
+
+    RecordTarget(Class<?> type)
+    {
+      try
+      {
+        Object[] recordComponents = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+        componentTypes = new Class<?>[recordComponents.length];
+        defaults = new Object[recordComponents.length];
+        for (int i = 0; i < recordComponents.length; i++)
+        {
+          Object component = recordComponents[i];
+          String name = (String) component.getClass().getMethod("getName").invoke(component);
+          componentTypes[i] = (Class<?>) component.getClass().getMethod("getType").invoke(component);
+          components.put(normalize(name), i);
+          if (componentTypes[i].isPrimitive())
+          {
+            defaults[i] = Array.get(Array.newInstance(componentTypes[i], 1), 0);
+          }
+        }
+        Constructor<?> canonical = type.getDeclaredConstructor(componentTypes);
+        makeAccessible(type, canonical);
+        constructor = lookup.unreflectConstructor(canonical).asSpreader(Object[].class, componentTypes.length)
+          .asType(MethodType.methodType(Object.class, Object[].class));
+      }
+      catch (Exception e)
+      {
+        throw new IllegalArgumentException(type.getName() + " cannot be instantiated", e);
+      }
+    }
+
+    Column bind(String normalizedName, ResultSetMetaData metadata, int index)
+    {
+      Integer component = components.get(normalizedName);
+      return component == null ? null : new ComponentColumn(index, component, componentTypes[component]);
+    }
+
+    Object create(ResultSet resultSet, Column[] columns) throws SQLException
+    {
+      Object[] arguments = defaults.clone();
+      for (int i = 0; i < columns.length; i++)
+      {
+        ComponentColumn column = (ComponentColumn) columns[i];
+        arguments[column.component] = read(resultSet, column.index, column.type);
+      }
+      try
+      {
+        return constructor.invokeExact(arguments);
+      }
+      catch (Throwable t)
+      {
+        throw rethrow(t);
+      }
+    }
+  }
+
+  /**
+   * One resolved column: where it is in the row.
+   */
+  private abstract static class Column
+  {
+    final int index;
+
+    Column(int index)
+    {
+      this.index = index;
+    }
+  }
+
+  /**
+   * A column that fills a bean through its setter.
+   */
+  private abstract static class BeanColumn extends Column
+  {
+    BeanColumn(int index)
+    {
+      super(index);
+    }
+
+    abstract void set(Object bean, ResultSet resultSet) throws Throwable;
+  }
+
+  private static final class IntColumn extends BeanColumn
+  {
+    private final MethodHandle setter;
+
+    IntColumn(int index, MethodHandle setter)
+    {
+      super(index);
+      this.setter = setter;
+    }
+
+    void set(Object bean, ResultSet resultSet) throws Throwable
+    {
+      setter.invokeExact(bean, resultSet.getInt(index));
+    }
+  }
+
+  private static final class LongColumn extends BeanColumn
+  {
+    private final MethodHandle setter;
+
+    LongColumn(int index, MethodHandle setter)
+    {
+      super(index);
+      this.setter = setter;
+    }
+
+    void set(Object bean, ResultSet resultSet) throws Throwable
+    {
+      setter.invokeExact(bean, resultSet.getLong(index));
+    }
+  }
+
+  private static final class DoubleColumn extends BeanColumn
+  {
+    private final MethodHandle setter;
+
+    DoubleColumn(int index, MethodHandle setter)
+    {
+      super(index);
+      this.setter = setter;
+    }
+
+    void set(Object bean, ResultSet resultSet) throws Throwable
+    {
+      setter.invokeExact(bean, resultSet.getDouble(index));
+    }
+  }
+
+  private static final class BooleanColumn extends BeanColumn
+  {
+    private final MethodHandle setter;
+
+    BooleanColumn(int index, MethodHandle setter)
+    {
+      super(index);
+      this.setter = setter;
+    }
+
+    void set(Object bean, ResultSet resultSet) throws Throwable
+    {
+      setter.invokeExact(bean, resultSet.getBoolean(index));
+    }
+  }
+
+  /**
+   * Setters of any other type, including the less common primitives, which are
+   * read boxed and unboxed by the handle.
+   */
+  private static final class ObjectColumn extends BeanColumn
+  {
+    private final MethodHandle setter;
+    private final Class<?> type;
+
+    ObjectColumn(int index, MethodHandle setter, Class<?> type)
+    {
+      super(index);
+      this.setter = setter.type().parameterType(1).isPrimitive()
+        ? setter.asType(MethodType.methodType(void.class, Object.class, Object.class))
+        : setter;
+      this.type = type;
+    }
+
+    void set(Object bean, ResultSet resultSet) throws Throwable
+    {
+      setter.invokeExact(bean, read(resultSet, index, type));
+    }
+  }
+
+  /**
+   * A column passed to a record's canonical constructor.
+   */
+  private static final class ComponentColumn extends Column
+  {
+    final int component;
+    final Class<?> type;
+
+    ComponentColumn(int index, int component, Class<?> type)
+    {
+      super(index);
+      this.component = component;
+      this.type = type;
+    }
+  }
+
+  private final Class<T> type;
+  private final Target target;
+  private Column[] columns;
+}
@@ -0,0 +1,619 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.*;
+
+/**
+ * A cached statement handed out by {@link StatementCachingConnection}.
+ * {@link #close()} clears parameters and any pending batch and hands the
+ * statement back to its cache; the driver's statement is only closed when it
+ * is evicted or its connection goes away.
+ */
+class CachedPreparedStatement implements PreparedStatement
+{
+  private final StatementCachingConnection owner;
+  private final PreparedStatement statement;
+  private boolean checkedOut;
+  private boolean evicted;
+  private boolean batched;
+  private boolean limited;
+
+  CachedPreparedStatement(StatementCachingConnection owner, PreparedStatement statement)
+  {
+    this.owner = owner;
+    this.statement = statement;
+  }
+
+  boolean isCheckedOut()
+  {
+    return checkedOut;
+  }
+
+  void checkOut()
+  {
+    checkedOut = true;
+  }
+
+  /**
+   * Readies the statement for its next user.  Fetch size, max rows and
+   * query timeout, if they were set, go back to the JDBC defaults.
+   *
+   * @return false if the statement could not be reused and has been closed
+   */
+  boolean reset()
+  {
+    checkedOut = false;
+    if (!evicted)
+    {
+      try
+      {
+        statement.clearParameters();
+        if (batched)
+        {
+          statement.clearBatch();
+          batched = false;
+        }
+        if (limited)
+        {
+          statement.setFetchSize(0);
+          statement.setMaxRows(0);
+          statement.setQueryTimeout(0);
+          limited = false;
+        }
+        return true;
+      }
+      catch (SQLException e)
+      {
+        evicted = true;
+      }
+    }
+    closeQuietly();
+    return false;
+  }
+
+  /**
+   * Drops the statement from use; it is closed now, or on release if checked out.
+   */
+  void evict()
+  {
+    evicted = true;
+    if (!checkedOut)
+    {
+      closeQuietly();
+    }
+  }
+
+  private void closeQuietly()
+  {
+    try
+    {
+      statement.close();
+    }
+    catch (SQLException ignore)
+    {
+    }
+  }
+
+  public void close() throws SQLException
+  {
+    if (checkedOut)
+    {
+      owner.release(this);
+    }
+  }
+
+  public Connection getConnection() throws SQLException
+  {
+    return owner;
+  }
+
+  public void clearParameters() throws SQLException
+  {
+    statement.clearParameters();
+  }
+
+  public void addBatch() throws SQLException
+  {
+    batched = true;
+    statement.addBatch();
+  }
+
+  public void clearBatch() throws SQLException
+  {
+    batched = false;
+    statement.clearBatch();
+  }
+
+  public void addBatch(String sql) throws SQLException
+  {
+    batched = true;
+    statement.addBatch(sql);
+  }
+
+  public int[] executeBatch() throws SQLException
+  {
+    batched = false;
+    return statement.executeBatch();
+  }
+
+  public boolean execute() throws SQLException
+  {
+    return statement.execute();
+  }
+
+  public ResultSet executeQuery() throws SQLException
+  {
+    return statement.executeQuery();
+  }
+
+  public int executeUpdate() throws SQLException
+  {
+    return statement.executeUpdate();
+  }
+
+  public ResultSetMetaData getMetaData() throws SQLException
+  {
+    return statement.getMetaData();
+  }
+
+  public ParameterMetaData getParameterMetaData() throws SQLException
+  {
+    return statement.getParameterMetaData();
+  }
+
+  public void setArray(int parameterIndex, Array array) throws SQLException
+  {
+    statement.setArray(parameterIndex, array);
+  }
+
+  public void setAsciiStream(int parameterIndex, java.io.InputStream stream) throws SQLException
+  {
+    statement.setAsciiStream(parameterIndex, stream);
+  }
+
+  public void setAsciiStream(int parameterIndex, java.io.InputStream stream, long length) throws SQLException
+  {
+    statement.setAsciiStream(parameterIndex, stream, length);
+  }
+
+  public void setAsciiStream(int parameterIndex, java.io.InputStream stream, int length) throws SQLException
+  {
+    statement.setAsciiStream(parameterIndex, stream, length);
+  }
+
+  public void setBigDecimal(int parameterIndex, java.math.BigDecimal x) throws SQLException
+  {
+    statement.setBigDecimal(parameterIndex, x);
+  }
+
+  public void setBinaryStream(int parameterIndex, java.io.InputStream stream) throws SQLException
+  {
+    statement.setBinaryStream(parameterIndex, stream);
+  }
+
+  public void setBinaryStream(int parameterIndex, java.io.InputStream stream, int length) throws SQLException
+  {
+    statement.setBinaryStream(parameterIndex, stream, length);
+  }
+
+  public void setBinaryStream(int parameterIndex, java.io.InputStream stream, long length) throws SQLException
+  {
+    statement.setBinaryStream(parameterIndex, stream, length);
+  }
+
+  public void setBlob(int parameterIndex, java.io.InputStream stream) throws SQLException
+  {
+    statement.setBlob(parameterIndex, stream);
+  }
+
+  public void setBlob(int parameterIndex, Blob blob) throws SQLException
+  {
+    statement.setBlob(parameterIndex, blob);
+  }
+
+  public void setBlob(int parameterIndex, java.io.InputStream stream, long length) throws SQLException
+  {
+    statement.setBlob(parameterIndex, stream, length);
+  }
+
+  public void setBoolean(int parameterIndex, boolean x) throws SQLException
+  {
+    statement.setBoolean(parameterIndex, x);
+  }
+
+  public void setByte(int parameterIndex, byte x) throws SQLException
+  {
+    statement.setByte(parameterIndex, x);
+  }
+
+  public void setBytes(int parameterIndex, byte[] bytes) throws SQLException
+  {
+    statement.setBytes(parameterIndex, bytes);
+  }
+
+  public void setCharacterStream(int parameterIndex, java.io.Reader reader) throws SQLException
+  {
+    statement.setCharacterStream(parameterIndex, reader);
+  }
+
+  public void setCharacterStream(int parameterIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    statement.setCharacterStream(parameterIndex, reader, length);
+  }
+
+  public void setCharacterStream(int parameterIndex, java.io.Reader reader, int length) throws SQLException
+  {
+    statement.setCharacterStream(parameterIndex, reader, length);
+  }
+
+  public void setClob(int parameterIndex, Clob clob) throws SQLException
+  {
+    statement.setClob(parameterIndex, clob);
+  }
+
+  public void setClob(int parameterIndex, java.io.Reader reader) throws SQLException
+  {
+    statement.setClob(parameterIndex, reader);
+  }
+
+  public void setClob(int parameterIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    statement.setClob(parameterIndex, reader, length);
+  }
+
+  public void setDate(int parameterIndex, Date date) throws SQLException
+  {
+    statement.setDate(parameterIndex, date);
+  }
+
+  public void setDate(int parameterIndex, Date date, java.util.Calendar cal) throws SQLException
+  {
+    statement.setDate(parameterIndex, date, cal);
+  }
+
+  public void setDouble(int parameterIndex, double x) throws SQLException
+  {
+    statement.setDouble(parameterIndex, x);
+  }
+
+  public void setFloat(int parameterIndex, float x) throws SQLException
+  {
+    statement.setFloat(parameterIndex, x);
+  }
+
+  public void setInt(int parameterIndex, int x) throws SQLException
+  {
+    statement.setInt(parameterIndex, x);
+  }
+
+  public void setLong(int parameterIndex, long x) throws SQLException
+  {
+    statement.setLong(parameterIndex, x);
+  }
+
+  public void setNCharacterStream(int parameterIndex, java.io.Reader reader) throws SQLException
+  {
+    statement.setNCharacterStream(parameterIndex, reader);
+  }
+
+  public void setNCharacterStream(int parameterIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    statement.setNCharacterStream(parameterIndex, reader, length);
+  }
+
+  public void setNClob(int parameterIndex, java.io.Reader reader) throws SQLException
+  {
+    statement.setNClob(parameterIndex, reader);
+  }
+
+  public void setNClob(int parameterIndex, NClob nClob) throws SQLException
+  {
+    statement.setNClob(parameterIndex, nClob);
+  }
+
+  public void setNClob(int parameterIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    statement.setNClob(parameterIndex, reader, length);
+  }
+
+  public void setNString(int parameterIndex, String x) throws SQLException
+  {
+    statement.setNString(parameterIndex, x);
+  }
+
+  public void setNull(int parameterIndex, int sqlType) throws SQLException
+  {
+    statement.setNull(parameterIndex, sqlType);
+  }
+
+  public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException
+  {
+    statement.setNull(parameterIndex, sqlType, typeName);
+  }
+
+  public void setObject(int parameterIndex, Object x) throws SQLException
+  {
+    statement.setObject(parameterIndex, x);
+  }
+
+  public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException
+  {
+    statement.setObject(parameterIndex, x, targetSqlType);
+  }
+
+  public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException
+  {
+    statement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  public void setRef(int parameterIndex, Ref ref) throws SQLException
+  {
+    statement.setRef(parameterIndex, ref);
+  }
+
+  public void setRowId(int parameterIndex, RowId rowId) throws SQLException
+  {
+    statement.setRowId(parameterIndex, rowId);
+  }
+
+  public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException
+  {
+    statement.setSQLXML(parameterIndex, xmlObject);
+  }
+
+  public void setShort(int parameterIndex, short x) throws SQLException
+  {
+    statement.setShort(parameterIndex, x);
+  }
+
+  public void setString(int parameterIndex, String x) throws SQLException
+  {
+    statement.setString(parameterIndex, x);
+  }
+
+  public void setTime(int parameterIndex, Time time) throws SQLException
+  {
+    statement.setTime(parameterIndex, time);
+  }
+
+  public void setTime(int parameterIndex, Time time, java.util.Calendar cal) throws SQLException
+  {
+    statement.setTime(parameterIndex, time, cal);
+  }
+
+  public void setTimestamp(int parameterIndex, Timestamp timestamp) throws SQLException
+  {
+    statement.setTimestamp(parameterIndex, timestamp);
+  }
+
+  public void setTimestamp(int parameterIndex, Timestamp timestamp, java.util.Calendar cal) throws SQLException
+  {
+    statement.setTimestamp(parameterIndex, timestamp, cal);
+  }
+
+  public void setURL(int parameterIndex, java.net.URL url) throws SQLException
+  {
+    statement.setURL(parameterIndex, url);
+  }
+
+  @Deprecated
+  public void setUnicodeStream(int parameterIndex, java.io.InputStream stream, int length) throws SQLException
+  {
+    statement.setUnicodeStream(parameterIndex, stream, length);
+  }
+
+  public void cancel() throws SQLException
+  {
+    statement.cancel();
+  }
+
+  public void clearWarnings() throws SQLException
+  {
+    statement.clearWarnings();
+  }
+
+  public void closeOnCompletion() throws SQLException
+  {
+    statement.closeOnCompletion();
+  }
+
+  public boolean execute(String sql) throws SQLException
+  {
+    return statement.execute(sql);
+  }
+
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException
+  {
+    return statement.execute(sql, autoGeneratedKeys);
+  }
+
+  public boolean execute(String sql, String[] columnNames) throws SQLException
+  {
+    return statement.execute(sql, columnNames);
+  }
+
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException
+  {
+    return statement.execute(sql, columnIndexes);
+  }
+
+  public ResultSet executeQuery(String sql) throws SQLException
+  {
+    return statement.executeQuery(sql);
+  }
+
+  public int executeUpdate(String sql) throws SQLException
+  {
+    return statement.executeUpdate(sql);
+  }
+
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException
+  {
+    return statement.executeUpdate(sql, autoGeneratedKeys);
+  }
+
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException
+  {
+    return statement.executeUpdate(sql, columnNames);
+  }
+
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException
+  {
+    return statement.executeUpdate(sql, columnIndexes);
+  }
+
+  public int getFetchDirection() throws SQLException
+  {
+    return statement.getFetchDirection();
+  }
+
+  public int getFetchSize() throws SQLException
+  {
+    return statement.getFetchSize();
+  }
+
+  public ResultSet getGeneratedKeys() throws SQLException
+  {
+    return statement.getGeneratedKeys();
+  }
+
+  public int getMaxFieldSize() throws SQLException
+  {
+    return statement.getMaxFieldSize();
+  }
+
+  public int getMaxRows() throws SQLException
+  {
+    return statement.getMaxRows();
+  }
+
+  public boolean getMoreResults() throws SQLException
+  {
+    return statement.getMoreResults();
+  }
+
+  public boolean getMoreResults(int current) throws SQLException
+  {
+    return statement.getMoreResults(current);
+  }
+
+  public int getQueryTimeout() throws SQLException
+  {
+    return statement.getQueryTimeout();
+  }
+
+  public ResultSet getResultSet() throws SQLException
+  {
+    return statement.getResultSet();
+  }
+
+  public int getResultSetConcurrency() throws SQLException
+  {
+    return statement.getResultSetConcurrency();
+  }
+
+  public int getResultSetHoldability() throws SQLException
+  {
+    return statement.getResultSetHoldability();
+  }
+
+  public int getResultSetType() throws SQLException
+  {
+    return statement.getResultSetType();
+  }
+
+  public int getUpdateCount() throws SQLException
+  {
+    return statement.getUpdateCount();
+  }
+
+  public SQLWarning getWarnings() throws SQLException
+  {
+    return statement.getWarnings();
+  }
+
+  public boolean isCloseOnCompletion() throws SQLException
+  {
+    return statement.isCloseOnCompletion();
+  }
+
+  public boolean isClosed() throws SQLException
+  {
+    return statement.isClosed();
+  }
+
+  public boolean isPoolable() throws SQLException
+  {
+    return statement.isPoolable();
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException
+  {
+    return statement.isWrapperFor(iface);
+  }
+
+  public void setCursorName(String name) throws SQLException
+  {
+    statement.setCursorName(name);
+  }
+
+  public void setEscapeProcessing(boolean enable) throws SQLException
+  {
+    statement.setEscapeProcessing(enable);
+  }
+
+  public void setFetchDirection(int direction) throws SQLException
+  {
+    statement.setFetchDirection(direction);
+  }
+
+  public void setFetchSize(int rows) throws SQLException
+  {
+    limited = true;
+    statement.setFetchSize(rows);
+  }
+
+  public void setMaxFieldSize(int max) throws SQLException
+  {
+    statement.setMaxFieldSize(max);
+  }
+
+  public void setMaxRows(int max) throws SQLException
+  {
+    limited = true;
+    statement.setMaxRows(max);
+  }
+
+  public void setPoolable(boolean poolable) throws SQLException
+  {
+    statement.setPoolable(poolable);
+  }
+
+  public void setQueryTimeout(int seconds) throws SQLException
+  {
+    limited = true;
+    statement.setQueryTimeout(seconds);
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException
+  {
+    return statement.unwrap(iface);
+  }
+}
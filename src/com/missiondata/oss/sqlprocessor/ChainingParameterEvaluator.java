@@ -18,13 +18,12 @@
  */
 package com.missiondata.oss.sqlprocessor;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ChainingParameterEvaluator implements ParameterEvaluator
 {
-  private List chainedEvaluators = new LinkedList();
+  private List chainedEvaluators = new ArrayList();
 
   public void addEvaluator(ParameterEvaluator evaluator)
   {
@@ -37,9 +36,9 @@ public class ChainingParameterEvaluator implements ParameterEvaluator
   public Object getParameterValue(String parameter, Object suggestedValue)
   {
     Object retVal = suggestedValue;
-    for (Iterator i = chainedEvaluators.iterator(); i.hasNext();)
+    for (int i = 0; i < chainedEvaluators.size(); i++)
     {
-      ParameterEvaluator evaluator = (ParameterEvaluator) i.next();
+      ParameterEvaluator evaluator = (ParameterEvaluator) chainedEvaluators.get(i);
       retVal = evaluator.getParameterValue(parameter, retVal);
     }
 
@@ -0,0 +1,584 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The rows of a query held column by column in primitive arrays, for results
+ * too large to keep as an object per row.
+ * <p>
+ * Each column's storage is chosen once from the result's metadata: whole
+ * numbers go in a <code>long[]</code>, floating point numbers in a
+ * <code>double[]</code>, booleans in a bitmap, and character columns as
+ * <code>int</code> codes into a dictionary of their distinct values.  A
+ * character column that turns out to be mostly distinct values is kept as
+ * strings instead.  Other types, dates and fractional decimals among them,
+ * are kept as the objects JDBC returns.  A column gets a null bitmap when its
+ * first null is read.
+ * <p>
+ * Columns are numbered from 1, as in JDBC.  Reading a null gives 0, false or
+ * null, and {@link #isNull(int, int)} tells which.  Whole numbers come back
+ * from {@link #getObject(int, int)} as <code>Long</code>, whatever their SQL
+ * type.
+ *
+ * @see AbstractSQLProcessorBase#queryColumnar(ConnectionSource, int)
+ */
+public final class ColumnarResult implements Iterable<ColumnarResult.Row>
+{
+  /**
+   * @param expectedRows the rows to allocate for before the first growth
+   */
+  ColumnarResult(int expectedRows)
+  {
+    this.capacity = Math.max(expectedRows, 16);
+  }
+
+  public int getRowCount()
+  {
+    return rowCount;
+  }
+
+  public int getColumnCount()
+  {
+    return names.length;
+  }
+
+  public String getColumnName(int column)
+  {
+    return names[column - 1];
+  }
+
+  /**
+   * @return the number of the column labelled <code>name</code>, ignoring case
+   * @throws IllegalArgumentException if there is no such column
+   */
+  public int findColumn(String name)
+  {
+    for (int i = 0; i < names.length; i++)
+    {
+      if (names[i].equalsIgnoreCase(name))
+      {
+        return i + 1;
+      }
+    }
+    throw new IllegalArgumentException("No column named " + name);
+  }
+
+  public boolean isNull(int row, int column)
+  {
+    checkRow(row);
+    long[] bitmap = nulls[column - 1];
+    return bitmap != null && isSet(bitmap, row);
+  }
+
+  public long getLong(int row, int column)
+  {
+    checkRow(row);
+    int c = column - 1;
+    switch (kinds[c])
+    {
+      case LONG:
+        return ((long[]) columns[c])[row];
+      case DOUBLE:
+        return (long) ((double[]) columns[c])[row];
+      case BOOLEAN:
+        return isSet((long[]) columns[c], row) ? 1 : 0;
+      default:
+        Object value = getObject(row, column);
+        return value == null ? 0 : toNumber(value, column).longValue();
+    }
+  }
+
+  public int getInt(int row, int column)
+  {
+    return (int) getLong(row, column);
+  }
+
+  public double getDouble(int row, int column)
+  {
+    checkRow(row);
+    int c = column - 1;
+    switch (kinds[c])
+    {
+      case LONG:
+        return ((long[]) columns[c])[row];
+      case DOUBLE:
+        return ((double[]) columns[c])[row];
+      case BOOLEAN:
+        return isSet((long[]) columns[c], row) ? 1 : 0;
+      default:
+        Object value = getObject(row, column);
+        return value == null ? 0 : toNumber(value, column).doubleValue();
+    }
+  }
+
+  public boolean getBoolean(int row, int column)
+  {
+    checkRow(row);
+    int c = column - 1;
+    if (kinds[c] == BOOLEAN)
+    {
+      return isSet((long[]) columns[c], row);
+    }
+    Object value = getObject(row, column);
+    return value instanceof Boolean ? (Boolean) value : value != null && getDouble(row, column) != 0;
+  }
+
+  public String getString(int row, int column)
+  {
+    checkRow(row);
+    int c = column - 1;
+    if (kinds[c] == STRING)
+    {
+      int code = ((int[]) columns[c])[row];
+      return code == NULL_CODE ? null : dictionaries[c].values.get(code);
+    }
+    Object value = getObject(row, column);
+    return value == null ? null : value.toString();
+  }
+
+  /**
+   * @return the value boxed, or null
+   */
+  public Object getObject(int row, int column)
+  {
+    if (isNull(row, column))
+    {
+      return null;
+    }
+    int c = column - 1;
+    switch (kinds[c])
+    {
+      case LONG:
+        return ((long[]) columns[c])[row];
+      case DOUBLE:
+        return ((double[]) columns[c])[row];
+      case BOOLEAN:
+        return isSet((long[]) columns[c], row);
+      case STRING:
+        return getString(row, column);
+      default:
+        return ((Object[]) columns[c])[row];
+    }
+  }
+
+  /**
+   * @return a view of row <code>row</code>, numbered from 0
+   */
+  public Row getRow(int row)
+  {
+    checkRow(row);
+    return new Row(row);
+  }
+
+  /**
+   * Iterates over the rows in order.  The iterator hands back the same
+   * {@link Row}, moved on to each row in turn, so a row kept past the next
+   * call to <code>next</code> must be copied with {@link #getRow(int)}.
+   */
+  public Iterator<Row> iterator()
+  {
+    return new Iterator<Row>()
+    {
+      public boolean hasNext()
+      {
+        return cursor.row + 1 < rowCount;
+      }
+
+      public Row next()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        cursor.row++;
+        return cursor;
+      }
+
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      private final Row cursor = new Row(-1);
+    };
+  }
+
+  /**
+   * One row of a {@link ColumnarResult}, read through to the columns.
+   */
+  public final class Row
+  {
+    private Row(int row)
+    {
+      this.row = row;
+    }
+
+    /**
+     * @return the row's number, from 0
+     */
+    public int getIndex()
+    {
+      return row;
+    }
+
+    public boolean isNull(int column)
+    {
+      return ColumnarResult.this.isNull(row, column);
+    }
+
+    public long getLong(int column)
+    {
+      return ColumnarResult.this.getLong(row, column);
+    }
+
+    public int getInt(int column)
+    {
+      return ColumnarResult.this.getInt(row, column);
+    }
+
+    public double getDouble(int column)
+    {
+      return ColumnarResult.this.getDouble(row, column);
+    }
+
+    public boolean getBoolean(int column)
+    {
+      return ColumnarResult.this.getBoolean(row, column);
+    }
+
+    public String getString(int column)
+    {
+      return ColumnarResult.this.getString(row, column);
+    }
+
+    public Object getObject(int column)
+    {
+      return ColumnarResult.this.getObject(row, column);
+    }
+
+    private int row;
+  }
+
+  /**
+   * Chooses each column's storage from the first execution's metadata; later
+   * executions append to the same columns.
+   */
+  void processMetaData(ResultSetMetaData metadata) throws SQLException
+  {
+    int columnCount = metadata.getColumnCount();
+    if (described)
+    {
+      if (columnCount != kinds.length)
+      {
+        throw new IllegalStateException("Expected " + kinds.length + " columns but the result has " + columnCount);
+      }
+      return;
+    }
+    described = true;
+    names = new String[columnCount];
+    kinds = new int[columnCount];
+    columns = new Object[columnCount];
+    nulls = new long[columnCount][];
+    dictionaries = new Dictionary[columnCount];
+    for (int c = 0; c < columnCount; c++)
+    {
+      names[c] = metadata.getColumnLabel(c + 1);
+      kinds[c] = kindOf(metadata, c + 1);
+      switch (kinds[c])
+      {
+        case LONG:
+          columns[c] = new long[capacity];
+          break;
+        case DOUBLE:
+          columns[c] = new double[capacity];
+          break;
+        case BOOLEAN:
+          columns[c] = new long[words(capacity)];
+          break;
+        case STRING:
+          columns[c] = new int[capacity];
+          dictionaries[c] = new Dictionary();
+          break;
+        default:
+          columns[c] = new Object[capacity];
+      }
+    }
+  }
+
+  /**
+   * Appends the row <code>resultSet</code> is positioned on.
+   */
+  void add(ResultSet resultSet) throws SQLException
+  {
+    if (rowCount == capacity)
+    {
+      grow();
+    }
+    int row = rowCount;
+    for (int c = 0; c < kinds.length; c++)
+    {
+      int column = c + 1;
+      switch (kinds[c])
+      {
+        case LONG:
+          long longValue = resultSet.getLong(column);
+          ((long[]) columns[c])[row] = longValue;
+          if (longValue == 0 && resultSet.wasNull())
+          {
+            setNull(c, row);
+          }
+          break;
+        case DOUBLE:
+          double doubleValue = resultSet.getDouble(column);
+          ((double[]) columns[c])[row] = doubleValue;
+          if (doubleValue == 0 && resultSet.wasNull())
+          {
+            setNull(c, row);
+          }
+          break;
+        case BOOLEAN:
+          if (resultSet.getBoolean(column))
+          {
+            set((long[]) columns[c], row);
+          }
+          else if (resultSet.wasNull())
+          {
+            setNull(c, row);
+          }
+          break;
+        case STRING:
+          String string = resultSet.getString(column);
+          ((int[]) columns[c])[row] = string == null ? NULL_CODE : dictionaries[c].codeOf(string);
+          if (string == null)
+          {
+            setNull(c, row);
+          }
+          break;
+        default:
+          Object value = resultSet.getObject(column);
+          ((Object[]) columns[c])[row] = value;
+          if (value == null)
+          {
+            setNull(c, row);
+          }
+      }
+    }
+    rowCount++;
+    if (rowCount == DICTIONARY_CHECK_ROWS)
+    {
+      dropPoorDictionaries();
+    }
+  }
+
+  /**
+   * Lets go of what is only needed while rows are being added.
+   */
+  void finish()
+  {
+    for (int c = 0; c < kinds.length; c++)
+    {
+      if (dictionaries[c] != null)
+      {
+        dictionaries[c].codes = null;
+        dictionaries[c].values.trimToSize();
+      }
+    }
+  }
+
+  private static int kindOf(ResultSetMetaData metadata, int column) throws SQLException
+  {
+    switch (metadata.getColumnType(column))
+    {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return LONG;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        int precision = metadata.getPrecision(column);
+        return metadata.getScale(column) == 0 && precision > 0 && precision <= 18 ? LONG : OBJECT;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return DOUBLE;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return STRING;
+      default:
+        return OBJECT;
+    }
+  }
+
+  /**
+   * Keeps as plain strings any character column where most values so far
+   * have been distinct, since a dictionary would only add to their cost.
+   */
+  private void dropPoorDictionaries()
+  {
+    for (int c = 0; c < kinds.length; c++)
+    {
+      if (kinds[c] == STRING && dictionaries[c].values.size() > rowCount / 2)
+      {
+        int[] codes = (int[]) columns[c];
+        ArrayList<String> values = dictionaries[c].values;
+        Object[] strings = new Object[capacity];
+        for (int row = 0; row < rowCount; row++)
+        {
+          strings[row] = codes[row] == NULL_CODE ? null : values.get(codes[row]);
+        }
+        columns[c] = strings;
+        kinds[c] = OBJECT;
+        dictionaries[c] = null;
+      }
+    }
+  }
+
+  private void grow()
+  {
+    int grown = (int) Math.min(Integer.MAX_VALUE - 8, capacity + (capacity >> 1) + 1L);
+    if (grown == capacity)
+    {
+      throw new IllegalStateException("Too many rows for a columnar result: " + rowCount);
+    }
+    for (int c = 0; c < kinds.length; c++)
+    {
+      switch (kinds[c])
+      {
+        case LONG:
+          columns[c] = Arrays.copyOf((long[]) columns[c], grown);
+          break;
+        case DOUBLE:
+          columns[c] = Arrays.copyOf((double[]) columns[c], grown);
+          break;
+        case BOOLEAN:
+          columns[c] = Arrays.copyOf((long[]) columns[c], words(grown));
+          break;
+        case STRING:
+          columns[c] = Arrays.copyOf((int[]) columns[c], grown);
+          break;
+        default:
+          columns[c] = Arrays.copyOf((Object[]) columns[c], grown);
+      }
+      if (nulls[c] != null)
+      {
+        nulls[c] = Arrays.copyOf(nulls[c], words(grown));
+      }
+    }
+    capacity = grown;
+  }
+
+  private void setNull(int c, int row)
+  {
+    if (nulls[c] == null)
+    {
+      nulls[c] = new long[words(capacity)];
+    }
+    set(nulls[c], row);
+  }
+
+  private void checkRow(int row)
+  {
+    if (row < 0 || row >= rowCount)
+    {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+    }
+  }
+
+  private Number toNumber(Object value, int column)
+  {
+    if (!(value instanceof Number))
+    {
+      throw new IllegalStateException("Column " + getColumnName(column) + " is not numeric: " + value);
+    }
+    return (Number) value;
+  }
+
+  private static int words(int bits)
+  {
+    return (bits + 63) >>> 6;
+  }
+
+  private static boolean isSet(long[] bitmap, int bit)
+  {
+    return (bitmap[bit >>> 6] & (1L << bit)) != 0;
+  }
+
+  private static void set(long[] bitmap, int bit)
+  {
+    bitmap[bit >>> 6] |= 1L << bit;
+  }
+
+  /**
+   * The distinct values of one character column, each with its code.
+   */
+  private static final class Dictionary
+  {
+    int codeOf(String value)
+    {
+      Integer code = codes.get(value);
+      if (code == null)
+      {
+        code = values.size();
+        codes.put(value, code);
+        values.add(value);
+      }
+      return code;
+    }
+
+    Map<String, Integer> codes = new HashMap<String, Integer>();
+    final ArrayList<String> values = new ArrayList<String>();
+  }
+
+  private static final int LONG = 0;
+  private static final int DOUBLE = 1;
+  private static final int BOOLEAN = 2;
+  private static final int STRING = 3;
+  private static final int OBJECT = 4;
+
+  private static final int NULL_CODE = -1;
+  private static final int DICTIONARY_CHECK_ROWS = 4096;
+
+  private String[] names = new String[0];
+  private int[] kinds = new int[0];
+  private Object[] columns = new Object[0];
+  private long[][] nulls = new long[0][];
+  private Dictionary[] dictionaries = new Dictionary[0];
+  private boolean described;
+  private int capacity;
+  private int rowCount;
+}
@@ -26,9 +26,15 @@ import javax.naming.NamingException;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * ConnectionSource for DataSource connection pooling
+ * <p>
+ * DataSources found in JNDI are kept in a process-wide registry, so only the
+ * first source for a name pays for the <code>InitialContext</code> and lookup.
+ * Use {@link #invalidate(String)} if the binding may have changed.
  *
  * @author Steven Yelton
  */
@@ -40,6 +46,61 @@ public class DataSourceConnectionSource implements ConnectionSource
    * @param name designates the datasource in the <em>java:com/env</em> context;  <code>"java:com/env/<b><i><u>name</u></i></b>"</code>
    */
   public DataSourceConnectionSource(String name)
+  {
+    dataSource = lookup(name);
+  }
+
+  /**
+   * Returns the DataSource for <code>name</code>, from the registry if it has
+   * been looked up or registered before, otherwise from JNDI.
+   *
+   * @param name designates the datasource in the <em>java:com/env</em> context
+   * @return the DataSource
+   * @throws SystemException if the lookup fails
+   */
+  public static DataSource lookup(String name)
+  {
+    DataSource dataSource = dataSources.get(name);
+    if (dataSource == null)
+    {
+      dataSource = lookupInContext(name);
+      DataSource existing = dataSources.putIfAbsent(name, dataSource);
+      if (existing != null)
+      {
+        dataSource = existing;
+      }
+    }
+    return dataSource;
+  }
+
+  /**
+   * Binds <code>name</code> to <code>dataSource</code> in the registry, so it
+   * is used without a JNDI lookup.  Useful outside an application server.
+   */
+  public static void register(String name, DataSource dataSource)
+  {
+    if (dataSource == null)
+    {
+      throw new IllegalArgumentException("DataSource cannot be null for " + name);
+    }
+    dataSources.put(name, dataSource);
+  }
+
+  /**
+   * Drops <code>name</code> from the registry; the next source for it looks
+   * it up in JNDI again.  Sources already built keep the DataSource they have.
+   */
+  public static void invalidate(String name)
+  {
+    dataSources.remove(name);
+  }
+
+  public static void invalidateAll()
+  {
+    dataSources.clear();
+  }
+
+  private static DataSource lookupInContext(String name)
   {
     try
     {
@@ -48,11 +109,12 @@ public class DataSourceConnectionSource implements ConnectionSource
       {
         throw new SystemException("Boom - No Context");
       }
-      dataSource =(DataSource)initialContext.lookup("java:comp/env/" + name);
+      DataSource dataSource =(DataSource)initialContext.lookup("java:comp/env/" + name);
       if (dataSource == null)
       {
         throw new SystemException("DS is null");
       }
+      return dataSource;
     }
     catch (NamingException e)
     {
@@ -93,4 +155,6 @@ public class DataSourceConnectionSource implements ConnectionSource
       throw new SystemException(e);
     }
   }
+
+  private static final ConcurrentMap<String, DataSource> dataSources = new ConcurrentHashMap<String, DataSource>();
 }
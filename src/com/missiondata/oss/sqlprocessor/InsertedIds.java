@@ -0,0 +1,114 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A growable list of inserted row ids, kept as primitive longs.  Should an id
+ * not fit in a long, the whole list moves to {@link BigInteger}s.
+ */
+final class InsertedIds
+{
+  void add(long id)
+  {
+    if (bigIds != null)
+    {
+      add(BigInteger.valueOf(id));
+      return;
+    }
+    if (size == ids.length)
+    {
+      ids = Arrays.copyOf(ids, size * 2);
+    }
+    ids[size++] = id;
+  }
+
+  void add(BigInteger id)
+  {
+    if (bigIds == null)
+    {
+      if (id.bitLength() < 64)
+      {
+        add(id.longValue());
+        return;
+      }
+      bigIds = new BigInteger[Math.max(ids.length, size + 1)];
+      for (int i = 0; i < size; i++)
+      {
+        bigIds[i] = BigInteger.valueOf(ids[i]);
+      }
+      ids = null;
+    }
+    if (size == bigIds.length)
+    {
+      bigIds = Arrays.copyOf(bigIds, size * 2);
+    }
+    bigIds[size++] = id;
+  }
+
+  int size()
+  {
+    return size;
+  }
+
+  BigInteger get(int index)
+  {
+    if (index < 0 || index >= size)
+    {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+    }
+    return bigIds != null ? bigIds[index] : BigInteger.valueOf(ids[index]);
+  }
+
+  /**
+   * @return the last id, or null if there are none
+   */
+  BigInteger last()
+  {
+    return size == 0 ? null : get(size - 1);
+  }
+
+  BigInteger[] toArray()
+  {
+    BigInteger[] array = new BigInteger[size];
+    for (int i = 0; i < size; i++)
+    {
+      array[i] = get(i);
+    }
+    return array;
+  }
+
+  /**
+   * @throws ArithmeticException if an id does not fit in a long
+   */
+  long[] toLongArray()
+  {
+    if (bigIds != null)
+    {
+      throw new ArithmeticException("Inserted ids do not all fit in a long");
+    }
+    return Arrays.copyOf(ids, size);
+  }
+
+  private long[] ids = new long[8];
+  private BigInteger[] bigIds;
+  private int size;
+}
@@ -26,6 +26,11 @@ public class JavaJDKLoggingCapability implements LoggingCapability
     logger.info(information);
   }
 
+  public boolean isInfoEnabled()
+  {
+    return logger.isLoggable(java.util.logging.Level.INFO);
+  }
+
   public void logWarning(String error, Throwable t)
   {
     logger.log(java.util.logging.Level.WARNING,error,t);
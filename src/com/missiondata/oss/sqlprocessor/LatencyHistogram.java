@@ -0,0 +1,140 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.  Values are counted in
+ * log-linear buckets, eight to each power of two, so any value read back is
+ * within 12.5% of one recorded.  Values above about 73 minutes share the last
+ * bucket.
+ */
+public final class LatencyHistogram
+{
+  public void record(long nanos)
+  {
+    if (nanos < 0)
+    {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    total.add(nanos);
+    long max;
+    while (nanos > (max = this.max.get()) && !this.max.compareAndSet(max, nanos))
+    {
+    }
+  }
+
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  public double getMean()
+  {
+    long count = getCount();
+    return count == 0 ? 0 : (double) total.sum() / count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the highest value in the bucket holding the percentile, or 0 if
+   *  nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    long[] counts = new long[BUCKETS];
+    long recorded = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      counts[i] = buckets.get(i);
+      recorded += counts[i];
+    }
+    if (recorded == 0)
+    {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * recorded));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += counts[i];
+      if (seen >= rank)
+      {
+        return Math.min(highestValueIn(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  public void reset()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      buckets.set(i, 0);
+    }
+    count.reset();
+    total.reset();
+    max.set(0);
+  }
+
+  static int bucketOf(long value)
+  {
+    if (value < SUB_BUCKETS)
+    {
+      return (int) value;
+    }
+    int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+    if (exponent == MAX_EXPONENT)
+    {
+      return BUCKETS - 1;
+    }
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+  }
+
+  static long highestValueIn(int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+    {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 42;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+}
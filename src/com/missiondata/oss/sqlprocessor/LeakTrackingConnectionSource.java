@@ -16,56 +16,294 @@
  * License along with this library; if not, write to the Free
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-package com.missiondata.oss.sqlprocessor;
-
-import java.sql.Connection;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-
-public class LeakTrackingConnectionSource implements ConnectionSource
-{
-  private ConnectionSource delegated;
-  private Map outstandingConnectionsToStackTraces = new HashMap();
-
-  public LeakTrackingConnectionSource(ConnectionSource delegated)
-  {
-    this.delegated = delegated;
-  }
-
-  public Connection getConnection()
-  {
-    Connection connection = delegated.getConnection();
-    Throwable throwable = new Throwable();
-    throwable.fillInStackTrace();
-    StackTraceElement[] trace = throwable.getStackTrace();
-
-    synchronized(outstandingConnectionsToStackTraces)
-    {
-      outstandingConnectionsToStackTraces.put(connection, trace);
-    }
-    return connection;
-  }
-
-  public void returnConnection(Connection connection)
-  {
-    synchronized(outstandingConnectionsToStackTraces)
-    {
-      if(outstandingConnectionsToStackTraces.remove(connection) == null)
-      {
-        System.err.println("We've never seen this connection before?");
-      }
-    }
-    delegated.returnConnection(connection);
-  }
-
-  public Collection getOutstandingStackTraces()
-  {
-    return outstandingConnectionsToStackTraces.values();
-  }
-
-  public ConnectionSource getDelegated()
-  {
-    return delegated;
-  }
-}
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the connections borrowed from another source and not yet
+ * returned, with when, and by which thread, each was borrowed.
+ * <p>
+ * The tracker is cheap enough to leave on.  Outstanding connections are kept
+ * in a concurrent identity map, and the borrower's stack is only captured for
+ * one in every <code>sampleRate</code> borrows.  Even then the stack trace
+ * elements are not built until a report asks for them, and then only to
+ * <code>maxDepth</code> frames.
+ *
+ * @see #startReporting(long, long)
+ */
+public class LeakTrackingConnectionSource implements ConnectionSource
+{
+  /**
+   * Tracks every borrow with its stack.
+   */
+  public LeakTrackingConnectionSource(ConnectionSource delegated)
+  {
+    this(delegated, 1, DEFAULT_MAX_DEPTH);
+  }
+
+  /**
+   * @param sampleRate one in every <code>sampleRate</code> borrows records its stack
+   * @param maxDepth the most stack frames reported for a borrow
+   */
+  public LeakTrackingConnectionSource(ConnectionSource delegated, int sampleRate, int maxDepth)
+  {
+    if (sampleRate < 1)
+    {
+      throw new IllegalArgumentException("Sample rate must be at least 1: " + sampleRate);
+    }
+    if (maxDepth < 1)
+    {
+      throw new IllegalArgumentException("Depth must be at least 1: " + maxDepth);
+    }
+    this.delegated = delegated;
+    this.sampleRate = sampleRate;
+    this.maxDepth = maxDepth;
+  }
+
+  public Connection getConnection()
+  {
+    Connection connection = delegated.getConnection();
+    boolean sampled = sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    outstanding.put(new Key(connection), new Borrow(connection, sampled ? new Throwable() : null, maxDepth));
+    return connection;
+  }
+
+  public void returnConnection(Connection connection)
+  {
+    if (outstanding.remove(new Key(connection)) == null)
+    {
+      loggingCapability.logWarning("We've never seen this connection before?", null);
+    }
+    delegated.returnConnection(connection);
+  }
+
+  /**
+   * @return the borrower's stack for each outstanding connection; empty for
+   *  borrows that were not sampled
+   */
+  public Collection<StackTraceElement[]> getOutstandingStackTraces()
+  {
+    List<StackTraceElement[]> traces = new ArrayList<StackTraceElement[]>();
+    for (Borrow borrow : outstanding.values())
+    {
+      traces.add(borrow.getStackTrace());
+    }
+    return traces;
+  }
+
+  public int getOutstandingCount()
+  {
+    return outstanding.size();
+  }
+
+  /**
+   * @param limit the most connections to return
+   * @return the connections out the longest, oldest first
+   */
+  public List<Borrow> getOldestOutstanding(int limit)
+  {
+    List<Borrow> borrows = new ArrayList<Borrow>(outstanding.values());
+    Collections.sort(borrows, OLDEST_FIRST);
+    return borrows.size() > limit ? new ArrayList<Borrow>(borrows.subList(0, limit)) : borrows;
+  }
+
+  /**
+   * Describes every connection that has been out for at least <code>minAgeMillis</code>,
+   * oldest first.
+   *
+   * @return the report, or null if there is nothing to report
+   */
+  public String report(long minAgeMillis)
+  {
+    long now = System.currentTimeMillis();
+    List<Borrow> borrows = getOldestOutstanding(Integer.MAX_VALUE);
+    StringBuilder report = null;
+    int count = 0;
+    for (Borrow borrow : borrows)
+    {
+      long age = now - borrow.getBorrowedAt();
+      if (age < minAgeMillis)
+      {
+        break;
+      }
+      if (report == null)
+      {
+        report = new StringBuilder();
+      }
+      count++;
+      report.append("\n  ").append(borrow.getConnection()).append(" borrowed ").append(age)
+        .append(" ms ago by thread ").append(borrow.getThreadName());
+      StackTraceElement[] trace = borrow.getStackTrace();
+      for (int i = 0; i < trace.length; i++)
+      {
+        report.append("\n    at ").append(trace[i]);
+      }
+    }
+    return report == null ? null : count + " of " + borrows.size() +
+      " outstanding connections are older than " + minAgeMillis + " ms:" + report;
+  }
+
+  /**
+   * Logs {@link #report(long)} as a warning every <code>periodMillis</code>,
+   * when there is something to report.  Replaces any earlier schedule.
+   *
+   * @param periodMillis how often to check
+   * @param minAgeMillis how long a connection must be out to be reported
+   */
+  public synchronized void startReporting(long periodMillis, final long minAgeMillis)
+  {
+    stopReporting();
+    reportingTask = reporter.scheduleWithFixedDelay(new Runnable()
+    {
+      public void run()
+      {
+        String report = report(minAgeMillis);
+        if (report != null)
+        {
+          loggingCapability.logWarning(report, null);
+        }
+      }
+    }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stopReporting()
+  {
+    if (reportingTask != null)
+    {
+      reportingTask.cancel(false);
+      reportingTask = null;
+    }
+  }
+
+  public void setLoggingCapability(LoggingCapability loggingCapability)
+  {
+    this.loggingCapability = loggingCapability;
+  }
+
+  public ConnectionSource getDelegated()
+  {
+    return delegated;
+  }
+
+  /**
+   * One outstanding connection.
+   */
+  public static final class Borrow
+  {
+    private Borrow(Connection connection, Throwable stack, int maxDepth)
+    {
+      this.connection = connection;
+      this.stack = stack;
+      this.maxDepth = maxDepth;
+      this.threadName = Thread.currentThread().getName();
+      this.borrowedAt = System.currentTimeMillis();
+    }
+
+    public Connection getConnection()
+    {
+      return connection;
+    }
+
+    public String getThreadName()
+    {
+      return threadName;
+    }
+
+    /**
+     * @return when the connection was borrowed, in milliseconds since the epoch
+     */
+    public long getBorrowedAt()
+    {
+      return borrowedAt;
+    }
+
+    /**
+     * @return the borrower's stack, from the borrowing frame outward, or an
+     *  empty array if this borrow was not sampled
+     */
+    public StackTraceElement[] getStackTrace()
+    {
+      if (stack == null)
+      {
+        return new StackTraceElement[0];
+      }
+      StackTraceElement[] full = stack.getStackTrace();
+      // the first frame is getConnection itself
+      int from = Math.min(1, full.length);
+      int to = Math.min(full.length, from + maxDepth);
+      StackTraceElement[] trace = new StackTraceElement[to - from];
+      System.arraycopy(full, from, trace, 0, trace.length);
+      return trace;
+    }
+
+    private final Connection connection;
+    private final Throwable stack;
+    private final int maxDepth;
+    private final String threadName;
+    private final long borrowedAt;
+  }
+
+  /**
+   * Compares connections by identity, whatever their equals method does.
+   */
+  private static final class Key
+  {
+    private final Connection connection;
+
+    Key(Connection connection)
+    {
+      this.connection = connection;
+    }
+
+    public int hashCode()
+    {
+      return System.identityHashCode(connection);
+    }
+
+    public boolean equals(Object other)
+    {
+      return other instanceof Key && ((Key) other).connection == connection;
+    }
+  }
+
+  private static final Comparator<Borrow> OLDEST_FIRST = new Comparator<Borrow>()
+  {
+    public int compare(Borrow a, Borrow b)
+    {
+      return a.borrowedAt < b.borrowedAt ? -1 : a.borrowedAt == b.borrowedAt ? 0 : 1;
+    }
+  };
+
+  private static final int DEFAULT_MAX_DEPTH = 32;
+
+  private static final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+  {
+    public Thread newThread(Runnable runnable)
+    {
+      Thread thread = new Thread(runnable, "sqlprocessor-leak-reporter");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final ConnectionSource delegated;
+  private final int sampleRate;
+  private final int maxDepth;
+  private final ConcurrentMap<Key, Borrow> outstanding = new ConcurrentHashMap<Key, Borrow>();
+  private volatile LoggingCapability loggingCapability = LoggingCapabilityFactory.getLoggingCapability("sqlprocessor");
+  private ScheduledFuture<?> reportingTask;
+}
@@ -28,6 +28,11 @@ public class Log4jLoggingCapability implements LoggingCapability
     logger.info(information);
   }
 
+  public boolean isInfoEnabled()
+  {
+    return logger.isInfoEnabled();
+  }
+
   public void logWarning(String error, Throwable t)
   {
     logger.warn(error,t);
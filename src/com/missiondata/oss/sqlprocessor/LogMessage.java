@@ -0,0 +1,11 @@
+package com.missiondata.oss.sqlprocessor;
+
+/**
+ * A log message whose text is only built when it is about to be written.
+ *
+ * @see LoggingCapability#logInfo(LogMessage)
+ */
+public interface LogMessage
+{
+  String getMessage();
+}
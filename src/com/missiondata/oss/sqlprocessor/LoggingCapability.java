@@ -10,4 +10,23 @@ public interface LoggingCapability
   void logInfo(String information);
   void logWarning(String error, Throwable t);
   void logError(String error, Throwable t);
+
+  /**
+   * @return false if info messages would be discarded, so callers can skip building them
+   */
+  default boolean isInfoEnabled()
+  {
+    return true;
+  }
+
+  /**
+   * Logs an info message, rendering its text only if info messages are enabled.
+   */
+  default void logInfo(LogMessage message)
+  {
+    if (isInfoEnabled())
+    {
+      logInfo(message.getMessage());
+    }
+  }
 }
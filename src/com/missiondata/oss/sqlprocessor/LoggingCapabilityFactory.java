@@ -73,6 +73,11 @@ public class LoggingCapabilityFactory
     {
     }
 
+    public boolean isInfoEnabled()
+    {
+      return false;
+    }
+
     public void logWarning(String error, Throwable t)
     {
     }
@@ -0,0 +1,46 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+/**
+ * Receives timings of each statement execution.  Set one with
+ * {@link AbstractSQLProcessorBase#setMetricsCapability}; while none is set,
+ * executions are not timed at all.
+ *
+ * @see StatementMetrics
+ */
+public interface MetricsCapability
+{
+  /**
+   * Records one call to <code>execute</code>, over every row it ran.
+   * Implementations are called from many threads at once and should be
+   * quick.
+   *
+   * @param description the processor's description
+   * @param template the statement's parsed SQL
+   * @param prepareNanos time spent preparing statements
+   * @param executeNanos time spent in <code>executeQuery</code>,
+   *  <code>executeUpdate</code> and <code>executeBatch</code>
+   * @param fetchNanos time spent reading and processing result rows
+   * @param rows rows read by a query, or rows updated
+   * @param failed true if the execution threw
+   */
+  void recordExecution(String description, TaggedSQLTemplate template, long prepareNanos, long executeNanos,
+    long fetchNanos, long rows, boolean failed);
+}
@@ -20,16 +20,20 @@ package com.missiondata.oss.sqlprocessor;
 
 import com.missiondata.oss.exception.SystemException;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.StringTokenizer;
-import java.sql.Types;
-
-import bsh.EvalError;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Support for multiple beans, a named bean iterator, and
  * <a href="http://www.beanshell.org">BeanShell</a> syntax in
  * the parameter value substitutions
+ * <p>
+ * Parameters that are simple property and method chains, such as
+ * <code>|bean.name|</code> or <code>|name.toUpperCase()|</code>, are compiled
+ * once and evaluated without the interpreter; other expressions go to BeanShell.
  *
  * @author Darren Day
  */
@@ -112,80 +116,63 @@ public class MultiBeanSQLProcessor extends AbstractSQLProcessorBase
   private class BeanShellParameterEvaluator implements ParameterEvaluator
   {
     private bsh.Interpreter interpreter = new bsh.Interpreter();
+    private Map<String, Object> variables = new HashMap<String, Object>();
+    private Set<String> unsyncedVariables = new HashSet<String>();
 
     public void set(String key, Object value)
     {
-      try
-      {
-        interpreter.set(key,value);
-      }
-      catch (bsh.EvalError evalError)
+      variables.put(key,value);
+      unsyncedVariables.add(key);
+    }
+
+    /**
+     * Copies values set since the last BeanShell evaluation into the interpreter.
+     * Compiled expressions read the variables directly, so the interpreter is
+     * only kept current when it is actually used.
+     */
+    private void syncInterpreter()
+    {
+      for (String key : unsyncedVariables)
       {
-        throw new SystemException("could not set in context",evalError);
+        try
+        {
+          interpreter.set(key,variables.get(key));
+        }
+        catch (bsh.EvalError evalError)
+        {
+          throw new SystemException("could not set in context",evalError);
+        }
       }
+      unsyncedVariables.clear();
     }
 
     public Object getParameterValue(String parameter, Object suggestedValue)
     {
-      Object val = null;
+      ParameterExpression expression = ParameterExpression.compile(parameter);
+      Object val;
       try
       {
-        Object[] parsed = parseParameterAndNull(parameter);
-        val = interpreter.eval((String)parsed[0]);
-        if(val==null)
+        val = expression.evaluate(variables);
+        if(val==ParameterExpression.UNRESOLVED)
         {
-          val = parsed[1];
+          syncInterpreter();
+          val = interpreter.eval(expression.getExpression());
         }
       }
       catch (bsh.EvalError evalError)
       {
         throw new SystemException("could not evaluate",evalError);
       }
-      return val;
-    }
-
-    private Object[] parseParameterAndNull(String parameter)
-    {
-      SQLNull retNull=new SQLNull(Types.OTHER);
-
-      StringTokenizer stringTok = new StringTokenizer(parameter,";",false);
-      int numTokens = stringTok.countTokens();
-      if(numTokens>1)
+      catch (Exception e)
       {
-        StringBuffer pre = new StringBuffer();
-        while(stringTok.hasMoreTokens())
-        {
-          numTokens--;
-          String token = stringTok.nextToken();
-          if(numTokens>0)
-          {
-            pre.append(token);
-          }
-          else
-          {
-            char[] ca = token.toCharArray();
-            boolean isIdentifier=Character.isJavaIdentifierStart(ca[0]);
-            for (int i = 1; i < ca.length && isIdentifier; i++)
-            {
-              isIdentifier = Character.isJavaIdentifierPart(ca[i]);
-            }
-            if(isIdentifier)
-            {
-              try
-              {
-                Integer typeVal = (Integer) interpreter.eval("java.sql.Types."+token);
-                retNull = new SQLNull(typeVal.intValue());
-                parameter = pre.toString();
-              } catch (EvalError ignore){};
-
-            }
-          }
-        }
+        throw new SystemException("could not evaluate",e);
       }
-
-      return new Object[]{parameter,retNull};
+      if(val==null)
+      {
+        val = expression.getNull();
+      }
+      return val;
     }
-
   }
 
 }
@@ -0,0 +1,262 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import com.missiondata.oss.exception.SystemException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent processors concurrently, each on one of a bounded number
+ * of connections.
+ * <p>
+ * Unlike {@link SQLTransaction}, which runs everything in order on one
+ * connection, a batch borrows up to <code>parallelism</code> connections and
+ * has each take the next processor not yet run until none are left.  Workers
+ * run on the {@link AsyncExecution} executor.  The processors must not depend
+ * on each other's effects.
+ * <p>
+ * A failed processor does not stop the others.  Once all have run,
+ * {@link #execute(ConnectionSource)} throws a single {@link SystemException}
+ * naming every processor that failed, with the first failure as its cause and
+ * the rest as suppressed exceptions.
+ * <p>
+ * With {@link #setTransactionIsolation(int)} each connection runs its share of
+ * the processors in one transaction at that isolation level, so a processor
+ * sees a consistent view for as long as its connection's transaction lasts.
+ * Whether the connections share one view is up to the database.  A
+ * connection's transaction is committed only if all of its processors
+ * succeed; otherwise it is rolled back, undoing the processors that did
+ * succeed on that connection.  The other connections' transactions are not
+ * affected.
+ *
+ * @see SQLTransaction
+ */
+public class ParallelSQLBatch
+{
+  /**
+   * @param parallelism the most connections used at once
+   */
+  public ParallelSQLBatch(int parallelism)
+  {
+    if (parallelism < 1)
+    {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    this.parallelism = parallelism;
+  }
+
+  public void add(AbstractSQLProcessorBase sqlProcessor)
+  {
+    sqlProcessors.add(sqlProcessor);
+  }
+
+  /**
+   * Runs each connection's processors in a transaction at <code>level</code>,
+   * one of the <code>Connection.TRANSACTION_</code> constants.  The
+   * connection's isolation and auto-commit are restored afterwards.
+   */
+  public void setTransactionIsolation(int level)
+  {
+    this.transactionIsolation = level;
+  }
+
+  /**
+   * The DataSource is only looked up in JNDI the first time a name is used.
+   *
+   * @param dataSourceJndiName - the JNDI name of a DataSource that the sql will act on
+   */
+  public void execute(String dataSourceJndiName)
+  {
+    execute(new DataSourceConnectionSource(dataSourceJndiName));
+  }
+
+  /**
+   * Runs every added processor and waits for all of them.
+   *
+   * @throws SystemException if any processor failed
+   */
+  public void execute(final ConnectionSource connectionSource)
+  {
+    final AtomicInteger next = new AtomicInteger();
+    final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<Failure>();
+
+    int workers = Math.min(parallelism, sqlProcessors.size());
+    CompletableFuture<?>[] running = new CompletableFuture<?>[workers];
+    for (int i = 0; i < workers; i++)
+    {
+      running[i] = AsyncExecution.supply(connectionSource, new Supplier<Void>()
+      {
+        public Void get()
+        {
+          work(connectionSource, next, failures);
+          return null;
+        }
+      });
+    }
+    CompletableFuture.allOf(running).join();
+
+    if (!failures.isEmpty())
+    {
+      throw aggregate(failures);
+    }
+  }
+
+  private void work(ConnectionSource connectionSource, AtomicInteger next, ConcurrentLinkedQueue<Failure> failures)
+  {
+    Connection connection;
+    try
+    {
+      connection = connectionSource.getConnection();
+    }
+    catch (RuntimeException e)
+    {
+      failures.add(new Failure("getConnection", e));
+      return;
+    }
+
+    Integer storedIsolation = null;
+    Boolean storedAutoCommit = null;
+    try
+    {
+      if (transactionIsolation != NO_ISOLATION)
+      {
+        storedIsolation = connection.getTransactionIsolation();
+        storedAutoCommit = connection.getAutoCommit();
+        connection.setTransactionIsolation(transactionIsolation);
+        connection.setAutoCommit(false);
+      }
+
+      boolean failed = false;
+      int index;
+      while ((index = next.getAndIncrement()) < sqlProcessors.size())
+      {
+        AbstractSQLProcessorBase sqlProcessor = sqlProcessors.get(index);
+        try
+        {
+          sqlProcessor.execute(connection);
+        }
+        catch (RuntimeException e)
+        {
+          failures.add(new Failure(sqlProcessor.getDescription(), e));
+          failed = true;
+        }
+      }
+
+      if (storedAutoCommit != null)
+      {
+        if (failed)
+        {
+          connection.rollback();
+        }
+        else
+        {
+          connection.commit();
+        }
+      }
+    }
+    catch (SQLException e)
+    {
+      failures.add(new Failure("transaction", new SQLSystemException("Error running batch transaction", e)));
+      if (storedAutoCommit != null)
+      {
+        rollbackQuietly(connection);
+      }
+    }
+    finally
+    {
+      try
+      {
+        if (storedAutoCommit != null)
+        {
+          connection.setAutoCommit(storedAutoCommit);
+          connection.setTransactionIsolation(storedIsolation);
+        }
+      }
+      catch (SQLException e)
+      {
+        failures.add(new Failure("transaction", new SQLSystemException("Error restoring connection", e)));
+      }
+      connectionSource.returnConnection(connection);
+    }
+  }
+
+  private static void rollbackQuietly(Connection connection)
+  {
+    try
+    {
+      connection.rollback();
+    }
+    catch (SQLException ignore)
+    {
+    }
+  }
+
+  private static SystemException aggregate(ConcurrentLinkedQueue<Failure> failures)
+  {
+    StringBuilder message = new StringBuilder();
+    message.append(failures.size()).append(" of the batch's statements failed:");
+    Throwable cause = null;
+    List<Throwable> suppressed = new ArrayList<Throwable>();
+    for (Failure failure : failures)
+    {
+      message.append("\n  ").append(failure.description).append(": ").append(failure.exception.getMessage());
+      if (cause == null)
+      {
+        cause = failure.exception;
+      }
+      else
+      {
+        suppressed.add(failure.exception);
+      }
+    }
+    SystemException exception = new SystemException(message.toString());
+    exception.initCause(cause);
+    for (Throwable t : suppressed)
+    {
+      exception.addSuppressed(t);
+    }
+    return exception;
+  }
+
+  private static final class Failure
+  {
+    final String description;
+    final RuntimeException exception;
+
+    Failure(String description, RuntimeException exception)
+    {
+      this.description = description;
+      this.exception = exception;
+    }
+  }
+
+  private static final int NO_ISOLATION = -1;
+
+  private final int parallelism;
+  private final List<AbstractSQLProcessorBase> sqlProcessors = new ArrayList<AbstractSQLProcessorBase>();
+  private int transactionIsolation = NO_ISOLATION;
+}
@@ -0,0 +1,240 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Sets a parameter with the <code>PreparedStatement</code> setter for its
+ * Java type, so drivers need not work out the type inside
+ * <code>setObject</code> on every bind.  The binder for each class is
+ * resolved once; types without a specific setter still go to
+ * <code>setObject</code>.
+ * <p>
+ * The {@link Primitive} binders also set values held as raw long bits, which
+ * is how {@link SQLProcessor#set(String, int)} and its siblings store numbers
+ * without boxing them.
+ */
+abstract class ParameterBinder
+{
+  abstract void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException;
+
+  /**
+   * @return the binder for <code>value</code>'s class
+   */
+  static ParameterBinder forValue(Object value)
+  {
+    return value == null ? OBJECT : binders.get(value.getClass());
+  }
+
+  /**
+   * A binder for a primitive type whose values can be held as long bits.
+   */
+  abstract static class Primitive extends ParameterBinder
+  {
+    abstract void bindBits(PreparedStatement preparedStatement, int index, long bits) throws SQLException;
+
+    abstract long toBits(Object value);
+
+    abstract Object box(long bits);
+
+    void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+    {
+      bindBits(preparedStatement, index, toBits(value));
+    }
+  }
+
+  static final Primitive INT = new Primitive()
+  {
+    void bindBits(PreparedStatement preparedStatement, int index, long bits) throws SQLException
+    {
+      preparedStatement.setInt(index, (int) bits);
+    }
+
+    long toBits(Object value)
+    {
+      return ((Integer) value).intValue();
+    }
+
+    Object box(long bits)
+    {
+      return Integer.valueOf((int) bits);
+    }
+  };
+
+  static final Primitive LONG = new Primitive()
+  {
+    void bindBits(PreparedStatement preparedStatement, int index, long bits) throws SQLException
+    {
+      preparedStatement.setLong(index, bits);
+    }
+
+    long toBits(Object value)
+    {
+      return ((Long) value).longValue();
+    }
+
+    Object box(long bits)
+    {
+      return Long.valueOf(bits);
+    }
+  };
+
+  static final Primitive DOUBLE = new Primitive()
+  {
+    void bindBits(PreparedStatement preparedStatement, int index, long bits) throws SQLException
+    {
+      preparedStatement.setDouble(index, Double.longBitsToDouble(bits));
+    }
+
+    long toBits(Object value)
+    {
+      return Double.doubleToRawLongBits(((Double) value).doubleValue());
+    }
+
+    Object box(long bits)
+    {
+      return Double.valueOf(Double.longBitsToDouble(bits));
+    }
+  };
+
+  static final Primitive BOOLEAN = new Primitive()
+  {
+    void bindBits(PreparedStatement preparedStatement, int index, long bits) throws SQLException
+    {
+      preparedStatement.setBoolean(index, bits != 0);
+    }
+
+    long toBits(Object value)
+    {
+      return ((Boolean) value).booleanValue() ? 1 : 0;
+    }
+
+    Object box(long bits)
+    {
+      return Boolean.valueOf(bits != 0);
+    }
+  };
+
+  private static final ParameterBinder OBJECT = new ParameterBinder()
+  {
+    void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+    {
+      preparedStatement.setObject(index, value);
+    }
+  };
+
+  private static final ClassValue<ParameterBinder> binders = new ClassValue<ParameterBinder>()
+  {
+    protected ParameterBinder computeValue(Class<?> type)
+    {
+      if (type == String.class)
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setString(index, (String) value);
+          }
+        };
+      }
+      if (type == Integer.class)
+      {
+        return INT;
+      }
+      if (type == Long.class)
+      {
+        return LONG;
+      }
+      if (type == Double.class)
+      {
+        return DOUBLE;
+      }
+      if (type == Boolean.class)
+      {
+        return BOOLEAN;
+      }
+      if (type == BigDecimal.class)
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setBigDecimal(index, (BigDecimal) value);
+          }
+        };
+      }
+      if (type == Timestamp.class)
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setTimestamp(index, (Timestamp) value);
+          }
+        };
+      }
+      if (type == java.sql.Date.class)
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setDate(index, (java.sql.Date) value);
+          }
+        };
+      }
+      if (type == Time.class)
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setTime(index, (Time) value);
+          }
+        };
+      }
+      if (type == byte[].class)
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setBytes(index, (byte[]) value);
+          }
+        };
+      }
+      if (SQLNull.class.isAssignableFrom(type))
+      {
+        return new ParameterBinder()
+        {
+          void bind(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+          {
+            preparedStatement.setNull(index, ((SQLNull) value).getType());
+          }
+        };
+      }
+      return OBJECT;
+    }
+  };
+}
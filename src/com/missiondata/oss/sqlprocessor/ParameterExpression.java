@@ -0,0 +1,385 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link MultiBeanSQLProcessor} parameter, parsed once.
+ * <p>
+ * The optional <code>;TYPE</code> suffix is resolved against {@link Types} when
+ * the parameter is parsed.  Expressions that are a variable followed by a chain
+ * of properties and no-argument calls, such as <code>bean.address.getCity()</code>
+ * or <code>name.toUpperCase()</code>, are evaluated directly through
+ * {@link MethodHandle}s cached per step and receiver class.  Anything else, and
+ * any chain that cannot be followed at run time, is left to BeanShell.
+ *
+ * @see MultiBeanSQLProcessor
+ */
+final class ParameterExpression
+{
+  /**
+   * Returned by {@link #evaluate(Map)} when the expression has to be handed to BeanShell.
+   */
+  static final Object UNRESOLVED = new Object();
+
+  static final int MAX_CACHED = 1000;
+  private static final ConcurrentMap<String, ParameterExpression> cache = new ConcurrentHashMap<String, ParameterExpression>();
+
+  static ParameterExpression compile(String parameter)
+  {
+    ParameterExpression expression = cache.get(parameter);
+    if (expression == null)
+    {
+      expression = new ParameterExpression(parameter);
+      ParameterExpression existing = cache.putIfAbsent(parameter, expression);
+      if (existing != null)
+      {
+        expression = existing;
+      }
+      else if (cache.size() > MAX_CACHED)
+      {
+        trimCache();
+      }
+    }
+    return expression;
+  }
+
+  static int getCacheSize()
+  {
+    return cache.size();
+  }
+
+  /**
+   * Drops expressions over the limit in no particular order, as the
+   * {@link TaggedSQLTemplate} cache does; they are compiled again when next used.
+   */
+  private static void trimCache()
+  {
+    Iterator<String> keys = cache.keySet().iterator();
+    while (cache.size() > MAX_CACHED && keys.hasNext())
+    {
+      keys.next();
+      keys.remove();
+    }
+  }
+
+  private final String expression;
+  private final int nullType;
+  private final boolean nullLiteral;
+  private final String root;
+  private final Step[] steps;
+
+  private ParameterExpression(String parameter)
+  {
+    String text = parameter;
+    int type = Types.OTHER;
+
+    StringTokenizer stringTok = new StringTokenizer(parameter, ";", false);
+    int numTokens = stringTok.countTokens();
+    if (numTokens > 1)
+    {
+      StringBuffer pre = new StringBuffer();
+      while (stringTok.hasMoreTokens())
+      {
+        numTokens--;
+        String token = stringTok.nextToken();
+        if (numTokens > 0)
+        {
+          pre.append(token);
+        }
+        else
+        {
+          Integer typeVal = sqlType(token);
+          if (typeVal != null)
+          {
+            type = typeVal.intValue();
+            text = pre.toString();
+          }
+        }
+      }
+    }
+
+    this.expression = text;
+    this.nullType = type;
+
+    String trimmed = text.trim();
+    this.nullLiteral = trimmed.equals("null");
+    List<Step> stepList = new ArrayList<Step>();
+    this.root = nullLiteral ? null : parseChain(trimmed, stepList);
+    this.steps = root == null ? null : stepList.toArray(new Step[stepList.size()]);
+  }
+
+  private static Integer sqlType(String token)
+  {
+    if (!isIdentifier(token))
+    {
+      return null;
+    }
+    try
+    {
+      Field field = Types.class.getField(token);
+      if (Modifier.isStatic(field.getModifiers()) && field.getType() == int.class)
+      {
+        return (Integer) field.get(null);
+      }
+    }
+    catch (NoSuchFieldException ignore)
+    {
+    }
+    catch (IllegalAccessException ignore)
+    {
+    }
+    return null;
+  }
+
+  private static boolean isIdentifier(String token)
+  {
+    if (token.length() == 0 || !Character.isJavaIdentifierStart(token.charAt(0)))
+    {
+      return false;
+    }
+    for (int i = 1; i < token.length(); i++)
+    {
+      if (!Character.isJavaIdentifierPart(token.charAt(i)))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses <code>root(.name|.name())*</code>.
+   *
+   * @return the root variable name, or null if the text is not such a chain
+   */
+  private static String parseChain(String text, List<Step> steps)
+  {
+    String[] parts = text.split("\\.", -1);
+    if (!isIdentifier(parts[0]))
+    {
+      return null;
+    }
+    for (int i = 1; i < parts.length; i++)
+    {
+      String part = parts[i].trim();
+      boolean call = false;
+      if (part.endsWith(")"))
+      {
+        int open = part.indexOf('(');
+        if (open == -1 || part.substring(open + 1, part.length() - 1).trim().length() != 0)
+        {
+          return null;
+        }
+        part = part.substring(0, open).trim();
+        call = true;
+      }
+      if (!isIdentifier(part))
+      {
+        return null;
+      }
+      steps.add(new Step(part, call));
+    }
+    return parts[0];
+  }
+
+  /**
+   * @return the expression with any <code>;TYPE</code> suffix removed
+   */
+  String getExpression()
+  {
+    return expression;
+  }
+
+  /**
+   * @return the value to bind when the expression evaluates to null
+   */
+  SQLNull getNull()
+  {
+    return new SQLNull(nullType);
+  }
+
+  /**
+   * @param variables the values set on the processor, by name
+   * @return the value, or {@link #UNRESOLVED} if BeanShell has to evaluate it
+   * @throws Exception thrown by an invoked accessor
+   */
+  Object evaluate(Map<String, Object> variables) throws Exception
+  {
+    if (nullLiteral)
+    {
+      return null;
+    }
+    if (root == null || !variables.containsKey(root))
+    {
+      return UNRESOLVED;
+    }
+    Object value = variables.get(root);
+    for (int i = 0; i < steps.length; i++)
+    {
+      if (value == null)
+      {
+        return UNRESOLVED;
+      }
+      value = steps[i].apply(value);
+      if (value == UNRESOLVED)
+      {
+        return UNRESOLVED;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * One <code>.name</code> or <code>.name()</code> in a chain, with the handle
+   * resolved for the last receiver class it saw.
+   */
+  private static final class Step
+  {
+    private final String name;
+    private final boolean call;
+    private volatile Target target;
+
+    Step(String name, boolean call)
+    {
+      this.name = name;
+      this.call = call;
+    }
+
+    Object apply(Object receiver) throws Exception
+    {
+      Target current = target;
+      if (current == null || current.receiverClass != receiver.getClass())
+      {
+        current = new Target(receiver.getClass(), resolve(receiver.getClass()));
+        target = current;
+      }
+      if (current.handle == null)
+      {
+        return UNRESOLVED;
+      }
+      try
+      {
+        return current.handle.invokeExact(receiver);
+      }
+      catch (Exception e)
+      {
+        throw e;
+      }
+      catch (Error e)
+      {
+        throw e;
+      }
+      catch (Throwable t)
+      {
+        throw new RuntimeException(t);
+      }
+    }
+
+    private MethodHandle resolve(Class<?> receiverClass)
+    {
+      try
+      {
+        if (call)
+        {
+          return unreflect(receiverClass.getMethod(name));
+        }
+
+        try
+        {
+          Field field = receiverClass.getField(name);
+          if (!Modifier.isStatic(field.getModifiers()))
+          {
+            return MethodHandles.lookup().unreflectGetter(field).asType(GENERIC);
+          }
+        }
+        catch (NoSuchFieldException ignore)
+        {
+        }
+        catch (IllegalAccessException ignore)
+        {
+        }
+
+        String suffix = name.substring(0, 1).toUpperCase() + name.substring(1);
+        try
+        {
+          return unreflect(receiverClass.getMethod("get" + suffix));
+        }
+        catch (NoSuchMethodException e)
+        {
+          Method method = receiverClass.getMethod("is" + suffix);
+          return method.getReturnType() == boolean.class ? unreflect(method) : null;
+        }
+      }
+      catch (NoSuchMethodException e)
+      {
+        return null;
+      }
+      catch (IllegalAccessException e)
+      {
+        return null;
+      }
+      catch (RuntimeException e)
+      {
+        return null;
+      }
+    }
+
+    private static MethodHandle unreflect(Method method) throws IllegalAccessException
+    {
+      if (Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class)
+      {
+        return null;
+      }
+      if (!Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+      {
+        method.setAccessible(true);
+      }
+      return MethodHandles.lookup().unreflect(method).asType(GENERIC);
+    }
+
+    private static final MethodType GENERIC = MethodType.methodType(Object.class, Object.class);
+  }
+
+  private static final class Target
+  {
+    final Class<?> receiverClass;
+    final MethodHandle handle;
+
+    Target(Class<?> receiverClass, MethodHandle handle)
+    {
+      this.receiverClass = receiverClass;
+      this.handle = handle;
+    }
+  }
+}
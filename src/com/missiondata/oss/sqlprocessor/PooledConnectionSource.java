@@ -0,0 +1,454 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import com.missiondata.oss.exception.SystemException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of physical connections, opened from a JDBC URL or a
+ * {@link DataSource}, for use outside an application server.
+ * <p>
+ * At most <code>maxSize</code> connections are out at once; a borrower beyond
+ * that waits up to the borrow timeout and then gets a {@link SystemException}.
+ * Borrowing takes no locks: a permit is taken from a semaphore and an idle
+ * connection is claimed with a compare-and-set, trying first the connection the
+ * calling thread returned last.  A connection idle for longer than the
+ * validation interval is checked with {@link Connection#isValid(int)} before it
+ * is handed out.  Connections idle past the idle timeout are closed in the
+ * background, down to <code>minSize</code>.
+ * <p>
+ * Connections are handed out as is, not wrapped, and must be given back through
+ * {@link #returnConnection(Connection)} rather than closed.  A connection that
+ * comes back with auto-commit off is rolled back and has auto-commit restored.
+ * Call {@link #close()} when the pool is no longer needed.
+ */
+public class PooledConnectionSource implements ConnectionSource
+{
+  /**
+   * @param dataSource opens the physical connections
+   * @param minSize connections opened up front and kept when idle
+   * @param maxSize the most connections out at once
+   */
+  public PooledConnectionSource(DataSource dataSource, int minSize, int maxSize)
+  {
+    this(dataSource, null, null, minSize, maxSize);
+  }
+
+  /**
+   * @param url a JDBC URL for a driver known to {@link DriverManager}
+   * @param info connection properties, such as user and password
+   * @param minSize connections opened up front and kept when idle
+   * @param maxSize the most connections out at once
+   */
+  public PooledConnectionSource(String url, Properties info, int minSize, int maxSize)
+  {
+    this(null, url, info == null ? new Properties() : info, minSize, maxSize);
+  }
+
+  private PooledConnectionSource(DataSource dataSource, String url, Properties info, int minSize, int maxSize)
+  {
+    if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+    {
+      throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+    }
+    this.dataSource = dataSource;
+    this.url = url;
+    this.info = info;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.permits = new Semaphore(maxSize);
+    fill();
+    setIdleTimeout(DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Borrows a connection, waiting up to the borrow timeout if all are out.
+   *
+   * @throws SystemException if the pool is closed, no connection became free in
+   *  time, or a new connection could not be opened
+   */
+  public Connection getConnection()
+  {
+    if (closed)
+    {
+      throw new SystemException("Connection pool is closed");
+    }
+    try
+    {
+      if (!permits.tryAcquire() && !permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
+      {
+        throw new SystemException("Timed out after " + borrowTimeout + " ms waiting for a connection; all " +
+          maxSize + " are in use");
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new SystemException("Interrupted waiting for a connection", e);
+    }
+
+    try
+    {
+      Entry entry = claim();
+      while (entry != null && !isUsable(entry))
+      {
+        discard(entry);
+        entry = claim();
+      }
+      if (entry == null)
+      {
+        entry = open(IN_USE);
+      }
+      return entry.connection;
+    }
+    catch (RuntimeException e)
+    {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives back a connection borrowed from this pool.
+   *
+   * @throws IllegalArgumentException if the connection is not out from this pool
+   */
+  public void returnConnection(Connection connection)
+  {
+    Entry entry = entries.get(connection);
+    if (entry == null || entry.state.get() != IN_USE)
+    {
+      throw new IllegalArgumentException("Connection was not borrowed from this pool");
+    }
+    entry.lastUsed = System.currentTimeMillis();
+    if (!closed && reset(connection))
+    {
+      entry.state.set(IDLE);
+      affinity.set(entry);
+    }
+    else
+    {
+      discard(entry);
+    }
+    permits.release();
+  }
+
+  /**
+   * Closes the idle connections and stops background eviction.  Connections
+   * still out are closed as they are returned.
+   */
+  public void close()
+  {
+    closed = true;
+    setIdleTimeout(0);
+    for (Entry entry : all)
+    {
+      if (entry.state.compareAndSet(IDLE, REMOVED))
+      {
+        discard(entry);
+      }
+    }
+  }
+
+  /**
+   * @param millis how long a borrower waits for a connection; initially 30 seconds
+   */
+  public void setBorrowTimeout(long millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("Borrow timeout cannot be negative: " + millis);
+    }
+    this.borrowTimeout = millis;
+  }
+
+  /**
+   * Connections idle for longer than this are closed, as long as more than
+   * <code>minSize</code> remain.  The check runs in the background every half
+   * timeout.
+   *
+   * @param millis the idle timeout, initially 10 minutes; 0 never closes idle connections
+   */
+  public synchronized void setIdleTimeout(long millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("Idle timeout cannot be negative: " + millis);
+    }
+    this.idleTimeout = millis;
+    if (evictionTask != null)
+    {
+      evictionTask.cancel(false);
+      evictionTask = null;
+    }
+    if (millis > 0 && !closed)
+    {
+      long period = Math.max(millis / 2, 1000);
+      evictionTask = evictor.scheduleWithFixedDelay(new Runnable()
+      {
+        public void run()
+        {
+          evictIdle();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * A connection idle for longer than this is validated before it is handed out.
+   *
+   * @param millis the validation interval, initially 1 second; 0 validates on every borrow
+   */
+  public void setValidationInterval(long millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("Validation interval cannot be negative: " + millis);
+    }
+    this.validationInterval = millis;
+  }
+
+  /**
+   * @param seconds how long {@link Connection#isValid(int)} may take; initially 5
+   */
+  public void setValidationTimeout(int seconds)
+  {
+    if (seconds < 0)
+    {
+      throw new IllegalArgumentException("Validation timeout cannot be negative: " + seconds);
+    }
+    this.validationTimeout = seconds;
+  }
+
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * @return the number of open connections, idle or out
+   */
+  public int getSize()
+  {
+    return all.size();
+  }
+
+  /**
+   * @return the number of open connections not currently out
+   */
+  public int getIdleCount()
+  {
+    int idle = 0;
+    for (Entry entry : all)
+    {
+      if (entry.state.get() == IDLE)
+      {
+        idle++;
+      }
+    }
+    return idle;
+  }
+
+  /**
+   * @return the number of connections currently out
+   */
+  public int getActiveCount()
+  {
+    return maxSize - permits.availablePermits();
+  }
+
+  private Entry claim()
+  {
+    Entry preferred = affinity.get();
+    if (preferred != null && preferred.state.compareAndSet(IDLE, IN_USE))
+    {
+      return preferred;
+    }
+    for (Entry entry : all)
+    {
+      if (entry.state.compareAndSet(IDLE, IN_USE))
+      {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private boolean isUsable(Entry entry)
+  {
+    if (System.currentTimeMillis() - entry.lastUsed < validationInterval)
+    {
+      return true;
+    }
+    try
+    {
+      return entry.connection.isValid(validationTimeout);
+    }
+    catch (SQLException e)
+    {
+      return false;
+    }
+  }
+
+  private boolean reset(Connection connection)
+  {
+    try
+    {
+      if (connection.isClosed())
+      {
+        return false;
+      }
+      if (!connection.getAutoCommit())
+      {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      return true;
+    }
+    catch (SQLException e)
+    {
+      return false;
+    }
+  }
+
+  private Entry open(int state)
+  {
+    Connection connection;
+    try
+    {
+      connection = dataSource != null ? dataSource.getConnection() : DriverManager.getConnection(url, info);
+    }
+    catch (SQLException e)
+    {
+      throw new SystemException(e);
+    }
+    Entry entry = new Entry(connection, state);
+    entries.put(connection, entry);
+    all.add(entry);
+    return entry;
+  }
+
+  private void discard(Entry entry)
+  {
+    entry.state.set(REMOVED);
+    all.remove(entry);
+    entries.remove(entry.connection);
+    try
+    {
+      entry.connection.close();
+    }
+    catch (SQLException ignore)
+    {
+    }
+  }
+
+  private void fill()
+  {
+    while (!closed && all.size() < minSize)
+    {
+      open(IDLE);
+    }
+  }
+
+  void evictIdle()
+  {
+    long cutoff = System.currentTimeMillis() - idleTimeout;
+    for (Entry entry : all)
+    {
+      if (all.size() <= minSize)
+      {
+        break;
+      }
+      if (entry.lastUsed < cutoff && entry.state.compareAndSet(IDLE, REMOVED))
+      {
+        discard(entry);
+      }
+    }
+    try
+    {
+      fill();
+    }
+    catch (SystemException e)
+    {
+      // the database is unavailable; the next borrow or eviction run tries again
+    }
+  }
+
+  private static final class Entry
+  {
+    final Connection connection;
+    final AtomicInteger state;
+    volatile long lastUsed = System.currentTimeMillis();
+
+    Entry(Connection connection, int state)
+    {
+      this.connection = connection;
+      this.state = new AtomicInteger(state);
+    }
+  }
+
+  private static final int IDLE = 0;
+  private static final int IN_USE = 1;
+  private static final int REMOVED = 2;
+
+  private static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+  private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+  {
+    public Thread newThread(Runnable runnable)
+    {
+      Thread thread = new Thread(runnable, "sqlprocessor-pool-evictor");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final DataSource dataSource;
+  private final String url;
+  private final Properties info;
+  private final int minSize;
+  private final int maxSize;
+  private final Semaphore permits;
+  private final List<Entry> all = new CopyOnWriteArrayList<Entry>();
+  private final ConcurrentMap<Connection, Entry> entries = new ConcurrentHashMap<Connection, Entry>();
+  private final ThreadLocal<Entry> affinity = new ThreadLocal<Entry>();
+  private volatile boolean closed;
+  private volatile long borrowTimeout = 30 * 1000;
+  private volatile long idleTimeout;
+  private volatile long validationInterval = 1000;
+  private volatile int validationTimeout = 5;
+  private ScheduledFuture<?> evictionTask;
+}
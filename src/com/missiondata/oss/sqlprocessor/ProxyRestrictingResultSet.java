@@ -19,7 +19,6 @@
 package com.missiondata.oss.sqlprocessor;
 
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
 import java.lang.reflect.Method;
 import java.util.Set;
 import java.util.HashSet;
@@ -59,16 +58,11 @@ public class ProxyRestrictingResultSet implements InvocationHandler
    * {@link ResultSet#close} will result in an {@link UnsupportedOperationException}
    *
    * @param resultSetToRestrict
-   * @return
+   * @return a {@link RestrictingResultSet}, which delegates directly
    */
   public static RestrictedResultSet restrict(ResultSet resultSetToRestrict)
   {
-    return (RestrictedResultSet) Proxy.newProxyInstance
-    (
-      ProxyRestrictingResultSet.RestrictedResultSet.class.getClassLoader(),
-      new Class[]{ProxyRestrictingResultSet.RestrictedResultSet.class},
-      new ProxyRestrictingResultSet(resultSetToRestrict)
-    );
+    return new RestrictingResultSet(resultSetToRestrict);
   }
 
   protected ProxyRestrictingResultSet(ResultSet impl)
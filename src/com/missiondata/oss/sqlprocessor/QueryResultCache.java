@@ -0,0 +1,417 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers what queries returned, so a processor can answer
+ * {@link AbstractSQLProcessorBase#getSingleResult()} and
+ * {@link AbstractSQLProcessorBase#resultsExist()} without going to the database.
+ * <p>
+ * Entries are keyed by the prepared SQL and the bound parameter values, and
+ * kept for the time-to-live given by the processor that stored them.  The cache
+ * holds at most <code>maxEntries</code>, dropping the least recently used.
+ * <p>
+ * Any insert, update or delete run by an {@link AbstractSQLProcessorBase}
+ * drops the entries of every cache that read from the tables it names.
+ * Tables are found by a simple scan of the SQL for the names following
+ * <code>FROM</code>, <code>JOIN</code>, <code>UPDATE</code> and
+ * <code>INTO</code>, ignoring schema qualifiers; a query in which none are
+ * found is not cached, and a write in which none are found clears every cache.
+ * Writes made in an {@link SQLTransaction} drop entries again when it
+ * commits, and a result read while one of its tables was being invalidated is
+ * not stored.  Writes made outside this library, or by other processes, are
+ * only seen once entries expire.
+ *
+ * @see AbstractSQLProcessorBase#setResultCache(QueryResultCache, long)
+ */
+public class QueryResultCache
+{
+  /**
+   * @param maxEntries the most results kept
+   */
+  public QueryResultCache(int maxEntries)
+  {
+    if (maxEntries < 1)
+    {
+      throw new IllegalArgumentException("Cache size must be at least 1: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    caches.add(new WeakReference<QueryResultCache>(this));
+  }
+
+  /**
+   * Drops every result read from <code>table</code>.
+   */
+  public void invalidate(String table)
+  {
+    String name = tableName(table);
+    synchronized (entries)
+    {
+      Long generation = generations.get(name);
+      generations.put(name, generation == null ? 1L : generation + 1);
+      Set<Key> keys = keysByTable.remove(name);
+      if (keys != null)
+      {
+        for (Key key : keys)
+        {
+          drop(key);
+        }
+      }
+    }
+  }
+
+  public void invalidateAll()
+  {
+    synchronized (entries)
+    {
+      clearedGeneration++;
+      entries.clear();
+      keysByTable.clear();
+    }
+  }
+
+  public int size()
+  {
+    synchronized (entries)
+    {
+      return entries.size();
+    }
+  }
+
+  public long getHitCount()
+  {
+    return hits.get();
+  }
+
+  public long getMissCount()
+  {
+    return misses.get();
+  }
+
+  /**
+   * @return the live result for <code>key</code>, or null
+   */
+  Entry get(Key key)
+  {
+    Entry entry;
+    synchronized (entries)
+    {
+      entry = entries.get(key);
+      if (entry != null && entry.expiresAt <= System.currentTimeMillis())
+      {
+        drop(key);
+        entry = null;
+      }
+    }
+    (entry == null ? misses : hits).incrementAndGet();
+    return entry;
+  }
+
+  /**
+   * @return a stamp that changes whenever a table the query reads from is
+   *  invalidated; take it before running the query and hand it to
+   *  {@link #put(Key, long, boolean, Object, long)}
+   */
+  long generation(Key key)
+  {
+    Set<String> tables = tablesOf(key.sql);
+    synchronized (entries)
+    {
+      long generation = clearedGeneration;
+      for (String table : tables)
+      {
+        Long tableGeneration = generations.get(table);
+        if (tableGeneration != null)
+        {
+          generation += tableGeneration;
+        }
+      }
+      return generation;
+    }
+  }
+
+  /**
+   * Stores a query's result, unless no table could be found in its SQL or one
+   * of its tables has been invalidated since <code>generation</code> was
+   * taken, in which case the result may already be out of date.
+   */
+  void put(Key key, long ttlMillis, boolean rows, Object value, long generation)
+  {
+    Set<String> tables = tablesOf(key.sql);
+    if (tables.isEmpty())
+    {
+      return;
+    }
+    Entry entry = new Entry(tables, System.currentTimeMillis() + ttlMillis, rows, value);
+    synchronized (entries)
+    {
+      if (generation(key) != generation)
+      {
+        return;
+      }
+      drop(key);
+      entries.put(key, entry);
+      for (String table : tables)
+      {
+        Set<Key> keys = keysByTable.get(table);
+        if (keys == null)
+        {
+          keys = new HashSet<Key>();
+          keysByTable.put(table, keys);
+        }
+        keys.add(key);
+      }
+    }
+  }
+
+  private void drop(Key key)
+  {
+    Entry entry = entries.remove(key);
+    if (entry != null)
+    {
+      for (String table : entry.tables)
+      {
+        Set<Key> keys = keysByTable.get(table);
+        if (keys != null)
+        {
+          keys.remove(key);
+          if (keys.isEmpty())
+          {
+            keysByTable.remove(table);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops, from every cache, the results read from the tables <code>sql</code> writes to.
+   */
+  static void invalidateTables(String sql)
+  {
+    if (caches.isEmpty())
+    {
+      return;
+    }
+    Set<String> tables = tablesOf(sql);
+    List<WeakReference<QueryResultCache>> collected = null;
+    for (WeakReference<QueryResultCache> reference : caches)
+    {
+      QueryResultCache cache = reference.get();
+      if (cache == null)
+      {
+        if (collected == null)
+        {
+          collected = new ArrayList<WeakReference<QueryResultCache>>();
+        }
+        collected.add(reference);
+      }
+      else if (tables.isEmpty())
+      {
+        cache.invalidateAll();
+      }
+      else
+      {
+        for (String table : tables)
+        {
+          cache.invalidate(table);
+        }
+      }
+    }
+    if (collected != null)
+    {
+      caches.removeAll(collected);
+    }
+  }
+
+  /**
+   * @return the lower-case, unqualified names of the tables <code>sql</code> reads or writes
+   */
+  static Set<String> tablesOf(String sql)
+  {
+    Set<String> tables = parsedTables.get(sql);
+    if (tables == null)
+    {
+      tables = parseTables(sql);
+      if (parsedTables.size() >= MAX_PARSED)
+      {
+        parsedTables.clear();
+      }
+      parsedTables.put(sql, tables);
+    }
+    return tables;
+  }
+
+  private static Set<String> parseTables(String sql)
+  {
+    List<String> tokens = new ArrayList<String>();
+    Matcher matcher = TOKEN.matcher(sql);
+    while (matcher.find())
+    {
+      tokens.add(matcher.group());
+    }
+
+    Set<String> tables = new HashSet<String>();
+    for (int i = 0; i < tokens.size(); i++)
+    {
+      String keyword = tokens.get(i).toUpperCase();
+      if (!TABLE_KEYWORDS.contains(keyword))
+      {
+        continue;
+      }
+      int j = i + 1;
+      while (j < tokens.size() && isName(tokens.get(j)))
+      {
+        tables.add(tableName(tokens.get(j++)));
+        if (j < tokens.size() && tokens.get(j).equalsIgnoreCase("AS"))
+        {
+          j++;
+        }
+        if (j < tokens.size() && isName(tokens.get(j)))
+        {
+          j++;
+        }
+        if (keyword.equals("FROM") && j < tokens.size() && tokens.get(j).equals(","))
+        {
+          j++;
+        }
+        else
+        {
+          break;
+        }
+      }
+    }
+    return Collections.unmodifiableSet(tables);
+  }
+
+  private static boolean isName(String token)
+  {
+    char first = token.charAt(0);
+    return (Character.isLetter(first) || first == '_' || first == '"' || first == '`' || first == '[') &&
+      !RESERVED.contains(token.toUpperCase());
+  }
+
+  private static String tableName(String name)
+  {
+    String table = name.substring(name.lastIndexOf('.') + 1);
+    return table.replaceAll("[\"`\\[\\]]", "").toLowerCase();
+  }
+
+  /**
+   * Keyed by prepared SQL and bound values; arrays among the values are compared by content.
+   */
+  static final class Key
+  {
+    final String sql;
+    private final Object[] values;
+    private final int hash;
+
+    Key(String sql, Object[] values)
+    {
+      this.sql = sql;
+      this.values = values;
+      this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(values);
+    }
+
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    public boolean equals(Object other)
+    {
+      if (!(other instanceof Key))
+      {
+        return false;
+      }
+      Key key = (Key) other;
+      return hash == key.hash && sql.equals(key.sql) && Arrays.deepEquals(values, key.values);
+    }
+  }
+
+  /**
+   * What a query returned: whether there were rows, and the first column of the last row.
+   */
+  static final class Entry
+  {
+    final Set<String> tables;
+    final long expiresAt;
+    final boolean rows;
+    final Object value;
+
+    Entry(Set<String> tables, long expiresAt, boolean rows, Object value)
+    {
+      this.tables = tables;
+      this.expiresAt = expiresAt;
+      this.rows = rows;
+      this.value = value;
+    }
+  }
+
+  private static final Pattern TOKEN = Pattern.compile("'(?:[^']|'')*'|[\\w$.\"`\\[\\]]+|,");
+
+  private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList(
+    "FROM", "JOIN", "UPDATE", "INTO"));
+
+  private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList(
+    "SELECT", "WHERE", "JOIN", "LEFT", "RIGHT", "INNER", "OUTER", "FULL", "CROSS", "NATURAL", "ON", "USING",
+    "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "FOR", "UNION", "EXCEPT", "INTERSECT", "SET",
+    "VALUES", "RETURNING", "WINDOW", "LATERAL"));
+
+  private static final int MAX_PARSED = 1000;
+
+  private static final Map<String, Set<String>> parsedTables = new ConcurrentHashMap<String, Set<String>>();
+
+  private static final List<WeakReference<QueryResultCache>> caches =
+    new CopyOnWriteArrayList<WeakReference<QueryResultCache>>();
+
+  private final int maxEntries;
+  private final Map<String, Set<Key>> keysByTable = new HashMap<String, Set<Key>>();
+  private final Map<String, Long> generations = new HashMap<String, Long>();
+  private long clearedGeneration;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+  {
+    protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+    {
+      if (size() > maxEntries)
+      {
+        drop(eldest.getKey());
+      }
+      return false;
+    }
+  };
+}
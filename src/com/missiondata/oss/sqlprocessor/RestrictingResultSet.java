@@ -0,0 +1,1005 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.*;
+
+/**
+ * Direct, hand-written counterpart of {@link ProxyRestrictingResultSet}.
+ * <p>
+ * Every call is forwarded straight to the wrapped result set, except
+ * {@link #next}, {@link #previous} and {@link #close}, which throw
+ * {@link UnsupportedOperationException}.  Getter calls cost a single virtual
+ * dispatch instead of a trip through an <code>InvocationHandler</code>.
+ *
+ * @see ProxyRestrictingResultSet#restrict(ResultSet)
+ */
+public class RestrictingResultSet implements ProxyRestrictingResultSet.RestrictedResultSet
+{
+  private final ResultSet resultSet;
+
+  public RestrictingResultSet(ResultSet resultSet)
+  {
+    this.resultSet = resultSet;
+  }
+
+  private static UnsupportedOperationException restricted(String methodName)
+  {
+    return new UnsupportedOperationException("ResultSet." + methodName + "() cannot be called on this result set");
+  }
+
+  public boolean next() throws SQLException
+  {
+    throw restricted("next");
+  }
+
+  public boolean previous() throws SQLException
+  {
+    throw restricted("previous");
+  }
+
+  public void close() throws SQLException
+  {
+    throw restricted("close");
+  }
+
+  public boolean absolute(int row) throws SQLException
+  {
+    return resultSet.absolute(row);
+  }
+
+  public void afterLast() throws SQLException
+  {
+    resultSet.afterLast();
+  }
+
+  public void beforeFirst() throws SQLException
+  {
+    resultSet.beforeFirst();
+  }
+
+  public void cancelRowUpdates() throws SQLException
+  {
+    resultSet.cancelRowUpdates();
+  }
+
+  public void clearWarnings() throws SQLException
+  {
+    resultSet.clearWarnings();
+  }
+
+  public void deleteRow() throws SQLException
+  {
+    resultSet.deleteRow();
+  }
+
+  public int findColumn(String columnLabel) throws SQLException
+  {
+    return resultSet.findColumn(columnLabel);
+  }
+
+  public boolean first() throws SQLException
+  {
+    return resultSet.first();
+  }
+
+  public Array getArray(int columnIndex) throws SQLException
+  {
+    return resultSet.getArray(columnIndex);
+  }
+
+  public Array getArray(String columnLabel) throws SQLException
+  {
+    return resultSet.getArray(columnLabel);
+  }
+
+  public java.io.InputStream getAsciiStream(String columnLabel) throws SQLException
+  {
+    return resultSet.getAsciiStream(columnLabel);
+  }
+
+  public java.io.InputStream getAsciiStream(int columnIndex) throws SQLException
+  {
+    return resultSet.getAsciiStream(columnIndex);
+  }
+
+  public java.math.BigDecimal getBigDecimal(int columnIndex) throws SQLException
+  {
+    return resultSet.getBigDecimal(columnIndex);
+  }
+
+  public java.math.BigDecimal getBigDecimal(String columnLabel) throws SQLException
+  {
+    return resultSet.getBigDecimal(columnLabel);
+  }
+
+  @Deprecated
+  public java.math.BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException
+  {
+    return resultSet.getBigDecimal(columnIndex, scale);
+  }
+
+  @Deprecated
+  public java.math.BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException
+  {
+    return resultSet.getBigDecimal(columnLabel, scale);
+  }
+
+  public java.io.InputStream getBinaryStream(String columnLabel) throws SQLException
+  {
+    return resultSet.getBinaryStream(columnLabel);
+  }
+
+  public java.io.InputStream getBinaryStream(int columnIndex) throws SQLException
+  {
+    return resultSet.getBinaryStream(columnIndex);
+  }
+
+  public Blob getBlob(String columnLabel) throws SQLException
+  {
+    return resultSet.getBlob(columnLabel);
+  }
+
+  public Blob getBlob(int columnIndex) throws SQLException
+  {
+    return resultSet.getBlob(columnIndex);
+  }
+
+  public boolean getBoolean(String columnLabel) throws SQLException
+  {
+    return resultSet.getBoolean(columnLabel);
+  }
+
+  public boolean getBoolean(int columnIndex) throws SQLException
+  {
+    return resultSet.getBoolean(columnIndex);
+  }
+
+  public byte getByte(String columnLabel) throws SQLException
+  {
+    return resultSet.getByte(columnLabel);
+  }
+
+  public byte getByte(int columnIndex) throws SQLException
+  {
+    return resultSet.getByte(columnIndex);
+  }
+
+  public byte[] getBytes(String columnLabel) throws SQLException
+  {
+    return resultSet.getBytes(columnLabel);
+  }
+
+  public byte[] getBytes(int columnIndex) throws SQLException
+  {
+    return resultSet.getBytes(columnIndex);
+  }
+
+  public java.io.Reader getCharacterStream(int columnIndex) throws SQLException
+  {
+    return resultSet.getCharacterStream(columnIndex);
+  }
+
+  public java.io.Reader getCharacterStream(String columnLabel) throws SQLException
+  {
+    return resultSet.getCharacterStream(columnLabel);
+  }
+
+  public Clob getClob(int columnIndex) throws SQLException
+  {
+    return resultSet.getClob(columnIndex);
+  }
+
+  public Clob getClob(String columnLabel) throws SQLException
+  {
+    return resultSet.getClob(columnLabel);
+  }
+
+  public int getConcurrency() throws SQLException
+  {
+    return resultSet.getConcurrency();
+  }
+
+  public String getCursorName() throws SQLException
+  {
+    return resultSet.getCursorName();
+  }
+
+  public Date getDate(int columnIndex) throws SQLException
+  {
+    return resultSet.getDate(columnIndex);
+  }
+
+  public Date getDate(String columnLabel) throws SQLException
+  {
+    return resultSet.getDate(columnLabel);
+  }
+
+  public Date getDate(String columnLabel, java.util.Calendar cal) throws SQLException
+  {
+    return resultSet.getDate(columnLabel, cal);
+  }
+
+  public Date getDate(int columnIndex, java.util.Calendar cal) throws SQLException
+  {
+    return resultSet.getDate(columnIndex, cal);
+  }
+
+  public double getDouble(int columnIndex) throws SQLException
+  {
+    return resultSet.getDouble(columnIndex);
+  }
+
+  public double getDouble(String columnLabel) throws SQLException
+  {
+    return resultSet.getDouble(columnLabel);
+  }
+
+  public int getFetchDirection() throws SQLException
+  {
+    return resultSet.getFetchDirection();
+  }
+
+  public int getFetchSize() throws SQLException
+  {
+    return resultSet.getFetchSize();
+  }
+
+  public float getFloat(String columnLabel) throws SQLException
+  {
+    return resultSet.getFloat(columnLabel);
+  }
+
+  public float getFloat(int columnIndex) throws SQLException
+  {
+    return resultSet.getFloat(columnIndex);
+  }
+
+  public int getHoldability() throws SQLException
+  {
+    return resultSet.getHoldability();
+  }
+
+  public int getInt(int columnIndex) throws SQLException
+  {
+    return resultSet.getInt(columnIndex);
+  }
+
+  public int getInt(String columnLabel) throws SQLException
+  {
+    return resultSet.getInt(columnLabel);
+  }
+
+  public long getLong(String columnLabel) throws SQLException
+  {
+    return resultSet.getLong(columnLabel);
+  }
+
+  public long getLong(int columnIndex) throws SQLException
+  {
+    return resultSet.getLong(columnIndex);
+  }
+
+  public ResultSetMetaData getMetaData() throws SQLException
+  {
+    return resultSet.getMetaData();
+  }
+
+  public java.io.Reader getNCharacterStream(int columnIndex) throws SQLException
+  {
+    return resultSet.getNCharacterStream(columnIndex);
+  }
+
+  public java.io.Reader getNCharacterStream(String columnLabel) throws SQLException
+  {
+    return resultSet.getNCharacterStream(columnLabel);
+  }
+
+  public NClob getNClob(int columnIndex) throws SQLException
+  {
+    return resultSet.getNClob(columnIndex);
+  }
+
+  public NClob getNClob(String columnLabel) throws SQLException
+  {
+    return resultSet.getNClob(columnLabel);
+  }
+
+  public String getNString(String columnLabel) throws SQLException
+  {
+    return resultSet.getNString(columnLabel);
+  }
+
+  public String getNString(int columnIndex) throws SQLException
+  {
+    return resultSet.getNString(columnIndex);
+  }
+
+  public Object getObject(int columnIndex) throws SQLException
+  {
+    return resultSet.getObject(columnIndex);
+  }
+
+  public Object getObject(String columnLabel) throws SQLException
+  {
+    return resultSet.getObject(columnLabel);
+  }
+
+  public Object getObject(String columnLabel, java.util.Map<String,Class<?>> map) throws SQLException
+  {
+    return resultSet.getObject(columnLabel, map);
+  }
+
+  public <T> T getObject(String columnLabel, Class<T> type) throws SQLException
+  {
+    return resultSet.getObject(columnLabel, type);
+  }
+
+  public Object getObject(int columnIndex, java.util.Map<String,Class<?>> map) throws SQLException
+  {
+    return resultSet.getObject(columnIndex, map);
+  }
+
+  public <T> T getObject(int columnIndex, Class<T> type) throws SQLException
+  {
+    return resultSet.getObject(columnIndex, type);
+  }
+
+  public Ref getRef(String columnLabel) throws SQLException
+  {
+    return resultSet.getRef(columnLabel);
+  }
+
+  public Ref getRef(int columnIndex) throws SQLException
+  {
+    return resultSet.getRef(columnIndex);
+  }
+
+  public int getRow() throws SQLException
+  {
+    return resultSet.getRow();
+  }
+
+  public RowId getRowId(String columnLabel) throws SQLException
+  {
+    return resultSet.getRowId(columnLabel);
+  }
+
+  public RowId getRowId(int columnIndex) throws SQLException
+  {
+    return resultSet.getRowId(columnIndex);
+  }
+
+  public SQLXML getSQLXML(String columnLabel) throws SQLException
+  {
+    return resultSet.getSQLXML(columnLabel);
+  }
+
+  public SQLXML getSQLXML(int columnIndex) throws SQLException
+  {
+    return resultSet.getSQLXML(columnIndex);
+  }
+
+  public short getShort(String columnLabel) throws SQLException
+  {
+    return resultSet.getShort(columnLabel);
+  }
+
+  public short getShort(int columnIndex) throws SQLException
+  {
+    return resultSet.getShort(columnIndex);
+  }
+
+  public Statement getStatement() throws SQLException
+  {
+    return resultSet.getStatement();
+  }
+
+  public String getString(String columnLabel) throws SQLException
+  {
+    return resultSet.getString(columnLabel);
+  }
+
+  public String getString(int columnIndex) throws SQLException
+  {
+    return resultSet.getString(columnIndex);
+  }
+
+  public Time getTime(String columnLabel) throws SQLException
+  {
+    return resultSet.getTime(columnLabel);
+  }
+
+  public Time getTime(int columnIndex) throws SQLException
+  {
+    return resultSet.getTime(columnIndex);
+  }
+
+  public Time getTime(String columnLabel, java.util.Calendar cal) throws SQLException
+  {
+    return resultSet.getTime(columnLabel, cal);
+  }
+
+  public Time getTime(int columnIndex, java.util.Calendar cal) throws SQLException
+  {
+    return resultSet.getTime(columnIndex, cal);
+  }
+
+  public Timestamp getTimestamp(int columnIndex) throws SQLException
+  {
+    return resultSet.getTimestamp(columnIndex);
+  }
+
+  public Timestamp getTimestamp(String columnLabel) throws SQLException
+  {
+    return resultSet.getTimestamp(columnLabel);
+  }
+
+  public Timestamp getTimestamp(String columnLabel, java.util.Calendar cal) throws SQLException
+  {
+    return resultSet.getTimestamp(columnLabel, cal);
+  }
+
+  public Timestamp getTimestamp(int columnIndex, java.util.Calendar cal) throws SQLException
+  {
+    return resultSet.getTimestamp(columnIndex, cal);
+  }
+
+  public int getType() throws SQLException
+  {
+    return resultSet.getType();
+  }
+
+  public java.net.URL getURL(int columnIndex) throws SQLException
+  {
+    return resultSet.getURL(columnIndex);
+  }
+
+  public java.net.URL getURL(String columnLabel) throws SQLException
+  {
+    return resultSet.getURL(columnLabel);
+  }
+
+  @Deprecated
+  public java.io.InputStream getUnicodeStream(int columnIndex) throws SQLException
+  {
+    return resultSet.getUnicodeStream(columnIndex);
+  }
+
+  @Deprecated
+  public java.io.InputStream getUnicodeStream(String columnLabel) throws SQLException
+  {
+    return resultSet.getUnicodeStream(columnLabel);
+  }
+
+  public SQLWarning getWarnings() throws SQLException
+  {
+    return resultSet.getWarnings();
+  }
+
+  public void insertRow() throws SQLException
+  {
+    resultSet.insertRow();
+  }
+
+  public boolean isAfterLast() throws SQLException
+  {
+    return resultSet.isAfterLast();
+  }
+
+  public boolean isBeforeFirst() throws SQLException
+  {
+    return resultSet.isBeforeFirst();
+  }
+
+  public boolean isClosed() throws SQLException
+  {
+    return resultSet.isClosed();
+  }
+
+  public boolean isFirst() throws SQLException
+  {
+    return resultSet.isFirst();
+  }
+
+  public boolean isLast() throws SQLException
+  {
+    return resultSet.isLast();
+  }
+
+  public boolean last() throws SQLException
+  {
+    return resultSet.last();
+  }
+
+  public void moveToCurrentRow() throws SQLException
+  {
+    resultSet.moveToCurrentRow();
+  }
+
+  public void moveToInsertRow() throws SQLException
+  {
+    resultSet.moveToInsertRow();
+  }
+
+  public void refreshRow() throws SQLException
+  {
+    resultSet.refreshRow();
+  }
+
+  public boolean relative(int rows) throws SQLException
+  {
+    return resultSet.relative(rows);
+  }
+
+  public boolean rowDeleted() throws SQLException
+  {
+    return resultSet.rowDeleted();
+  }
+
+  public boolean rowInserted() throws SQLException
+  {
+    return resultSet.rowInserted();
+  }
+
+  public boolean rowUpdated() throws SQLException
+  {
+    return resultSet.rowUpdated();
+  }
+
+  public void setFetchDirection(int direction) throws SQLException
+  {
+    resultSet.setFetchDirection(direction);
+  }
+
+  public void setFetchSize(int rows) throws SQLException
+  {
+    resultSet.setFetchSize(rows);
+  }
+
+  public void updateArray(int columnIndex, Array array) throws SQLException
+  {
+    resultSet.updateArray(columnIndex, array);
+  }
+
+  public void updateArray(String columnLabel, Array array) throws SQLException
+  {
+    resultSet.updateArray(columnLabel, array);
+  }
+
+  public void updateAsciiStream(int columnIndex, java.io.InputStream stream) throws SQLException
+  {
+    resultSet.updateAsciiStream(columnIndex, stream);
+  }
+
+  public void updateAsciiStream(String columnLabel, java.io.InputStream stream) throws SQLException
+  {
+    resultSet.updateAsciiStream(columnLabel, stream);
+  }
+
+  public void updateAsciiStream(String columnLabel, java.io.InputStream stream, long length) throws SQLException
+  {
+    resultSet.updateAsciiStream(columnLabel, stream, length);
+  }
+
+  public void updateAsciiStream(int columnIndex, java.io.InputStream stream, int length) throws SQLException
+  {
+    resultSet.updateAsciiStream(columnIndex, stream, length);
+  }
+
+  public void updateAsciiStream(int columnIndex, java.io.InputStream stream, long length) throws SQLException
+  {
+    resultSet.updateAsciiStream(columnIndex, stream, length);
+  }
+
+  public void updateAsciiStream(String columnLabel, java.io.InputStream stream, int length) throws SQLException
+  {
+    resultSet.updateAsciiStream(columnLabel, stream, length);
+  }
+
+  public void updateBigDecimal(String columnLabel, java.math.BigDecimal x) throws SQLException
+  {
+    resultSet.updateBigDecimal(columnLabel, x);
+  }
+
+  public void updateBigDecimal(int columnIndex, java.math.BigDecimal x) throws SQLException
+  {
+    resultSet.updateBigDecimal(columnIndex, x);
+  }
+
+  public void updateBinaryStream(String columnLabel, java.io.InputStream stream) throws SQLException
+  {
+    resultSet.updateBinaryStream(columnLabel, stream);
+  }
+
+  public void updateBinaryStream(int columnIndex, java.io.InputStream stream) throws SQLException
+  {
+    resultSet.updateBinaryStream(columnIndex, stream);
+  }
+
+  public void updateBinaryStream(int columnIndex, java.io.InputStream stream, long length) throws SQLException
+  {
+    resultSet.updateBinaryStream(columnIndex, stream, length);
+  }
+
+  public void updateBinaryStream(String columnLabel, java.io.InputStream stream, int length) throws SQLException
+  {
+    resultSet.updateBinaryStream(columnLabel, stream, length);
+  }
+
+  public void updateBinaryStream(int columnIndex, java.io.InputStream stream, int length) throws SQLException
+  {
+    resultSet.updateBinaryStream(columnIndex, stream, length);
+  }
+
+  public void updateBinaryStream(String columnLabel, java.io.InputStream stream, long length) throws SQLException
+  {
+    resultSet.updateBinaryStream(columnLabel, stream, length);
+  }
+
+  public void updateBlob(String columnLabel, java.io.InputStream stream) throws SQLException
+  {
+    resultSet.updateBlob(columnLabel, stream);
+  }
+
+  public void updateBlob(int columnIndex, java.io.InputStream stream) throws SQLException
+  {
+    resultSet.updateBlob(columnIndex, stream);
+  }
+
+  public void updateBlob(String columnLabel, Blob blob) throws SQLException
+  {
+    resultSet.updateBlob(columnLabel, blob);
+  }
+
+  public void updateBlob(int columnIndex, Blob blob) throws SQLException
+  {
+    resultSet.updateBlob(columnIndex, blob);
+  }
+
+  public void updateBlob(String columnLabel, java.io.InputStream stream, long length) throws SQLException
+  {
+    resultSet.updateBlob(columnLabel, stream, length);
+  }
+
+  public void updateBlob(int columnIndex, java.io.InputStream stream, long length) throws SQLException
+  {
+    resultSet.updateBlob(columnIndex, stream, length);
+  }
+
+  public void updateBoolean(int columnIndex, boolean x) throws SQLException
+  {
+    resultSet.updateBoolean(columnIndex, x);
+  }
+
+  public void updateBoolean(String columnLabel, boolean x) throws SQLException
+  {
+    resultSet.updateBoolean(columnLabel, x);
+  }
+
+  public void updateByte(int columnIndex, byte x) throws SQLException
+  {
+    resultSet.updateByte(columnIndex, x);
+  }
+
+  public void updateByte(String columnLabel, byte x) throws SQLException
+  {
+    resultSet.updateByte(columnLabel, x);
+  }
+
+  public void updateBytes(int columnIndex, byte[] bytes) throws SQLException
+  {
+    resultSet.updateBytes(columnIndex, bytes);
+  }
+
+  public void updateBytes(String columnLabel, byte[] bytes) throws SQLException
+  {
+    resultSet.updateBytes(columnLabel, bytes);
+  }
+
+  public void updateCharacterStream(String columnLabel, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateCharacterStream(columnLabel, reader);
+  }
+
+  public void updateCharacterStream(int columnIndex, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateCharacterStream(columnIndex, reader);
+  }
+
+  public void updateCharacterStream(int columnIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateCharacterStream(columnIndex, reader, length);
+  }
+
+  public void updateCharacterStream(String columnLabel, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateCharacterStream(columnLabel, reader, length);
+  }
+
+  public void updateCharacterStream(String columnLabel, java.io.Reader reader, int length) throws SQLException
+  {
+    resultSet.updateCharacterStream(columnLabel, reader, length);
+  }
+
+  public void updateCharacterStream(int columnIndex, java.io.Reader reader, int length) throws SQLException
+  {
+    resultSet.updateCharacterStream(columnIndex, reader, length);
+  }
+
+  public void updateClob(String columnLabel, Clob clob) throws SQLException
+  {
+    resultSet.updateClob(columnLabel, clob);
+  }
+
+  public void updateClob(int columnIndex, Clob clob) throws SQLException
+  {
+    resultSet.updateClob(columnIndex, clob);
+  }
+
+  public void updateClob(int columnIndex, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateClob(columnIndex, reader);
+  }
+
+  public void updateClob(String columnLabel, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateClob(columnLabel, reader);
+  }
+
+  public void updateClob(int columnIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateClob(columnIndex, reader, length);
+  }
+
+  public void updateClob(String columnLabel, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateClob(columnLabel, reader, length);
+  }
+
+  public void updateDate(String columnLabel, Date date) throws SQLException
+  {
+    resultSet.updateDate(columnLabel, date);
+  }
+
+  public void updateDate(int columnIndex, Date date) throws SQLException
+  {
+    resultSet.updateDate(columnIndex, date);
+  }
+
+  public void updateDouble(int columnIndex, double x) throws SQLException
+  {
+    resultSet.updateDouble(columnIndex, x);
+  }
+
+  public void updateDouble(String columnLabel, double x) throws SQLException
+  {
+    resultSet.updateDouble(columnLabel, x);
+  }
+
+  public void updateFloat(int columnIndex, float x) throws SQLException
+  {
+    resultSet.updateFloat(columnIndex, x);
+  }
+
+  public void updateFloat(String columnLabel, float x) throws SQLException
+  {
+    resultSet.updateFloat(columnLabel, x);
+  }
+
+  public void updateInt(int columnIndex, int x) throws SQLException
+  {
+    resultSet.updateInt(columnIndex, x);
+  }
+
+  public void updateInt(String columnLabel, int x) throws SQLException
+  {
+    resultSet.updateInt(columnLabel, x);
+  }
+
+  public void updateLong(String columnLabel, long x) throws SQLException
+  {
+    resultSet.updateLong(columnLabel, x);
+  }
+
+  public void updateLong(int columnIndex, long x) throws SQLException
+  {
+    resultSet.updateLong(columnIndex, x);
+  }
+
+  public void updateNCharacterStream(int columnIndex, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateNCharacterStream(columnIndex, reader);
+  }
+
+  public void updateNCharacterStream(String columnLabel, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateNCharacterStream(columnLabel, reader);
+  }
+
+  public void updateNCharacterStream(String columnLabel, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateNCharacterStream(columnLabel, reader, length);
+  }
+
+  public void updateNCharacterStream(int columnIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateNCharacterStream(columnIndex, reader, length);
+  }
+
+  public void updateNClob(String columnLabel, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateNClob(columnLabel, reader);
+  }
+
+  public void updateNClob(int columnIndex, java.io.Reader reader) throws SQLException
+  {
+    resultSet.updateNClob(columnIndex, reader);
+  }
+
+  public void updateNClob(int columnIndex, NClob nClob) throws SQLException
+  {
+    resultSet.updateNClob(columnIndex, nClob);
+  }
+
+  public void updateNClob(String columnLabel, NClob nClob) throws SQLException
+  {
+    resultSet.updateNClob(columnLabel, nClob);
+  }
+
+  public void updateNClob(String columnLabel, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateNClob(columnLabel, reader, length);
+  }
+
+  public void updateNClob(int columnIndex, java.io.Reader reader, long length) throws SQLException
+  {
+    resultSet.updateNClob(columnIndex, reader, length);
+  }
+
+  public void updateNString(String columnLabel, String x) throws SQLException
+  {
+    resultSet.updateNString(columnLabel, x);
+  }
+
+  public void updateNString(int columnIndex, String x) throws SQLException
+  {
+    resultSet.updateNString(columnIndex, x);
+  }
+
+  public void updateNull(int columnIndex) throws SQLException
+  {
+    resultSet.updateNull(columnIndex);
+  }
+
+  public void updateNull(String columnLabel) throws SQLException
+  {
+    resultSet.updateNull(columnLabel);
+  }
+
+  public void updateObject(int columnIndex, Object x) throws SQLException
+  {
+    resultSet.updateObject(columnIndex, x);
+  }
+
+  public void updateObject(String columnLabel, Object x) throws SQLException
+  {
+    resultSet.updateObject(columnLabel, x);
+  }
+
+  public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException
+  {
+    resultSet.updateObject(columnLabel, x, scaleOrLength);
+  }
+
+  public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException
+  {
+    resultSet.updateObject(columnIndex, x, scaleOrLength);
+  }
+
+  public void updateRef(int columnIndex, Ref ref) throws SQLException
+  {
+    resultSet.updateRef(columnIndex, ref);
+  }
+
+  public void updateRef(String columnLabel, Ref ref) throws SQLException
+  {
+    resultSet.updateRef(columnLabel, ref);
+  }
+
+  public void updateRow() throws SQLException
+  {
+    resultSet.updateRow();
+  }
+
+  public void updateRowId(int columnIndex, RowId rowId) throws SQLException
+  {
+    resultSet.updateRowId(columnIndex, rowId);
+  }
+
+  public void updateRowId(String columnLabel, RowId rowId) throws SQLException
+  {
+    resultSet.updateRowId(columnLabel, rowId);
+  }
+
+  public void updateSQLXML(String columnLabel, SQLXML xmlObject) throws SQLException
+  {
+    resultSet.updateSQLXML(columnLabel, xmlObject);
+  }
+
+  public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException
+  {
+    resultSet.updateSQLXML(columnIndex, xmlObject);
+  }
+
+  public void updateShort(int columnIndex, short x) throws SQLException
+  {
+    resultSet.updateShort(columnIndex, x);
+  }
+
+  public void updateShort(String columnLabel, short x) throws SQLException
+  {
+    resultSet.updateShort(columnLabel, x);
+  }
+
+  public void updateString(String columnLabel, String x) throws SQLException
+  {
+    resultSet.updateString(columnLabel, x);
+  }
+
+  public void updateString(int columnIndex, String x) throws SQLException
+  {
+    resultSet.updateString(columnIndex, x);
+  }
+
+  public void updateTime(int columnIndex, Time time) throws SQLException
+  {
+    resultSet.updateTime(columnIndex, time);
+  }
+
+  public void updateTime(String columnLabel, Time time) throws SQLException
+  {
+    resultSet.updateTime(columnLabel, time);
+  }
+
+  public void updateTimestamp(String columnLabel, Timestamp timestamp) throws SQLException
+  {
+    resultSet.updateTimestamp(columnLabel, timestamp);
+  }
+
+  public void updateTimestamp(int columnIndex, Timestamp timestamp) throws SQLException
+  {
+    resultSet.updateTimestamp(columnIndex, timestamp);
+  }
+
+  public boolean wasNull() throws SQLException
+  {
+    return resultSet.wasNull();
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException
+  {
+    return resultSet.isWrapperFor(iface);
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException
+  {
+    return resultSet.unwrap(iface);
+  }
+}
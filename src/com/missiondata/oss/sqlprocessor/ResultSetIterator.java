@@ -0,0 +1,164 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Pulls rows from an open query one at a time, mapping each as it is asked for.
+ * <p>
+ * The iterator owns the result set, its statement and the connection; all three
+ * are released when the rows run out, when a JDBC call fails, or when
+ * {@link #close()} is called, whichever comes first.
+ *
+ * @see AbstractSQLProcessorBase#stream(ConnectionSource, RowMapper)
+ */
+final class ResultSetIterator<T> implements Iterator<T>
+{
+  ResultSetIterator(AbstractSQLProcessorBase processor, ConnectionSource connectionSource, Connection connection,
+    PreparedStatement preparedStatement, ResultSet resultSet, RowMapper<T> mapper, long slowNanos, long started)
+  {
+    this.processor = processor;
+    this.connectionSource = connectionSource;
+    this.connection = connection;
+    this.preparedStatement = preparedStatement;
+    this.resultSet = resultSet;
+    this.restrictedResultSet = new RestrictingResultSet(resultSet);
+    this.mapper = mapper;
+    this.slowNanos = slowNanos;
+    this.started = started;
+  }
+
+  public boolean hasNext()
+  {
+    if (!closed && !positioned)
+    {
+      try
+      {
+        positioned = resultSet.next();
+      }
+      catch (SQLException e)
+      {
+        throw failure(e);
+      }
+      if (!positioned)
+      {
+        close();
+      }
+    }
+    return positioned;
+  }
+
+  public T next()
+  {
+    if (!hasNext())
+    {
+      throw new NoSuchElementException();
+    }
+    positioned = false;
+    rows++;
+    try
+    {
+      return mapper.mapRow(restrictedResultSet);
+    }
+    catch (SQLException e)
+    {
+      throw failure(e);
+    }
+  }
+
+  public void remove()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Releases the result set, statement and connection, then reports the time
+   * since the query ran to the slow query log.  Safe to call more than once.
+   */
+  void close()
+  {
+    if (!closed)
+    {
+      closed = true;
+      positioned = false;
+      release(processor, connectionSource, connection, preparedStatement, resultSet);
+      if (slowNanos > 0)
+      {
+        processor.logIfSlow(slowNanos, System.nanoTime() - started, rows);
+      }
+    }
+  }
+
+  private SQLSystemException failure(SQLException e)
+  {
+    close();
+    return new SQLSystemException(processor.getFailureMessage(), e);
+  }
+
+  /**
+   * Closes whichever of <code>resultSet</code> and <code>preparedStatement</code>
+   * are not null and returns the connection.
+   */
+  static void release(AbstractSQLProcessorBase processor, ConnectionSource connectionSource, Connection connection,
+    PreparedStatement preparedStatement, ResultSet resultSet)
+  {
+    try
+    {
+      if (resultSet != null)
+      {
+        resultSet.close();
+      }
+    }
+    catch (SQLException ignore)
+    {
+
+    }
+    try
+    {
+      if (preparedStatement != null)
+      {
+        preparedStatement.close();
+      }
+    }
+    catch (SQLException ignore)
+    {
+      processor.logWarning("SQLException cleaning up preparedStatement", ignore);
+    }
+    connectionSource.returnConnection(connection);
+  }
+
+  private final AbstractSQLProcessorBase processor;
+  private final ConnectionSource connectionSource;
+  private final Connection connection;
+  private final PreparedStatement preparedStatement;
+  private final ResultSet resultSet;
+  private final ResultSet restrictedResultSet;
+  private final RowMapper<T> mapper;
+  private final long slowNanos;
+  private final long started;
+  private long rows;
+  private boolean positioned;
+  private boolean closed;
+}
@@ -0,0 +1,52 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Turns each row of a query into an object.
+ * <p>
+ * {@link #processMetaData(ResultSetMetaData)} is called once per execution,
+ * before the first row, so an implementation can resolve column positions there
+ * and read each row by index.  As with {@link AbstractSQLProcessorBase#process(ResultSet)},
+ * <code>next</code> and <code>close</code> must not be called on the result set.
+ *
+ * @see AbstractSQLProcessorBase#queryList(ConnectionSource, RowMapper)
+ * @see BeanRowMapper
+ */
+public interface RowMapper<T>
+{
+  /**
+   * @param metadata the metadata of the result about to be mapped
+   * @throws SQLException thrown from underlying JDBC
+   */
+  default void processMetaData(ResultSetMetaData metadata) throws SQLException
+  {
+  }
+
+  /**
+   * @param resultSet positioned on the row to map
+   * @return the mapped row
+   * @throws SQLException thrown from underlying JDBC
+   */
+  T mapRow(ResultSet resultSet) throws SQLException;
+}
@@ -4,6 +4,8 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public abstract class SQLMetaDataProcessor
 {
@@ -21,6 +23,21 @@ public abstract class SQLMetaDataProcessor
     }
   }
 
+  /**
+   * Runs {@link #execute(ConnectionSource)} on the {@link AsyncExecution} executor.
+   */
+  public CompletableFuture<Void> executeAsync(final ConnectionSource connectionSource)
+  {
+    return AsyncExecution.supply(connectionSource, new Supplier<Void>()
+    {
+      public Void get()
+      {
+        execute(connectionSource);
+        return null;
+      }
+    });
+  }
+
   public void execute(final Connection connection) throws SQLSystemException
   {
     ResultSet resultSet = null;
@@ -29,7 +46,7 @@ public abstract class SQLMetaDataProcessor
       resultSet = getResultSet(connection.getMetaData());
       if (resultSet != null)
       {
-        ProxyRestrictingResultSet.RestrictedResultSet restrictedResultSet = ProxyRestrictingResultSet.restrict(resultSet);
+        ProxyRestrictingResultSet.RestrictedResultSet restrictedResultSet = new RestrictingResultSet(resultSet);
         while (resultSet.next())
         {
           process(restrictedResultSet);
@@ -32,6 +32,16 @@ public class SQLNull
     return type;
   }
 
+  public boolean equals(Object other)
+  {
+    return other instanceof SQLNull && ((SQLNull) other).type == type;
+  }
+
+  public int hashCode()
+  {
+    return type;
+  }
+
   public String toString()
   {
     return "<null__"+type+">";
@@ -19,7 +19,6 @@
 package com.missiondata.oss.sqlprocessor;
 
 
-import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Types;
@@ -85,7 +84,8 @@ public class SQLProcessor extends AbstractSQLProcessorBase
   public SQLProcessor(String description, String sqlText)
   {
     super(description,sqlText);
-    addEvaluator(new InternalDefaultParameterEvaluator());
+    parameterSlots = new Object[taggedSQL.getTemplate().getParameterKeyCount()];
+    addEvaluator(evaluator);
     setBean(singletonIterator(new Object()));
   }
 
@@ -99,7 +99,7 @@ public class SQLProcessor extends AbstractSQLProcessorBase
    */
   public SQLProcessor(String sqlText)
   {
-    this("<No description>", sqlText);
+    this(NO_DESCRIPTION, sqlText);
   }
 
   /**
@@ -113,9 +113,11 @@ public class SQLProcessor extends AbstractSQLProcessorBase
    */
   public void set(String key, Object value)
   {
-    if (taggedSQL.isParameterKey(key))
+    int keyIndex = taggedSQL.getTemplate().getParameterKeyIndex(key);
+    if (keyIndex >= 0)
     {
-      parameterValues.put(key, value);
+      parameterSlots[keyIndex] = value != null ? value : SET_TO_NULL;
+      clearPrimitiveValue(keyIndex);
     }
     else
     {
@@ -145,16 +147,42 @@ public class SQLProcessor extends AbstractSQLProcessorBase
 
   public void setNull(String key, int type)
   {
-    parameterValues.put(key, new SQLNull(type));
+    int keyIndex = taggedSQL.getTemplate().getParameterKeyIndex(key);
+    if (keyIndex >= 0)
+    {
+      parameterSlots[keyIndex] = new SQLNull(type);
+      clearPrimitiveValue(keyIndex);
+    }
   }
 
   /**
-   * A convenience method that wraps <code>value</value> in an <code>Integer</code>
-   * and calls the base set method.
+   * Sets a parameter variable to <code>value</code> without boxing it; it is
+   * bound with <code>setInt</code>.  A substitution variable gets an
+   * <code>Integer</code>.
    */
   public void set(String key, int value)
   {
-    set(key, new Integer(value));
+    setPrimitive(key, ParameterBinder.INT, value);
+  }
+
+  /**
+   * Sets a parameter variable to <code>value</code> without boxing it; it is
+   * bound with <code>setLong</code>.  A substitution variable gets a
+   * <code>Long</code>.
+   */
+  public void set(String key, long value)
+  {
+    setPrimitive(key, ParameterBinder.LONG, value);
+  }
+
+  /**
+   * Sets a parameter variable to <code>value</code> without boxing it; it is
+   * bound with <code>setBoolean</code>.  A substitution variable gets a
+   * <code>Boolean</code>.
+   */
+  public void set(String key, boolean value)
+  {
+    setPrimitive(key, ParameterBinder.BOOLEAN, value ? 1 : 0);
   }
 
   /**
@@ -167,12 +195,27 @@ public class SQLProcessor extends AbstractSQLProcessorBase
   }
 
   /**
-   * A convenience method that wraps <code>value</value> in a <code>Double</code>
-   * and calls the base set method.
+   * Sets a parameter variable to <code>value</code> without boxing it; it is
+   * bound with <code>setDouble</code>.  A substitution variable gets a
+   * <code>Double</code>.
    */
   public void set(String key, double value)
   {
-    set(key, new Double(value));
+    setPrimitive(key, ParameterBinder.DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  private void setPrimitive(String key, ParameterBinder.Primitive binder, long bits)
+  {
+    int keyIndex = taggedSQL.getTemplate().getParameterKeyIndex(key);
+    if (keyIndex >= 0)
+    {
+      parameterSlots[keyIndex] = null;
+      setPrimitiveValue(keyIndex, binder, bits);
+    }
+    else
+    {
+      set(key, binder.box(bits));
+    }
   }
 
   /**
@@ -291,12 +334,45 @@ public class SQLProcessor extends AbstractSQLProcessorBase
 
   protected Object getParameterValue(String key)
   {
-    return parameterValues.get(key);
+    return lookupParameterValue(key);
   }
 
+  /**
+   * @return true if <code>key</code> has been given a value with
+   *  <code>set</code>, even a null one
+   */
   protected boolean hasParameterKey(String key)
   {
-    return parameterValues.containsKey(key);
+    int keyIndex = taggedSQL.getTemplate().getParameterKeyIndex(key);
+    return keyIndex >= 0 && (parameterSlots[keyIndex] != null || getPrimitiveValue(keyIndex) != null);
+  }
+
+  /**
+   * @return the value given to <code>set</code>, with a primitive boxed
+   */
+  private Object lookupParameterValue(String key)
+  {
+    int keyIndex = taggedSQL.getTemplate().getParameterKeyIndex(key);
+    return keyIndex >= 0 ? getSlotValue(keyIndex) : null;
+  }
+
+  private Object getSlotValue(int keyIndex)
+  {
+    Object value = parameterSlots[keyIndex];
+    if (value == SET_TO_NULL)
+    {
+      return null;
+    }
+    return value != null ? value : getPrimitiveValue(keyIndex);
+  }
+
+  /**
+   * Evaluates a parameter straight from its slot or the current bean,
+   * skipping the evaluator chain and the key lookups.
+   */
+  Object evaluate(int keyIndex)
+  {
+    return evaluator.getParameterValue(keyIndex, taggedSQL.getTemplate().getParameterKey(keyIndex));
   }
 
   public void setNullType(String[] params, int type)
@@ -314,7 +390,7 @@ public class SQLProcessor extends AbstractSQLProcessorBase
 
   public void setDefaultNullType(Class theClass, int type)
   {
-    classToNullType.put(theClass.toString(), new SQLNull(type));
+    classToNullType.put(theClass, new SQLNull(type));
   }
 
   protected SQLNull convertBeanToNullType(String parameter)
@@ -324,13 +400,23 @@ public class SQLProcessor extends AbstractSQLProcessorBase
 
   protected SQLNull convertClassToNullType(Class ret)
   {
-    return (SQLNull)classToNullType.get(ret.toString());
+    return (SQLNull)classToNullType.get(ret);
   }
 
   private Object bean = EMPTYBEAN;
   private Iterator beanIterator;
 
-  private Map parameterValues = new HashMap();
+  /**
+   * Values given to <code>set</code>, by the template's dense key index.
+   */
+  private Object[] parameterSlots;
+  private final InternalDefaultParameterEvaluator evaluator = new InternalDefaultParameterEvaluator();
+  /**
+   * Marks a slot given null with <code>set</code>, which still counts as set
+   * for {@link #hasParameterKey(String)} but binds as if it had not been.
+   */
+  private static final Object SET_TO_NULL = new Object();
+
   private Map beanToNullType = new HashMap();
   private Map classToNullType = new HashMap();
 
@@ -343,29 +429,32 @@ public class SQLProcessor extends AbstractSQLProcessorBase
   {
     public Object getParameterValue(String parameter, Object suggestedValue) throws IllegalArgumentException
     {
-      Object value = parameterValues.get(parameter);
+      return getParameterValue(taggedSQL.getTemplate().getParameterKeyIndex(parameter), parameter);
+    }
+
+    /**
+     * @param keyIndex the dense index of <code>parameter</code>, or -1 if it
+     *  is not a parameter of the template
+     */
+    Object getParameterValue(int keyIndex, String parameter)
+    {
+      Object value = keyIndex >= 0 ? getSlotValue(keyIndex) : null;
       if (value == null)
       {
-        String attemptedMethod = createGetterNameFromKey(parameter);
-
+        BeanAccessors.Accessor accessor = getAccessor(keyIndex, parameter);
         try
         {
-          Method method = null;
-          try
-          {
-            method = SQLProcessor.this.bean.getClass().getMethod(attemptedMethod, null);
-            value = method.invoke(SQLProcessor.this.bean, null);
-          }
-          catch (NoSuchMethodException e)
+          if (accessor != null)
           {
+            value = accessor.get(SQLProcessor.this.bean);
           }
           if (value == null)
           {
             value = beanToNullType.get(parameter);
           }
-          if (value == null && method != null)
+          if (value == null && accessor != null)
           {
-            Class ret = method.getReturnType();
+            Class ret = accessor.getReturnType();
             if (ret != null)
             {
               value = SQLProcessor.this.convertClassToNullType(ret);
@@ -380,11 +469,26 @@ public class SQLProcessor extends AbstractSQLProcessorBase
       return value;
     }
 
-    protected String createGetterNameFromKey(String key)
+    /**
+     * Looks up the getter for <code>key</code> in the accessor plan of the
+     * current bean's class.  The plan is kept between calls, so a bean
+     * iterator of one class resolves it only once.
+     */
+    private BeanAccessors.Accessor getAccessor(int keyIndex, String key)
     {
-      String attemptedMethod = "get" + key.substring(0, 1).toUpperCase() + key.substring(1);
-      return attemptedMethod;
+      Class beanClass = SQLProcessor.this.bean.getClass();
+      if (beanClass != planClass)
+      {
+        planAccessors = BeanAccessors.forClass(beanClass);
+        plan = planAccessors.plan(taggedSQL.getTemplate());
+        planClass = beanClass;
+      }
+      return keyIndex >= 0 ? plan[keyIndex] : planAccessors.accessor(key);
     }
+
+    private Class planClass;
+    private BeanAccessors planAccessors;
+    private BeanAccessors.Accessor[] plan;
   }
 
-}
\ No newline at end of file
+}
@@ -25,6 +25,8 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * SQLTransaction simplifies the infrastructure requirements for transactions.
@@ -69,6 +71,10 @@ public class SQLTransaction
       if (!abortted && !transactionConnection.isAborted())
       {
         commitTransaction(connection);
+        for (String sql : transactionConnection.getWrites())
+        {
+          QueryResultCache.invalidateTables(sql);
+        }
       }
       else
       {
@@ -112,7 +118,10 @@ public class SQLTransaction
   }
 
   /**
+   * The DataSource is only looked up in JNDI the first time a name is used.
+   *
    * @param dataSourceJndiName - the JNDI name of a DataSource that the sql will act on
+   * @see DataSourceConnectionSource#lookup(String)
    */
   public void execute(String dataSourceJndiName)
   {
@@ -133,6 +142,23 @@ public class SQLTransaction
     }
   }
 
+  /**
+   * Runs {@link #execute(ConnectionSource)} on the {@link AsyncExecution} executor.
+   *
+   * @return a future completed when the transaction is committed or rolled back
+   */
+  public CompletableFuture<Void> executeAsync(final ConnectionSource connectionSource)
+  {
+    return AsyncExecution.supply(connectionSource, new Supplier<Void>()
+    {
+      public Void get()
+      {
+        execute(connectionSource);
+        return null;
+      }
+    });
+  }
+
   private TransactionConnection transactionConnection(Connection connection)
   {
     return new TransactionConnection(connection);
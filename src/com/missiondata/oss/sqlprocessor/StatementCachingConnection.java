@@ -0,0 +1,459 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A connection handed out by {@link StatementCachingConnectionSource}.
+ * <code>prepareStatement(String)</code> returns a statement from a
+ * per-connection LRU cache; closing that statement clears its parameters and
+ * returns it to the cache instead of closing it.
+ * <p>
+ * The overloads that ask for generated keys, or for a result set type,
+ * concurrency or holdability, are cached too, under their SQL together with
+ * those options, so a statement is only reused with the options it was
+ * prepared with.  Forward-only, read-only statements share the plain cache.
+ * <p>
+ * A statement already checked out under the same SQL, as happens when a
+ * processor runs another instance of itself from <code>process</code>, is not
+ * shared: the second caller gets an ordinary, uncached statement.
+ */
+class StatementCachingConnection implements Connection
+{
+  private Connection connection;
+  private final Map<String, CachedPreparedStatement> statements;
+
+  StatementCachingConnection(Connection connection, final int maxStatements)
+  {
+    this.connection = connection;
+    this.statements = new LinkedHashMap<String, CachedPreparedStatement>(16, 0.75f, true)
+    {
+      protected boolean removeEldestEntry(Map.Entry<String, CachedPreparedStatement> eldest)
+      {
+        if (size() > maxStatements)
+        {
+          eldest.getValue().evict();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  Connection getDelegate()
+  {
+    return connection;
+  }
+
+  public PreparedStatement prepareStatement(final String sql) throws SQLException
+  {
+    return checkOut(sql, new Preparer()
+    {
+      PreparedStatement prepare() throws SQLException
+      {
+        return connection.prepareStatement(sql);
+      }
+    });
+  }
+
+  public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException
+  {
+    return checkOut(sql + OPTIONS + "keys=" + autoGeneratedKeys, new Preparer()
+    {
+      PreparedStatement prepare() throws SQLException
+      {
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+      }
+    });
+  }
+
+  public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException
+  {
+    return checkOut(sql + OPTIONS + "keyIndexes=" + Arrays.toString(columnIndexes), new Preparer()
+    {
+      PreparedStatement prepare() throws SQLException
+      {
+        return connection.prepareStatement(sql, columnIndexes);
+      }
+    });
+  }
+
+  public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException
+  {
+    return checkOut(sql + OPTIONS + "keyColumns=" + Arrays.toString(columnNames), new Preparer()
+    {
+      PreparedStatement prepare() throws SQLException
+      {
+        return connection.prepareStatement(sql, columnNames);
+      }
+    });
+  }
+
+  public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency)
+    throws SQLException
+  {
+    if (resultSetType == ResultSet.TYPE_FORWARD_ONLY && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY)
+    {
+      return prepareStatement(sql);
+    }
+    return checkOut(sql + OPTIONS + "type=" + resultSetType + "," + resultSetConcurrency, new Preparer()
+    {
+      PreparedStatement prepare() throws SQLException
+      {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      }
+    });
+  }
+
+  public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency,
+    final int resultSetHoldability) throws SQLException
+  {
+    return checkOut(sql + OPTIONS + "type=" + resultSetType + "," + resultSetConcurrency + "," + resultSetHoldability,
+      new Preparer()
+      {
+        PreparedStatement prepare() throws SQLException
+        {
+          return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+      });
+  }
+
+  /**
+   * @param key the SQL and any options the statement is prepared with
+   */
+  private PreparedStatement checkOut(String key, Preparer preparer) throws SQLException
+  {
+    synchronized (statements)
+    {
+      CachedPreparedStatement cached = statements.get(key);
+      if (cached == null)
+      {
+        cached = new CachedPreparedStatement(this, preparer.prepare());
+        statements.put(key, cached);
+      }
+      else if (cached.isCheckedOut())
+      {
+        return preparer.prepare();
+      }
+      cached.checkOut();
+      return cached;
+    }
+  }
+
+  void release(CachedPreparedStatement cached)
+  {
+    synchronized (statements)
+    {
+      if (!cached.reset())
+      {
+        statements.values().remove(cached);
+      }
+    }
+  }
+
+  /**
+   * @return the number of statements currently cached for this connection
+   */
+  int getCachedStatementCount()
+  {
+    synchronized (statements)
+    {
+      return statements.size();
+    }
+  }
+
+  /**
+   * Closes every cached statement.  Statements still checked out are closed
+   * when they are returned.
+   */
+  void closeStatements()
+  {
+    List<CachedPreparedStatement> evicted;
+    synchronized (statements)
+    {
+      evicted = new ArrayList<CachedPreparedStatement>(statements.values());
+      statements.clear();
+    }
+    for (Iterator<CachedPreparedStatement> i = evicted.iterator(); i.hasNext();)
+    {
+      i.next().evict();
+    }
+  }
+
+  public void close() throws SQLException
+  {
+    closeStatements();
+    connection.close();
+  }
+
+  public void abort(java.util.concurrent.Executor executor) throws SQLException
+  {
+    connection.abort(executor);
+  }
+
+  public void clearWarnings() throws SQLException
+  {
+    connection.clearWarnings();
+  }
+
+  public void commit() throws SQLException
+  {
+    connection.commit();
+  }
+
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException
+  {
+    return connection.createArrayOf(typeName, elements);
+  }
+
+  public Blob createBlob() throws SQLException
+  {
+    return connection.createBlob();
+  }
+
+  public Clob createClob() throws SQLException
+  {
+    return connection.createClob();
+  }
+
+  public NClob createNClob() throws SQLException
+  {
+    return connection.createNClob();
+  }
+
+  public SQLXML createSQLXML() throws SQLException
+  {
+    return connection.createSQLXML();
+  }
+
+  public Statement createStatement() throws SQLException
+  {
+    return connection.createStatement();
+  }
+
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException
+  {
+    return connection.createStatement(resultSetType, resultSetConcurrency);
+  }
+
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException
+  {
+    return connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException
+  {
+    return connection.createStruct(typeName, attributes);
+  }
+
+  public boolean getAutoCommit() throws SQLException
+  {
+    return connection.getAutoCommit();
+  }
+
+  public String getCatalog() throws SQLException
+  {
+    return connection.getCatalog();
+  }
+
+  public java.util.Properties getClientInfo() throws SQLException
+  {
+    return connection.getClientInfo();
+  }
+
+  public String getClientInfo(String name) throws SQLException
+  {
+    return connection.getClientInfo(name);
+  }
+
+  public int getHoldability() throws SQLException
+  {
+    return connection.getHoldability();
+  }
+
+  public DatabaseMetaData getMetaData() throws SQLException
+  {
+    return connection.getMetaData();
+  }
+
+  public int getNetworkTimeout() throws SQLException
+  {
+    return connection.getNetworkTimeout();
+  }
+
+  public String getSchema() throws SQLException
+  {
+    return connection.getSchema();
+  }
+
+  public int getTransactionIsolation() throws SQLException
+  {
+    return connection.getTransactionIsolation();
+  }
+
+  public java.util.Map<String,Class<?>> getTypeMap() throws SQLException
+  {
+    return connection.getTypeMap();
+  }
+
+  public SQLWarning getWarnings() throws SQLException
+  {
+    return connection.getWarnings();
+  }
+
+  public boolean isClosed() throws SQLException
+  {
+    return connection.isClosed();
+  }
+
+  public boolean isReadOnly() throws SQLException
+  {
+    return connection.isReadOnly();
+  }
+
+  public boolean isValid(int timeout) throws SQLException
+  {
+    return connection.isValid(timeout);
+  }
+
+  public String nativeSQL(String sql) throws SQLException
+  {
+    return connection.nativeSQL(sql);
+  }
+
+  public CallableStatement prepareCall(String sql) throws SQLException
+  {
+    return connection.prepareCall(sql);
+  }
+
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException
+  {
+    return connection.prepareCall(sql, resultSetType, resultSetConcurrency);
+  }
+
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException
+  {
+    return connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException
+  {
+    connection.releaseSavepoint(savepoint);
+  }
+
+  public void rollback() throws SQLException
+  {
+    connection.rollback();
+  }
+
+  public void rollback(Savepoint savepoint) throws SQLException
+  {
+    connection.rollback(savepoint);
+  }
+
+  public void setAutoCommit(boolean autoCommit) throws SQLException
+  {
+    connection.setAutoCommit(autoCommit);
+  }
+
+  public void setCatalog(String catalog) throws SQLException
+  {
+    connection.setCatalog(catalog);
+  }
+
+  public void setClientInfo(java.util.Properties properties) throws SQLClientInfoException
+  {
+    connection.setClientInfo(properties);
+  }
+
+  public void setClientInfo(String name, String value) throws SQLClientInfoException
+  {
+    connection.setClientInfo(name, value);
+  }
+
+  public void setHoldability(int holdability) throws SQLException
+  {
+    connection.setHoldability(holdability);
+  }
+
+  public void setNetworkTimeout(java.util.concurrent.Executor executor, int milliseconds) throws SQLException
+  {
+    connection.setNetworkTimeout(executor, milliseconds);
+  }
+
+  public void setReadOnly(boolean readOnly) throws SQLException
+  {
+    connection.setReadOnly(readOnly);
+  }
+
+  public Savepoint setSavepoint() throws SQLException
+  {
+    return connection.setSavepoint();
+  }
+
+  public Savepoint setSavepoint(String name) throws SQLException
+  {
+    return connection.setSavepoint(name);
+  }
+
+  public void setSchema(String schema) throws SQLException
+  {
+    connection.setSchema(schema);
+  }
+
+  public void setTransactionIsolation(int level) throws SQLException
+  {
+    connection.setTransactionIsolation(level);
+  }
+
+  public void setTypeMap(java.util.Map<String,Class<?>> map) throws SQLException
+  {
+    connection.setTypeMap(map);
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException
+  {
+    return connection.isWrapperFor(iface);
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException
+  {
+    return connection.unwrap(iface);
+  }
+
+  /**
+   * Prepares a statement on the driver's connection with one overload's options.
+   */
+  private abstract static class Preparer
+  {
+    abstract PreparedStatement prepare() throws SQLException;
+  }
+
+  /**
+   * Separates the SQL from the options in a cache key; it cannot occur in SQL text.
+   */
+  private static final char OPTIONS = '\u0000';
+}
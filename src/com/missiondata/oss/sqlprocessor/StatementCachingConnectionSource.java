@@ -0,0 +1,185 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ConnectionSource decorator that keeps prepared statements open between
+ * executions.
+ * <p>
+ * Each connection from the delegated source is wrapped once and keeps an LRU
+ * cache of up to <code>maxStatementsPerConnection</code> statements keyed by
+ * their prepared SQL text.  When {@link AbstractSQLProcessorBase#execute(ConnectionSource)}
+ * closes its statement, the statement's parameters are cleared and it goes back
+ * into the cache, so the next execution of the same SQL on that connection
+ * skips the driver's parse and plan work.  This also applies to statements
+ * executed inside an {@link SQLTransaction} run against this source.
+ * <p>
+ * Caching only pays off when the delegated source hands out the same
+ * <code>Connection</code> objects again, as a pool does.  When a connection is
+ * found closed on return its statements are discarded.  Connections closed
+ * while not borrowed, as a pool does with idle ones, are found and discarded
+ * the next time the delegated source hands out a connection not seen before.
+ *
+ * @see AbstractSQLProcessorBase#execute(ConnectionSource)
+ */
+public class StatementCachingConnectionSource implements ConnectionSource
+{
+  private ConnectionSource delegated;
+  private int maxStatementsPerConnection;
+  private final Map<Connection, StatementCachingConnection> connections = new IdentityHashMap<Connection, StatementCachingConnection>();
+
+  public StatementCachingConnectionSource(ConnectionSource delegated, int maxStatementsPerConnection)
+  {
+    if (maxStatementsPerConnection < 1)
+    {
+      throw new IllegalArgumentException("At least one statement per connection must be cached: " + maxStatementsPerConnection);
+    }
+    this.delegated = delegated;
+    this.maxStatementsPerConnection = maxStatementsPerConnection;
+  }
+
+  public Connection getConnection()
+  {
+    Connection connection = delegated.getConnection();
+    List<StatementCachingConnection> swept = null;
+    StatementCachingConnection cachingConnection;
+    synchronized (connections)
+    {
+      cachingConnection = connections.get(connection);
+      if (cachingConnection == null)
+      {
+        swept = removeClosed();
+        cachingConnection = new StatementCachingConnection(connection, maxStatementsPerConnection);
+        connections.put(connection, cachingConnection);
+      }
+    }
+    if (swept != null)
+    {
+      for (Iterator<StatementCachingConnection> i = swept.iterator(); i.hasNext();)
+      {
+        i.next().closeStatements();
+      }
+    }
+    return cachingConnection;
+  }
+
+  public void returnConnection(Connection connection)
+  {
+    Connection physical = connection instanceof StatementCachingConnection
+      ? ((StatementCachingConnection) connection).getDelegate()
+      : connection;
+
+    delegated.returnConnection(physical);
+
+    if (physical == null || isClosed(physical))
+    {
+      StatementCachingConnection cachingConnection;
+      synchronized (connections)
+      {
+        cachingConnection = connections.remove(physical);
+      }
+      if (cachingConnection != null)
+      {
+        cachingConnection.closeStatements();
+      }
+    }
+  }
+
+  /**
+   * Drops the wrappers of connections that have been closed since they were
+   * last returned.  A new physical connection usually means the delegated
+   * source has replaced one, so that is when to look.  Called holding the
+   * lock on <code>connections</code>.
+   *
+   * @return the wrappers dropped, whose statements are still to be closed
+   */
+  private List<StatementCachingConnection> removeClosed()
+  {
+    List<StatementCachingConnection> swept = new ArrayList<StatementCachingConnection>();
+    for (Iterator<Map.Entry<Connection, StatementCachingConnection>> i = connections.entrySet().iterator(); i.hasNext();)
+    {
+      Map.Entry<Connection, StatementCachingConnection> entry = i.next();
+      if (isClosed(entry.getKey()))
+      {
+        swept.add(entry.getValue());
+        i.remove();
+      }
+    }
+    return swept;
+  }
+
+  private static boolean isClosed(Connection connection)
+  {
+    try
+    {
+      return connection.isClosed();
+    }
+    catch (SQLException e)
+    {
+      return true;
+    }
+  }
+
+  /**
+   * @return the number of statements cached across all connections
+   */
+  public int getCachedStatementCount()
+  {
+    int count = 0;
+    synchronized (connections)
+    {
+      for (Iterator<StatementCachingConnection> i = connections.values().iterator(); i.hasNext();)
+      {
+        count += i.next().getCachedStatementCount();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Closes all cached statements.  The connections themselves belong to the
+   * delegated source and are left open.
+   */
+  public void close()
+  {
+    List<StatementCachingConnection> wrapped;
+    synchronized (connections)
+    {
+      wrapped = new ArrayList<StatementCachingConnection>(connections.values());
+      connections.clear();
+    }
+    for (Iterator<StatementCachingConnection> i = wrapped.iterator(); i.hasNext();)
+    {
+      i.next().closeStatements();
+    }
+  }
+
+  public ConnectionSource getDelegated()
+  {
+    return delegated;
+  }
+}
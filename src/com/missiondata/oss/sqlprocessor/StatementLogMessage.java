@@ -0,0 +1,86 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+/**
+ * The logged form of one statement execution: the description, the SQL with
+ * substitutions applied, and the parameter values bound for that execution.
+ * The text is rendered only when {@link #getMessage()} is called.
+ */
+final class StatementLogMessage implements LogMessage
+{
+  private final String description;
+  private final String sqlForLogging;
+  private final TaggedSQLTemplate template;
+  private final Object[] values;
+
+  /**
+   * @param values the bound value of each parameter key, by dense key index
+   */
+  StatementLogMessage(String description, String sqlForLogging, TaggedSQLTemplate template, Object[] values)
+  {
+    this.description = String.valueOf(description);
+    this.sqlForLogging = sqlForLogging;
+    this.template = template;
+    this.values = values;
+  }
+
+  public String getMessage()
+  {
+    StringBuilder output = new StringBuilder(description.length() + sqlForLogging.length() + 16 * values.length);
+    output.append(description).append(": ");
+    appendSQLText(output, sqlForLogging, template, values);
+    return output.toString();
+  }
+
+  public String toString()
+  {
+    return getMessage();
+  }
+
+  /**
+   * Appends <code>sqlForLogging</code> with each <code>?</code> replaced by
+   * the value bound at that position, quoted unless it is a number.
+   */
+  static void appendSQLText(StringBuilder output, String sqlForLogging, TaggedSQLTemplate template, Object[] values)
+  {
+    int parameterIndex = 1;
+    int parameterCount = template.getParameterCount();
+    for (int i = 0; i < sqlForLogging.length(); i++)
+    {
+      char c = sqlForLogging.charAt(i);
+      if (c == '?' && parameterIndex <= parameterCount)
+      {
+        Object value = values[template.getParameterSlot(parameterIndex++)];
+        if (!(value instanceof Number))
+        {
+          output.append('\'').append(value).append('\'');
+        }
+        else
+        {
+          output.append(value);
+        }
+      }
+      else
+      {
+        output.append(c);
+      }
+    }
+  }
+}
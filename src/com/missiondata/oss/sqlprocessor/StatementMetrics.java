@@ -0,0 +1,300 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A {@link MetricsCapability} that keeps counts and latency histograms for
+ * each statement, keyed by processor description or by SQL template.
+ * <pre>
+ * StatementMetrics metrics = new StatementMetrics();
+ * AbstractSQLProcessorBase.setMetricsCapability(metrics);
+ * metrics.registerMBean("orders");
+ * </pre>
+ */
+public class StatementMetrics implements MetricsCapability, StatementMetricsMXBean
+{
+  /**
+   * Keeps metrics by processor description, or by the tagged SQL text for
+   * processors without one.
+   */
+  public StatementMetrics()
+  {
+    this(false);
+  }
+
+  /**
+   * @param byTemplate true to key metrics by the tagged SQL text rather than
+   *  by description, for code whose descriptions are not unique
+   */
+  public StatementMetrics(boolean byTemplate)
+  {
+    this.byTemplate = byTemplate;
+  }
+
+  public void recordExecution(String description, TaggedSQLTemplate template, long prepareNanos, long executeNanos,
+    long fetchNanos, long rows, boolean failed)
+  {
+    String key = byTemplate || description == null || AbstractSQLProcessorBase.NO_DESCRIPTION.equals(description)
+      ? template.getRawSQL() : description;
+    Stats stats = statements.get(key);
+    if (stats == null)
+    {
+      stats = new Stats();
+      Stats existing = statements.putIfAbsent(key, stats);
+      if (existing != null)
+      {
+        stats = existing;
+      }
+    }
+    stats.record(prepareNanos, executeNanos, fetchNanos, rows, failed);
+  }
+
+  /**
+   * @return the live metrics for <code>key</code>, or null if it has not run
+   */
+  public Stats getStats(String key)
+  {
+    return statements.get(key);
+  }
+
+  public Map<String, Summary> getStatements()
+  {
+    Map<String, Summary> summaries = new TreeMap<String, Summary>();
+    for (Map.Entry<String, Stats> entry : statements.entrySet())
+    {
+      summaries.put(entry.getKey(), new Summary(entry.getValue()));
+    }
+    return summaries;
+  }
+
+  public void reset()
+  {
+    statements.clear();
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server as
+   * <code>com.missiondata.oss.sqlprocessor:type=StatementMetrics,name=</code><i>name</i>.
+   *
+   * @return the name registered
+   */
+  public ObjectName registerMBean(String name)
+  {
+    try
+    {
+      ObjectName objectName = new ObjectName("com.missiondata.oss.sqlprocessor:type=StatementMetrics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    }
+    catch (JMException e)
+    {
+      throw new IllegalStateException("Could not register statement metrics " + name, e);
+    }
+  }
+
+  public void unregisterMBean(ObjectName objectName)
+  {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try
+    {
+      if (server.isRegistered(objectName))
+      {
+        server.unregisterMBean(objectName);
+      }
+    }
+    catch (JMException e)
+    {
+      throw new IllegalStateException("Could not unregister statement metrics " + objectName, e);
+    }
+  }
+
+  /**
+   * The live metrics of one statement.
+   */
+  public static class Stats
+  {
+    void record(long prepareNanos, long executeNanos, long fetchNanos, long rows, boolean failed)
+    {
+      executions.increment();
+      if (failed)
+      {
+        errors.increment();
+      }
+      this.rows.add(rows);
+      prepare.record(prepareNanos);
+      execute.record(executeNanos);
+      fetch.record(fetchNanos);
+    }
+
+    public long getExecutions()
+    {
+      return executions.sum();
+    }
+
+    public long getErrors()
+    {
+      return errors.sum();
+    }
+
+    public long getRows()
+    {
+      return rows.sum();
+    }
+
+    public LatencyHistogram getPrepare()
+    {
+      return prepare;
+    }
+
+    public LatencyHistogram getExecute()
+    {
+      return execute;
+    }
+
+    public LatencyHistogram getFetch()
+    {
+      return fetch;
+    }
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram prepare = new LatencyHistogram();
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LatencyHistogram fetch = new LatencyHistogram();
+  }
+
+  /**
+   * A point-in-time copy of a statement's {@link Stats}, as published over JMX.
+   */
+  public static class Summary
+  {
+    Summary(Stats stats)
+    {
+      executions = stats.getExecutions();
+      errors = stats.getErrors();
+      rows = stats.getRows();
+      prepare = new Latency(stats.getPrepare());
+      execute = new Latency(stats.getExecute());
+      fetch = new Latency(stats.getFetch());
+    }
+
+    public long getExecutions()
+    {
+      return executions;
+    }
+
+    public long getErrors()
+    {
+      return errors;
+    }
+
+    public long getRows()
+    {
+      return rows;
+    }
+
+    public Latency getPrepare()
+    {
+      return prepare;
+    }
+
+    public Latency getExecute()
+    {
+      return execute;
+    }
+
+    public Latency getFetch()
+    {
+      return fetch;
+    }
+
+    private final long executions;
+    private final long errors;
+    private final long rows;
+    private final Latency prepare;
+    private final Latency execute;
+    private final Latency fetch;
+  }
+
+  /**
+   * Percentiles of a {@link LatencyHistogram}, in microseconds.
+   */
+  public static class Latency
+  {
+    Latency(LatencyHistogram histogram)
+    {
+      mean = histogram.getMean() / 1000;
+      p50 = micros(histogram.getValueAtPercentile(50));
+      p90 = micros(histogram.getValueAtPercentile(90));
+      p99 = micros(histogram.getValueAtPercentile(99));
+      max = micros(histogram.getMax());
+    }
+
+    private static long micros(long nanos)
+    {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public double getMeanMicros()
+    {
+      return mean;
+    }
+
+    public long getP50Micros()
+    {
+      return p50;
+    }
+
+    public long getP90Micros()
+    {
+      return p90;
+    }
+
+    public long getP99Micros()
+    {
+      return p99;
+    }
+
+    public long getMaxMicros()
+    {
+      return max;
+    }
+
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+  }
+
+  private final boolean byTemplate;
+  private final ConcurrentMap<String, Stats> statements = new ConcurrentHashMap<String, Stats>();
+}
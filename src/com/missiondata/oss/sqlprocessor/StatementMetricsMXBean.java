@@ -0,0 +1,34 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link StatementMetrics}.  Each statement appears as a
+ * row of the <code>Statements</code> table.
+ *
+ * @see StatementMetrics#registerMBean(String)
+ */
+public interface StatementMetricsMXBean
+{
+  Map<String, StatementMetrics.Summary> getStatements();
+
+  void reset();
+}
@@ -21,23 +21,36 @@ package com.missiondata.oss.sqlprocessor;
 import java.util.*;
 
 /**
+ * Per-processor view of a {@link TaggedSQLTemplate}.  The parsed template is
+ * shared; only the substitution values set on this instance are private to it.
+ *
  * @author Leslie Hensley
  */
 public class TaggedSQL
 {
   public TaggedSQL(String sqlText)
   {
-    parseString(sqlText);
+    this(TaggedSQLTemplate.compile(sqlText));
+  }
+
+  public TaggedSQL(TaggedSQLTemplate template)
+  {
+    this.template = template;
+  }
+
+  public TaggedSQLTemplate getTemplate()
+  {
+    return template;
   }
 
   public boolean isQuery()
   {
-    return ((String) parsedString.get(0)).trim().toUpperCase().startsWith("SELECT");
+    return template.isQuery();
   }
 
   public boolean isInsert()
   {
-    return ((String) parsedString.get(0)).trim().toUpperCase().startsWith("INSERT");
+    return template.isInsert();
   }
 
   public void setSubstitution(String key, Object value)
@@ -45,6 +58,8 @@ public class TaggedSQL
     if (isSubstitutionKey(key))
     {
       substitutionValues.put(key, value);
+      preparedStringForLogging = null;
+      multiRowStrings = null;
       dirty = true;
     }
     else
@@ -54,240 +69,193 @@ public class TaggedSQL
   }
 
 
+  /**
+   * @return the prepared text with substitutions applied, marking any that are
+   *  unset; kept until a substitution changes
+   */
   public String getPreparedStringForLogging()
   {
+    if (preparedStringForLogging == null)
+    {
+      preparedStringForLogging = buildPreparedStringForLogging();
+    }
+    return preparedStringForLogging;
+  }
 
-    Iterator keys = substitutionIndices.keySet().iterator();
-    List parsedString = new LinkedList(this.parsedString);
-
-    while (keys.hasNext())
+  private String buildPreparedStringForLogging()
+  {
+    if (!template.hasSubstitutions())
     {
-      String key = (String) keys.next();
-      String subval = null;
+      return template.getPreparedString();
+    }
 
-      if (substitutionValues.containsKey(key))
+    String[] segments = template.getSegments();
+    StringBuffer statementText = new StringBuffer();
+    int substitution = 0;
+    for (int i = 0; i < segments.length; i++)
+    {
+      if (substitution < template.getSubstitutionCount() && template.getSubstitutionSlot(substitution) == i)
       {
-        subval = "" + substitutionValues.get(key);
+        String key = template.getSubstitutionKey(substitution++);
+        if (substitutionValues.containsKey(key))
+        {
+          statementText.append(substitutionValues.get(key));
+        }
+        else
+        {
+          statementText.append("!SUB{").append(key).append("}!");
+        }
       }
       else
       {
-        subval = "!SUB{" + key + "}!";
-      }
-
-      for (Iterator i = getSubstitutionIndices(key).iterator(); i.hasNext();)
-      {
-        int idx = ((Integer) i.next()).intValue();
-        parsedString.set(idx, subval);
+        statementText.append(segments[i]);
       }
     }
 
-
-    StringBuffer statementText = new StringBuffer();
-    Iterator iterator = parsedString.iterator();
-
-    while (iterator.hasNext())
-    {
-      statementText.append(iterator.next());
-    }
-
     return statementText.toString();
   }
 
 
   public String getPreparedString()
   {
-    Iterator keys = substitutionIndices.keySet().iterator();
-    while (keys.hasNext())
+    if (!template.hasSubstitutions())
     {
-      String key = (String) keys.next();
-      if (substitutionValues.containsKey(key))
+      dirty = false;
+      return template.getPreparedString();
+    }
+
+    String[] segments = template.getSegments();
+    StringBuffer statementText = new StringBuffer();
+    int substitution = 0;
+    for (int i = 0; i < segments.length; i++)
+    {
+      if (substitution < template.getSubstitutionCount() && template.getSubstitutionSlot(substitution) == i)
       {
-        for (Iterator i = getSubstitutionIndices(key).iterator(); i.hasNext();)
+        String key = template.getSubstitutionKey(substitution++);
+        if (!substitutionValues.containsKey(key))
         {
-          int idx = ((Integer) i.next()).intValue();
-          parsedString.set(idx, substitutionValues.get(key));
+          throw new IllegalArgumentException("The substitution #" + key + "# was not set");
         }
+        statementText.append(substitutionValues.get(key));
       }
       else
       {
-        throw new IllegalArgumentException("The substitution #" + key + "# was not set");
+        statementText.append(segments[i]);
       }
     }
-
-    StringBuffer statementText = new StringBuffer();
-    Iterator iterator = parsedString.iterator();
-    while (iterator.hasNext())
-    {
-      statementText.append(iterator.next());
-    }
     dirty = false;
     return statementText.toString();
   }
 
-  public Iterator getParameterKeys()
-  {
-    return parameterIndices.keySet().iterator();
-  }
-
-  public boolean isSubstitutionKey(String key)
-  {
-    return substitutionIndices.containsKey(key);
-  }
-
-  public boolean isParameterKey(String key)
-  {
-    return parameterIndices.containsKey(key);
-  }
-
-  public boolean isKey(String key)
-  {
-    return isSubstitutionKey(key) || isParameterKey(key);
-  }
-
-  public List getParameterIndices(String key)
+  /**
+   * The prepared text with its <code>VALUES</code> row repeated
+   * <code>rows</code> times.  Expansions are kept until a substitution changes.
+   *
+   * @return the expanded text, or null if the statement cannot be expanded
+   * @see TaggedSQLTemplate#getMultiRowString(int)
+   */
+  public String getMultiRowPreparedString(int rows)
   {
-    return ((List) parameterIndices.get(key));
-  }
-
-
-  public List getSubstitutionIndices(String key)
-  {
-    return ((List) substitutionIndices.get(key));
-  }
-
-  public String getParameterKey(int index)
-  {
-    for (Iterator i = parameterIndices.entrySet().iterator(); i.hasNext();)
+    if (!template.hasSubstitutions())
     {
-      Map.Entry entry = (Map.Entry) i.next();
-      List list = (List) entry.getValue();
-      if (list.contains(new Integer(index)))
-      {
-        return (String) entry.getKey();
-      }
+      return template.getMultiRowString(rows);
     }
-    throw new IllegalArgumentException("Index " + index + " not found.");
-  }
-
-  public boolean isDirty()
-  {
-    return dirty;
-  }
 
-  private void parseString(String sqlText)
-  {
-    // convert |var| to ?
-    int paramCount = 1;
-    int lastIndex = 0;
-    int newIndex;
-    StringBuffer convertedString = new StringBuffer();
-    while ((newIndex = sqlText.indexOf("|", lastIndex)) != -1)
+    if (multiRowStrings == null)
     {
-      if (newIndex == sqlText.length() - 1)
-      {
-        throw new IllegalArgumentException("SQL text contains unbalanced | : " + sqlText);
-      }
-
-      // skip if the | is escaped
-      if (sqlText.substring(newIndex + 1, newIndex + 2).equals("|"))
-      {
-        convertedString.append(sqlText.substring(lastIndex, newIndex + 1));
-        lastIndex = newIndex + 2;
-        continue;
-      }
-      convertedString.append(sqlText.substring(lastIndex, newIndex));
-      convertedString.append("?");
-
-      lastIndex = newIndex + 1;
-      newIndex = sqlText.indexOf("|", lastIndex);
-      if (newIndex == -1)
+      multiRowStrings = new HashMap();
+    }
+    String expanded = (String) multiRowStrings.get(rows);
+    if (expanded == null)
+    {
+      String prepared = getPreparedString();
+      int[] row = TaggedSQLTemplate.findValuesRow(prepared, template.getParameterCount());
+      if (row == null)
       {
-        throw new IllegalArgumentException("SQL text contains unbalanced | : " + sqlText);
+        return null;
       }
-
-      if (isSubstitutionKey(sqlText.substring(lastIndex, newIndex)))
-
+      expanded = rows == 1 ? prepared : TaggedSQLTemplate.expandValuesRow(prepared, row, rows);
+      if (multiRowStrings.size() < TaggedSQLTemplate.MAX_MULTI_ROW_STRINGS)
       {
-        throw new IllegalArgumentException("Cannot use key for substitions and parameters : " + sqlText.substring(lastIndex, newIndex));
+        multiRowStrings.put(rows, expanded);
       }
-      else
-      {
-        addParameterIndex(sqlText.substring(lastIndex, newIndex), paramCount++);
-      }
-      lastIndex = newIndex + 1;
     }
-    convertedString.append(sqlText.substring(lastIndex, sqlText.length()));
-
-    // How can this be done with only one pass through the string?
-    //   Is it worth using regex on this?
+    return expanded;
+  }
 
-    // parse #
-    int settingCount = 1;
-    String passTwo = convertedString.toString();
-    lastIndex = 0;
-    while ((newIndex = passTwo.indexOf("#", lastIndex)) != -1)
+  /**
+   * @return the parameter names, in the order they first appear in the SQL text
+   */
+  public Iterator getParameterKeys()
+  {
+    return new Iterator()
     {
-      // skip if the # is escaped
-      if (passTwo.substring(newIndex + 1, newIndex + 2).equals("#"))
+      public boolean hasNext()
       {
-        parsedString.add(passTwo.substring(lastIndex, newIndex + 1));
-        lastIndex = newIndex + 2;
-        settingCount++;
-        continue;
+        return next < template.getParameterKeyCount();
       }
-      parsedString.add(passTwo.substring(lastIndex, newIndex));
 
-      lastIndex = newIndex + 1;
-      newIndex = passTwo.indexOf("#", lastIndex);
-      if (newIndex == -1)
+      public Object next()
       {
-        throw new IllegalArgumentException("SQL text contains unbalanced # : " + sqlText);
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        return template.getParameterKey(next++);
       }
 
-
-      if (isParameterKey(passTwo.substring(lastIndex, newIndex)))
+      public void remove()
       {
-        throw new IllegalArgumentException("Cannot use key for substitions and parameters : " + passTwo.substring(lastIndex, newIndex));
+        throw new UnsupportedOperationException();
       }
-      addSubstitutionIndex(passTwo.substring(lastIndex, newIndex), settingCount);
 
-      settingCount += 2;
-      parsedString.add(passTwo.substring(lastIndex - 1, newIndex + 1));
-      lastIndex = newIndex + 1;
-    }
-    parsedString.add(passTwo.substring(lastIndex, passTwo.length()));
+      private int next = 0;
+    };
   }
 
+  public boolean isSubstitutionKey(String key)
+  {
+    return template.isSubstitutionKey(key);
+  }
 
-  private void addParameterIndex(String key, int position)
+  public boolean isParameterKey(String key)
   {
-    addAnEntry(parameterIndices, key, position);
+    return template.isParameterKey(key);
   }
 
+  public boolean isKey(String key)
+  {
+    return isSubstitutionKey(key) || isParameterKey(key);
+  }
 
-  private void addSubstitutionIndex(String key, int position)
+  public List getParameterIndices(String key)
   {
-    addAnEntry(substitutionIndices, key, position);
+    return template.getParameterIndices(key);
   }
 
 
-  private void addAnEntry(Map map, String key, int position)
+  public List getSubstitutionIndices(String key)
   {
-    List entries = (List) map.get(key);
+    return template.getSubstitutionIndices(key);
+  }
 
-    if (entries == null)
+  public String getParameterKey(int index)
+  {
+    if (index < 1 || index > template.getParameterCount())
     {
-      entries = new LinkedList();
-      map.put(key, entries);
+      throw new IllegalArgumentException("Index " + index + " not found.");
     }
+    return template.getParameterKey(template.getParameterSlot(index));
+  }
 
-    entries.add(new Integer(position));
+  public boolean isDirty()
+  {
+    return dirty;
   }
 
+  private final TaggedSQLTemplate template;
   private boolean dirty = true;
-  private List parsedString = new ArrayList();
-
-  private Map parameterIndices = new HashMap();
-  private Map substitutionIndices = new HashMap();
+  private String preparedStringForLogging;
+  private Map multiRowStrings;
   private Map substitutionValues = new HashMap();
 }
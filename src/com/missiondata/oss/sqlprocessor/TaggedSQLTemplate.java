@@ -0,0 +1,563 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parsed, immutable form of tagged SQL text.
+ * <p>
+ * A template is produced by a single pass over the text: each <code>|param|</code>
+ * becomes a <code>?</code> and each <code>#sub#</code> becomes a slot in the
+ * segment array.  Templates hold no per-execution state, so one instance is
+ * shared by every {@link TaggedSQL} built from the same text.  Use
+ * {@link #compile(String)} to get the cached instance.
+ *
+ * @see TaggedSQL
+ */
+public final class TaggedSQLTemplate
+{
+  /**
+   * Returns the template for <code>sqlText</code>, parsing it only if it is
+   * not already in the cache.
+   *
+   * @param sqlText tagged SQL text
+   * @return the shared template
+   * @throws IllegalArgumentException if the text is not valid tagged SQL
+   */
+  public static TaggedSQLTemplate compile(String sqlText)
+  {
+    TaggedSQLTemplate template = cache.get(sqlText);
+    if (template == null)
+    {
+      template = new TaggedSQLTemplate(sqlText);
+      TaggedSQLTemplate existing = cache.putIfAbsent(sqlText, template);
+      if (existing != null)
+      {
+        template = existing;
+      }
+      else if (cache.size() > maxCacheSize)
+      {
+        trimCache();
+      }
+    }
+    return template;
+  }
+
+  /**
+   * Sets the most templates kept in the cache.  Templates beyond the limit are
+   * dropped in no particular order; they are simply parsed again when next used.
+   *
+   * @param size the maximum number of cached templates
+   */
+  public static void setMaxCacheSize(int size)
+  {
+    if (size < 0)
+    {
+      throw new IllegalArgumentException("Cache size cannot be negative: " + size);
+    }
+    maxCacheSize = size;
+    trimCache();
+  }
+
+  public static int getMaxCacheSize()
+  {
+    return maxCacheSize;
+  }
+
+  static int getCacheSize()
+  {
+    return cache.size();
+  }
+
+  public static void clearCache()
+  {
+    cache.clear();
+  }
+
+  private static void trimCache()
+  {
+    Iterator<String> keys = cache.keySet().iterator();
+    while (cache.size() > maxCacheSize && keys.hasNext())
+    {
+      keys.next();
+      keys.remove();
+    }
+  }
+
+  TaggedSQLTemplate(String sqlText)
+  {
+    this.rawSQL = sqlText;
+
+    List<String> segmentList = new ArrayList<String>();
+    List<String> substitutionKeyList = new ArrayList<String>();
+    List<Integer> substitutionSlotList = new ArrayList<Integer>();
+    List<String> parameterKeyList = new ArrayList<String>();
+    List<Integer> parameterSlotList = new ArrayList<Integer>();
+    Map<String, Integer> parameterKeyMap = new HashMap<String, Integer>();
+
+    StringBuilder literal = new StringBuilder(sqlText.length());
+    int length = sqlText.length();
+    int i = 0;
+    while (i < length)
+    {
+      char c = sqlText.charAt(i);
+      if (c == '|')
+      {
+        if (i == length - 1)
+        {
+          throw new IllegalArgumentException("SQL text contains unbalanced | : " + sqlText);
+        }
+        if (sqlText.charAt(i + 1) == '|')
+        {
+          literal.append('|');
+          i += 2;
+          continue;
+        }
+        int end = sqlText.indexOf('|', i + 1);
+        if (end == -1)
+        {
+          throw new IllegalArgumentException("SQL text contains unbalanced | : " + sqlText);
+        }
+        String key = sqlText.substring(i + 1, end);
+        if (substitutionKeyList.contains(key))
+        {
+          throw new IllegalArgumentException("Cannot use key for substitions and parameters : " + key);
+        }
+        Integer slot = parameterKeyMap.get(key);
+        if (slot == null)
+        {
+          slot = parameterKeyList.size();
+          parameterKeyMap.put(key, slot);
+          parameterKeyList.add(key);
+        }
+        parameterSlotList.add(slot);
+        literal.append('?');
+        i = end + 1;
+      }
+      else if (c == '#')
+      {
+        if (i < length - 1 && sqlText.charAt(i + 1) == '#')
+        {
+          literal.append('#');
+          i += 2;
+          continue;
+        }
+        int end = sqlText.indexOf('#', i + 1);
+        if (end == -1)
+        {
+          throw new IllegalArgumentException("SQL text contains unbalanced # : " + sqlText);
+        }
+        String key = sqlText.substring(i + 1, end);
+        if (parameterKeyMap.containsKey(key))
+        {
+          throw new IllegalArgumentException("Cannot use key for substitions and parameters : " + key);
+        }
+        segmentList.add(literal.toString());
+        literal.setLength(0);
+        substitutionSlotList.add(segmentList.size());
+        substitutionKeyList.add(key);
+        segmentList.add(sqlText.substring(i, end + 1));
+        i = end + 1;
+      }
+      else
+      {
+        literal.append(c);
+        i++;
+      }
+    }
+    segmentList.add(literal.toString());
+
+    segments = segmentList.toArray(new String[segmentList.size()]);
+    substitutionKeys = substitutionKeyList.toArray(new String[substitutionKeyList.size()]);
+    substitutionSlots = toIntArray(substitutionSlotList);
+    parameterKeys = parameterKeyList.toArray(new String[parameterKeyList.size()]);
+    parameterSlots = toIntArray(parameterSlotList);
+    parameterKeyIndex = parameterKeyMap;
+    preparedString = substitutionKeys.length == 0 ? segments[0] : null;
+
+    List<List<Integer>> indexLists = new ArrayList<List<Integer>>(parameterKeys.length);
+    for (int k = 0; k < parameterKeys.length; k++)
+    {
+      indexLists.add(new ArrayList<Integer>());
+    }
+    for (int p = 0; p < parameterSlots.length; p++)
+    {
+      indexLists.get(parameterSlots[p]).add(p + 1);
+    }
+    parameterIndices = new int[parameterKeys.length][];
+    parameterIndexLists = new HashMap<String, List<Integer>>();
+    for (int k = 0; k < parameterKeys.length; k++)
+    {
+      parameterIndices[k] = toIntArray(indexLists.get(k));
+      parameterIndexLists.put(parameterKeys[k], Collections.unmodifiableList(indexLists.get(k)));
+    }
+
+    substitutionIndexLists = new HashMap<String, List<Integer>>();
+    for (int s = 0; s < substitutionKeys.length; s++)
+    {
+      List<Integer> list = substitutionIndexLists.get(substitutionKeys[s]);
+      if (list == null)
+      {
+        list = new ArrayList<Integer>();
+        substitutionIndexLists.put(substitutionKeys[s], list);
+      }
+      list.add(substitutionSlots[s]);
+    }
+    for (Map.Entry<String, List<Integer>> entry : substitutionIndexLists.entrySet())
+    {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+
+    String leading = segments[0].trim().toUpperCase();
+    query = leading.startsWith("SELECT");
+    insert = leading.startsWith("INSERT");
+    valuesRow = insert && preparedString != null ? findValuesRow(preparedString, parameterSlots.length) : null;
+  }
+
+  private static int[] toIntArray(List<Integer> list)
+  {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++)
+    {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * Locates the parenthesized row after <code>VALUES</code> in prepared
+   * insert text.  Quoted strings and identifiers are skipped.
+   *
+   * @return the offsets of the row's opening and closing parentheses, or null
+   *  if there is no single row or it does not hold all
+   *  <code>parameterCount</code> markers
+   */
+  static int[] findValuesRow(String sql, int parameterCount)
+  {
+    int length = sql.length();
+    int open = -1;
+    char quote = 0;
+    for (int i = 0; i < length && open == -1; i++)
+    {
+      char c = sql.charAt(i);
+      if (quote != 0)
+      {
+        if (c == quote)
+        {
+          quote = 0;
+        }
+      }
+      else if (c == '\'' || c == '"' || c == '`')
+      {
+        quote = c;
+      }
+      else if (sql.regionMatches(true, i, "VALUES", 0, 6)
+        && (i == 0 || !Character.isJavaIdentifierPart(sql.charAt(i - 1)))
+        && (i + 6 == length || !Character.isJavaIdentifierPart(sql.charAt(i + 6))))
+      {
+        int j = i + 6;
+        while (j < length && Character.isWhitespace(sql.charAt(j)))
+        {
+          j++;
+        }
+        if (j == length || sql.charAt(j) != '(')
+        {
+          return null;
+        }
+        open = j;
+      }
+    }
+    if (open == -1)
+    {
+      return null;
+    }
+
+    int depth = 0;
+    int markers = 0;
+    for (int i = open; i < length; i++)
+    {
+      char c = sql.charAt(i);
+      if (quote != 0)
+      {
+        if (c == quote)
+        {
+          quote = 0;
+        }
+      }
+      else if (c == '\'' || c == '"' || c == '`')
+      {
+        quote = c;
+      }
+      else if (c == '?')
+      {
+        markers++;
+      }
+      else if (c == '(')
+      {
+        depth++;
+      }
+      else if (c == ')' && --depth == 0)
+      {
+        int next = i + 1;
+        while (next < length && Character.isWhitespace(sql.charAt(next)))
+        {
+          next++;
+        }
+        if (markers != parameterCount || (next < length && sql.charAt(next) == ','))
+        {
+          return null;
+        }
+        return new int[]{open, i};
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param row the offsets returned by {@link #findValuesRow(String, int)}
+   * @return <code>sql</code> with the row repeated <code>rows</code> times
+   */
+  static String expandValuesRow(String sql, int[] row, int rows)
+  {
+    String rowText = sql.substring(row[0], row[1] + 1);
+    StringBuilder expanded = new StringBuilder(sql.length() + (rowText.length() + 2) * (rows - 1));
+    expanded.append(sql, 0, row[1] + 1);
+    for (int r = 1; r < rows; r++)
+    {
+      expanded.append(", ").append(rowText);
+    }
+    expanded.append(sql, row[1] + 1, sql.length());
+    return expanded.toString();
+  }
+
+  /**
+   * Returns the prepared text of this insert with its <code>VALUES</code> row
+   * repeated <code>rows</code> times, so row <code>r</code> binds parameter
+   * <code>p</code> at index <code>r * getParameterCount() + p</code>.  The
+   * first few row counts asked for are kept, so the full-size statement of a
+   * multi-row insert is expanded only once.
+   *
+   * @return the expanded text, or null if the template has substitutions or no
+   *  single VALUES row holding every parameter
+   */
+  public String getMultiRowString(int rows)
+  {
+    if (valuesRow == null)
+    {
+      return null;
+    }
+    if (rows == 1)
+    {
+      return preparedString;
+    }
+    String expanded = multiRowStrings.get(rows);
+    if (expanded == null)
+    {
+      expanded = expandValuesRow(preparedString, valuesRow, rows);
+      if (multiRowStrings.size() < MAX_MULTI_ROW_STRINGS)
+      {
+        multiRowStrings.putIfAbsent(rows, expanded);
+      }
+    }
+    return expanded;
+  }
+
+  /**
+   * Rate-limits slow query warnings for this statement.
+   *
+   * @return -1 if a warning was logged less than <code>intervalNanos</code>
+   *  before <code>now</code>; otherwise the number of warnings skipped since
+   *  the last one, and the caller should log
+   */
+  long claimSlowLog(long now, long intervalNanos)
+  {
+    long last = lastSlowLog.get();
+    if ((last != NEVER && now - last < intervalNanos) || !lastSlowLog.compareAndSet(last, now))
+    {
+      skippedSlowLogs.incrementAndGet();
+      return -1;
+    }
+    return skippedSlowLogs.getAndSet(0);
+  }
+
+  /**
+   * A running count of logged executions of this statement, used for log
+   * sampling.  This, the slow query rate limit and the multi-row expansions
+   * are the only mutable state a template has.
+   */
+  long nextLogSequence()
+  {
+    return logSequence.getAndIncrement();
+  }
+
+  public String getRawSQL()
+  {
+    return rawSQL;
+  }
+
+  public boolean isQuery()
+  {
+    return query;
+  }
+
+  public boolean isInsert()
+  {
+    return insert;
+  }
+
+  public boolean hasSubstitutions()
+  {
+    return substitutionKeys.length > 0;
+  }
+
+  /**
+   * @return the JDBC text of a template without substitutions, otherwise null
+   */
+  public String getPreparedString()
+  {
+    return preparedString;
+  }
+
+  /**
+   * The text between substitutions.  Slots listed by {@link #getSubstitutionSlot(int)}
+   * hold the original <code>#key#</code> text.
+   */
+  String[] getSegments()
+  {
+    return segments;
+  }
+
+  public int getSubstitutionCount()
+  {
+    return substitutionKeys.length;
+  }
+
+  public String getSubstitutionKey(int substitution)
+  {
+    return substitutionKeys[substitution];
+  }
+
+  public int getSubstitutionSlot(int substitution)
+  {
+    return substitutionSlots[substitution];
+  }
+
+  public boolean isSubstitutionKey(String key)
+  {
+    return substitutionIndexLists.containsKey(key);
+  }
+
+  public List<Integer> getSubstitutionIndices(String key)
+  {
+    return substitutionIndexLists.get(key);
+  }
+
+  /**
+   * @return the number of distinct parameter names, in order of first appearance
+   */
+  public int getParameterKeyCount()
+  {
+    return parameterKeys.length;
+  }
+
+  public String getParameterKey(int keyIndex)
+  {
+    return parameterKeys[keyIndex];
+  }
+
+  /**
+   * @return the dense index of <code>key</code>, or -1 if it is not a parameter
+   */
+  public int getParameterKeyIndex(String key)
+  {
+    Integer index = parameterKeyIndex.get(key);
+    return index == null ? -1 : index;
+  }
+
+  public boolean isParameterKey(String key)
+  {
+    return parameterKeyIndex.containsKey(key);
+  }
+
+  /**
+   * @return the number of <code>?</code> markers in the prepared text
+   */
+  public int getParameterCount()
+  {
+    return parameterSlots.length;
+  }
+
+  /**
+   * @param parameterIndex 1-based JDBC parameter index
+   * @return the dense key index bound at that position
+   */
+  public int getParameterSlot(int parameterIndex)
+  {
+    return parameterSlots[parameterIndex - 1];
+  }
+
+  /**
+   * @param keyIndex the dense key index
+   * @return the 1-based JDBC indices the key is bound to; do not modify
+   */
+  public int[] getParameterIndices(int keyIndex)
+  {
+    return parameterIndices[keyIndex];
+  }
+
+  public List<Integer> getParameterIndices(String key)
+  {
+    return parameterIndexLists.get(key);
+  }
+
+  private final String rawSQL;
+  private final String[] segments;
+  private final String[] substitutionKeys;
+  private final int[] substitutionSlots;
+  private final String[] parameterKeys;
+  private final int[] parameterSlots;
+  private final int[][] parameterIndices;
+  private final Map<String, Integer> parameterKeyIndex;
+  private final Map<String, List<Integer>> parameterIndexLists;
+  private final Map<String, List<Integer>> substitutionIndexLists;
+  private final String preparedString;
+  private final boolean query;
+  private final boolean insert;
+  private final int[] valuesRow;
+  private final ConcurrentMap<Integer, String> multiRowStrings = new ConcurrentHashMap<Integer, String>();
+  private final AtomicLong logSequence = new AtomicLong();
+  private final AtomicLong lastSlowLog = new AtomicLong(NEVER);
+  private final AtomicLong skippedSlowLogs = new AtomicLong();
+
+  private static final long NEVER = Long.MIN_VALUE;
+
+  static final int MAX_MULTI_ROW_STRINGS = 8;
+
+  private static volatile int maxCacheSize = 1000;
+  private static final ConcurrentMap<String, TaggedSQLTemplate> cache = new ConcurrentHashMap<String, TaggedSQLTemplate>();
+}
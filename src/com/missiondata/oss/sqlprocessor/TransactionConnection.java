@@ -19,8 +19,13 @@
 package com.missiondata.oss.sqlprocessor;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * @author Steven Yelton
@@ -29,6 +34,7 @@ public class TransactionConnection implements Connection
 {
   private Connection connection;
   private boolean aborted;
+  private final Set<String> writes = new LinkedHashSet<String>();
 
   public TransactionConnection(Connection connection)
   {
@@ -40,6 +46,34 @@ public class TransactionConnection implements Connection
     return aborted;
   }
 
+  /**
+   * Notes the SQL of a write made in this transaction, so the results it
+   * affects can be dropped from result caches when the transaction commits.
+   * An enclosing transaction is told too, since this one's commit is not real.
+   */
+  void recordWrite(String sql)
+  {
+    synchronized (writes)
+    {
+      writes.add(sql);
+    }
+    if (connection instanceof TransactionConnection)
+    {
+      ((TransactionConnection) connection).recordWrite(sql);
+    }
+  }
+
+  /**
+   * @return the SQL of each distinct write made in this transaction
+   */
+  List<String> getWrites()
+  {
+    synchronized (writes)
+    {
+      return new ArrayList<String>(writes);
+    }
+  }
+
   public int getHoldability() throws SQLException
   {
     return connection.getHoldability();
@@ -284,6 +318,31 @@ throws SQLException
     return connection.createStruct(typeName, attributes);
   }
 
+  public void setSchema(String schema) throws SQLException
+  {
+    connection.setSchema(schema);
+  }
+
+  public String getSchema() throws SQLException
+  {
+    return connection.getSchema();
+  }
+
+  public void abort(Executor executor) throws SQLException
+  {
+    aborted = true;
+  }
+
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException
+  {
+    connection.setNetworkTimeout(executor, milliseconds);
+  }
+
+  public int getNetworkTimeout() throws SQLException
+  {
+    return connection.getNetworkTimeout();
+  }
+
   public <T> T unwrap(Class<T> iface) throws SQLException
   {
     return connection.unwrap(iface);
@@ -27,6 +27,7 @@ import java.util.Stack;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 public class _LeakTrackerTest extends TestCase
 {
@@ -86,6 +87,29 @@ public class _LeakTrackerTest extends TestCase
     }
   }
 
+  public void testOldestOutstanding() throws InterruptedException
+  {
+    tracker = new LeakTrackingConnectionSource(tracker.getDelegated(), 1, 2);
+    Connection first = tracker.getConnection();
+    Thread.sleep(5);
+    Connection second = tracker.getConnection();
+
+    List oldest = tracker.getOldestOutstanding(1);
+    assertEquals(1, oldest.size());
+    LeakTrackingConnectionSource.Borrow borrow = (LeakTrackingConnectionSource.Borrow)oldest.get(0);
+    assertSame(first, borrow.getConnection());
+    assertEquals(Thread.currentThread().getName(), borrow.getThreadName());
+    assertEquals(2, borrow.getStackTrace().length);
+    assertEquals("testOldestOutstanding", borrow.getStackTrace()[0].getMethodName());
+
+    assertNull(tracker.report(Long.MAX_VALUE));
+    assertTrue(tracker.report(0).startsWith("2 of 2 outstanding connections"));
+
+    tracker.returnConnection(first);
+    tracker.returnConnection(second);
+    assertEquals(0, tracker.getOutstandingCount());
+  }
+
   private static class TestConnectionSource implements ConnectionSource
   {
     private Stack connections = new Stack();
@@ -0,0 +1,90 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import com.mockobjects.ExpectationCounter;
+import com.mockobjects.MockObject;
+import com.mockobjects.sql.MockConnection;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+public class _MockDataSource extends MockObject implements DataSource
+{
+  public Connection getConnection() throws SQLException
+  {
+    getConnectionCalls.inc();
+    return new MockConnection()
+    {
+      public boolean getAutoCommit()
+      {
+        return true;
+      }
+    };
+  }
+
+  public Connection getConnection(String username, String password) throws SQLException
+  {
+    return getConnection();
+  }
+
+  public void setExpectedGetConnectionCalls(int callCount)
+  {
+    getConnectionCalls.setExpected(callCount);
+  }
+
+  public PrintWriter getLogWriter() throws SQLException
+  {
+    return null;
+  }
+
+  public void setLogWriter(PrintWriter out) throws SQLException
+  {
+  }
+
+  public void setLoginTimeout(int seconds) throws SQLException
+  {
+  }
+
+  public int getLoginTimeout() throws SQLException
+  {
+    return 0;
+  }
+
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException
+  {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException
+  {
+    throw new SQLException("Not a wrapper");
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException
+  {
+    return false;
+  }
+
+  private ExpectationCounter getConnectionCalls = new ExpectationCounter("MockDataSource.getConnection");
+}
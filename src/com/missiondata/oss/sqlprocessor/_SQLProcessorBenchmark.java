@@ -0,0 +1,513 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmarks for the hot paths: parsing tagged SQL, binding beans and
+ * set values, MultiBeanSQLProcessor expressions, restricted result set
+ * getters and whole executions against the in-memory {@link _StubJDBC}.
+ * <p>
+ * Each benchmark runs for a number of timed warm-up and measured iterations
+ * and reports the mean time per operation, its spread over the iterations and,
+ * where the JVM can tell, the bytes allocated per operation.  Run it with
+ * <code>ant -f build/build.xml benchmark</code>, passing options as
+ * <code>-Dbenchmark.args="..."</code>:
+ * <pre>
+ *   [regex]      only benchmarks whose name matches
+ *   -w count     warm-up iterations, 5 by default
+ *   -i count     measured iterations, 10 by default
+ *   -t millis    length of each iteration, 200 by default
+ * </pre>
+ * Compare numbers from the same machine and JVM only.
+ */
+public class _SQLProcessorBenchmark
+{
+  public static void main(String[] args) throws Exception
+  {
+    Pattern filter = null;
+    for (int i = 0; i < args.length; i++)
+    {
+      if (args[i].equals("-w"))
+      {
+        warmups = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-i"))
+      {
+        iterations = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-t"))
+      {
+        iterationMillis = Long.parseLong(args[++i]);
+      }
+      else
+      {
+        filter = Pattern.compile(args[i]);
+      }
+    }
+
+    new SQLProcessor("SELECT 1").setLoggingCapability(QUIET);
+    System.out.println(pad("Benchmark", 28) + pad("ns/op", 14) + pad("+/-", 10) + pad("ops/s", 14) + "B/op");
+    for (Benchmark benchmark : benchmarks())
+    {
+      if (filter == null || filter.matcher(benchmark.name).find())
+      {
+        benchmark.measure();
+      }
+    }
+  }
+
+  private static List<Benchmark> benchmarks()
+  {
+    final String sqlText = "UPDATE #table# SET state = |state|, amount = |amount| WHERE id = |id| AND name = |name|";
+    final String[] columns = {"id", "name", "state", "amount"};
+    final Object[][] rows = new Object[100][];
+    final List<Order> orders = new ArrayList<Order>();
+    for (int i = 0; i < rows.length; i++)
+    {
+      rows[i] = new Object[]{Long.valueOf(i), "name" + i, i % 2 == 0 ? "open" : "closed", Double.valueOf(i * 1.5)};
+      orders.add(new Order(i, "name" + i, (String) rows[i][2], i * 1.5));
+    }
+    final Connection connection = _StubJDBC.connection(columns, rows);
+    final ConnectionSource connectionSource = _StubJDBC.connectionSource(connection);
+
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+    benchmarks.add(new Benchmark("taggedSQL.parse")
+    {
+      Object run()
+      {
+        return new TaggedSQLTemplate(sqlText);
+      }
+    });
+
+    benchmarks.add(new Benchmark("taggedSQL.compile")
+    {
+      Object run()
+      {
+        return TaggedSQLTemplate.compile(sqlText);
+      }
+    });
+
+    benchmarks.add(new Benchmark("taggedSQL.preparedString")
+    {
+      Object run()
+      {
+        taggedSQL.setSubstitution("table", "orders");
+        return taggedSQL.getPreparedString();
+      }
+
+      private final TaggedSQL taggedSQL = new TaggedSQL(sqlText);
+    });
+
+    benchmarks.add(new Benchmark("bind.set")
+    {
+      Object run() throws SQLException
+      {
+        processor.set("state", "open");
+        processor.set("amount", 12.5);
+        processor.set("id", 7L);
+        processor.set("name", "name7");
+        return processor.getPreparedStatement(connection);
+      }
+
+      private final SQLProcessor processor = newProcessor();
+    });
+
+    benchmarks.add(new Benchmark("bind.bean")
+    {
+      Object run() throws SQLException
+      {
+        processor.setCurrentBean(orders.get(7));
+        return processor.getPreparedStatement(connection);
+      }
+
+      private final SQLProcessor processor = newProcessor();
+    });
+
+    benchmarks.add(new Benchmark("multiBean.compiled")
+    {
+      Object run() throws SQLException
+      {
+        processor.set("order", orders.get(7));
+        return processor.getPreparedStatement(connection);
+      }
+
+      private final MultiBeanSQLProcessor processor =
+        new MultiBeanSQLProcessor("benchmark", "UPDATE orders SET state = |order.state| WHERE name = |order.name.toUpperCase()|");
+    });
+
+    benchmarks.add(new Benchmark("multiBean.beanShell")
+    {
+      Object run() throws SQLException
+      {
+        processor.set("order", orders.get(7));
+        return processor.getPreparedStatement(connection);
+      }
+
+      private final MultiBeanSQLProcessor processor =
+        new MultiBeanSQLProcessor("benchmark", "UPDATE orders SET state = |order.state + \"!\"| WHERE id = |order.id * 2|");
+    });
+
+    benchmarks.add(new Benchmark("resultSet.proxy")
+    {
+      Object run() throws SQLException
+      {
+        return readAll(restrictWithProxy(resultSet));
+      }
+
+      private final ResultSet resultSet = firstRow(new _StubJDBC.StubResultSet(columns, rows, null));
+    });
+
+    benchmarks.add(new Benchmark("resultSet.direct")
+    {
+      Object run() throws SQLException
+      {
+        return readAll(ProxyRestrictingResultSet.restrict(resultSet));
+      }
+
+      private final ResultSet resultSet = firstRow(new _StubJDBC.StubResultSet(columns, rows, null));
+    });
+
+    benchmarks.add(new Benchmark("execute.update")
+    {
+      Object run()
+      {
+        processor.set("state", "open");
+        processor.set("amount", 12.5);
+        processor.set("id", 7L);
+        processor.set("name", "name7");
+        return processor.execute(connectionSource);
+      }
+
+      private final SQLProcessor processor = newProcessor();
+    });
+
+    benchmarks.add(new Benchmark("execute.query100")
+    {
+      Object run()
+      {
+        final long[] total = new long[1];
+        SQLProcessor processor = new SQLProcessor("benchmark", "SELECT id, name, state, amount FROM orders WHERE state = |state|")
+        {
+          protected void process(ResultSet resultSet) throws SQLException
+          {
+            total[0] += resultSet.getLong(1) + resultSet.getString(2).length();
+          }
+        };
+        processor.set("state", "open");
+        processor.execute(connectionSource);
+        return total[0];
+      }
+    });
+
+    benchmarks.add(new Benchmark("execute.queryList100")
+    {
+      Object run()
+      {
+        SQLProcessor processor = new SQLProcessor("benchmark", "SELECT id, name, state, amount FROM orders WHERE state = |state|");
+        processor.set("state", "open");
+        return processor.queryList(connectionSource, Order.class);
+      }
+    });
+
+    benchmarks.add(new Benchmark("execute.batchInsert100")
+    {
+      Object run()
+      {
+        SQLProcessor processor = new SQLProcessor("benchmark", "INSERT INTO orders (id, name, state, amount) VALUES (|id|, |name|, |state|, |amount|)");
+        processor.setBatchSize(100);
+        processor.setBean(orders.iterator());
+        return processor.execute(connectionSource);
+      }
+    });
+
+    benchmarks.add(new Benchmark("execute.multiRowInsert100")
+    {
+      Object run()
+      {
+        SQLProcessor processor = new SQLProcessor("benchmark", "INSERT INTO orders (id, name, state, amount) VALUES (|id|, |name|, |state|, |amount|)");
+        processor.setMultiRowInsert(400);
+        processor.setBean(orders.iterator());
+        return processor.execute(connectionSource);
+      }
+    });
+
+    return benchmarks;
+  }
+
+  private static SQLProcessor newProcessor()
+  {
+    SQLProcessor processor = new SQLProcessor("benchmark",
+      "UPDATE #table# SET state = |state|, amount = |amount| WHERE id = |id| AND name = |name|");
+    processor.set("table", "orders");
+    return processor;
+  }
+
+  private static ResultSet firstRow(ResultSet resultSet)
+  {
+    try
+    {
+      resultSet.next();
+    }
+    catch (SQLException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    return resultSet;
+  }
+
+  /**
+   * The dynamic proxy that restricted result sets before {@link RestrictingResultSet},
+   * kept here to compare against.
+   */
+  private static ResultSet restrictWithProxy(ResultSet resultSet)
+  {
+    return (ResultSet) Proxy.newProxyInstance(ProxyRestrictingResultSet.RestrictedResultSet.class.getClassLoader(),
+      new Class[]{ProxyRestrictingResultSet.RestrictedResultSet.class}, new ProxyRestrictingResultSet(resultSet));
+  }
+
+  private static long readAll(ResultSet resultSet) throws SQLException
+  {
+    long total = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      total += resultSet.getLong(1) + resultSet.getString(2).length() + resultSet.getString(3).length();
+      total += (long) resultSet.getDouble(4);
+    }
+    return total;
+  }
+
+  private static String pad(String text, int width)
+  {
+    StringBuilder padded = new StringBuilder(text);
+    while (padded.length() < width)
+    {
+      padded.append(' ');
+    }
+    return padded.append(' ').toString();
+  }
+
+  /**
+   * A named operation, run in batches sized during warm-up so that reading
+   * the clock costs little next to the work measured.
+   */
+  abstract static class Benchmark
+  {
+    Benchmark(String name)
+    {
+      this.name = name;
+    }
+
+    abstract Object run() throws Exception;
+
+    void measure() throws Exception
+    {
+      for (int i = 0; i < warmups; i++)
+      {
+        iterate(i == 0);
+      }
+
+      double[] nanosPerOp = new double[iterations];
+      long operations = 0;
+      long allocated = 0;
+      for (int i = 0; i < iterations; i++)
+      {
+        long[] result = iterate(false);
+        nanosPerOp[i] = (double) result[0] / result[1];
+        operations += result[1];
+        allocated += result[2];
+      }
+
+      double mean = 0;
+      for (int i = 0; i < nanosPerOp.length; i++)
+      {
+        mean += nanosPerOp[i];
+      }
+      mean /= nanosPerOp.length;
+      double variance = 0;
+      for (int i = 0; i < nanosPerOp.length; i++)
+      {
+        variance += (nanosPerOp[i] - mean) * (nanosPerOp[i] - mean);
+      }
+      double deviation = nanosPerOp.length > 1 ? Math.sqrt(variance / (nanosPerOp.length - 1)) : 0;
+
+      System.out.println(pad(name, 28) + pad(String.format("%.1f", mean), 14) + pad(String.format("%.1f", deviation), 10) +
+        pad(String.format("%.0f", 1e9 / mean), 14) + (allocated < 0 ? "n/a" : String.format("%.0f", (double) allocated / operations)));
+      sink = consumed;
+    }
+
+    /**
+     * Runs for one iteration's length.  The first warm-up also grows the
+     * batch until a batch takes at least ten microseconds.
+     *
+     * @return elapsed nanoseconds, operations and bytes allocated, or -1
+     *  bytes if allocation cannot be measured
+     */
+    private long[] iterate(boolean calibrate) throws Exception
+    {
+      long allocatedBefore = allocatedBytes();
+      long start = System.nanoTime();
+      long end = start + iterationMillis * 1000000L;
+      long operations = 0;
+      long now;
+      do
+      {
+        long batchStart = System.nanoTime();
+        for (int i = 0; i < batch; i++)
+        {
+          consume(run());
+        }
+        operations += batch;
+        now = System.nanoTime();
+        if (calibrate && now - batchStart < 10000 && batch < (1 << 20))
+        {
+          batch *= 2;
+        }
+      }
+      while (now < end);
+      long allocatedAfter = allocatedBytes();
+      return new long[]{now - start, operations, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore};
+    }
+
+    /**
+     * Keeps the JIT from discarding results, at the cost of one volatile read.
+     */
+    private void consume(Object value)
+    {
+      if (value == marker)
+      {
+        consumed++;
+      }
+    }
+
+    final String name;
+    private int batch = 1;
+    private long consumed;
+  }
+
+  /**
+   * @return bytes allocated by this thread so far, or -1 if the JVM does not say
+   */
+  private static long allocatedBytes()
+  {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean)
+    {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  public static class Order
+  {
+    public Order()
+    {
+    }
+
+    public Order(long id, String name, String state, double amount)
+    {
+      this.id = id;
+      this.name = name;
+      this.state = state;
+      this.amount = amount;
+    }
+
+    public long getId()
+    {
+      return id;
+    }
+
+    public void setId(long id)
+    {
+      this.id = id;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public void setName(String name)
+    {
+      this.name = name;
+    }
+
+    public String getState()
+    {
+      return state;
+    }
+
+    public void setState(String state)
+    {
+      this.state = state;
+    }
+
+    public double getAmount()
+    {
+      return amount;
+    }
+
+    public void setAmount(double amount)
+    {
+      this.amount = amount;
+    }
+
+    private long id;
+    private String name;
+    private String state;
+    private double amount;
+  }
+
+  private static final LoggingCapability QUIET = new LoggingCapability()
+  {
+    public void logInfo(String information)
+    {
+    }
+
+    public boolean isInfoEnabled()
+    {
+      return false;
+    }
+
+    public void logWarning(String error, Throwable t)
+    {
+    }
+
+    public void logError(String error, Throwable t)
+    {
+    }
+  };
+
+  private static volatile Object marker = new Object();
+  private static volatile long sink;
+
+  private static int warmups = 5;
+  private static int iterations = 10;
+  private static long iterationMillis = 200;
+}
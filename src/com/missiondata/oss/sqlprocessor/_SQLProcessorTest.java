@@ -22,14 +22,24 @@ import com.missiondata.oss.exception.SystemException;
 import com.mockobjects.sql.MockConnection;
 import com.mockobjects.sql.MockMultiRowResultSet;
 import com.mockobjects.sql.MockPreparedStatement;
+import com.mockobjects.sql.MockResultSetMetaData;
 import junit.framework.TestCase;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.sql.Connection;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.math.BigInteger;
 
 /**
@@ -179,6 +189,120 @@ public class _SQLProcessorTest extends TestCase
     mockConnectionSource.verify();
   }
 
+  public void testStatementMetrics() throws Exception
+  {
+    StatementMetrics metrics = new StatementMetrics();
+    AbstractSQLProcessorBase.setMetricsCapability(metrics);
+    try
+    {
+      mockPreparedStatement.addResultSet(mockResultSet);
+      mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE state = ?");
+      mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+      SQLProcessor query = new SQLProcessor("Metered query", "SELECT id, job FROM foo WHERE state = |state|");
+      query.set("state", "closed");
+      query.execute(mockConnectionSource);
+
+      MockPreparedStatement failingStatement = new _MockPreparedStatement();
+      failingStatement.setupThrowExceptionOnExecute(new SQLException("Test SQLException"));
+      MockConnection failingConnection = new MockConnection();
+      failingConnection.addExpectedPreparedStatement(failingStatement);
+      SQLProcessor update = new SQLProcessor("Metered update", "UPDATE foo SET state = |state|");
+      update.set("state", "open");
+      try
+      {
+        update.execute(new _MockConnectionSource(failingConnection));
+        fail("Exception expected");
+      }
+      catch (SQLSystemException expected)
+      {
+      }
+
+      StatementMetrics.Stats queryStats = metrics.getStats("Metered query");
+      assertEquals(1, queryStats.getExecutions());
+      assertEquals(0, queryStats.getErrors());
+      assertEquals(2, queryStats.getRows());
+      assertEquals(1, queryStats.getExecute().getCount());
+      assertEquals(1, queryStats.getFetch().getCount());
+      assertEquals(1, metrics.getStats("Metered update").getErrors());
+
+      javax.management.ObjectName name = metrics.registerMBean("_SQLProcessorTest");
+      try
+      {
+        javax.management.openmbean.TabularData statements = (javax.management.openmbean.TabularData)
+          java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Statements");
+        assertEquals(2, statements.size());
+      }
+      finally
+      {
+        metrics.unregisterMBean(name);
+      }
+    }
+    finally
+    {
+      AbstractSQLProcessorBase.setMetricsCapability(null);
+    }
+  }
+
+  public void testStatementMetricsFailuresDoNotFailExecution() throws Exception
+  {
+    StatementMetrics metrics = new StatementMetrics();
+    AbstractSQLProcessorBase.setMetricsCapability(metrics);
+    try
+    {
+      mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+      SQLProcessor update = new SQLProcessor(null, "UPDATE foo SET state = |state|");
+      update.set("state", "open");
+      update.execute(mockConnectionSource);
+      assertEquals(1, metrics.getStats("UPDATE foo SET state = |state|").getExecutions());
+
+      MockConnection undescribedConnection = new MockConnection();
+      undescribedConnection.addExpectedPreparedStatement(new _MockPreparedStatement());
+      SQLProcessor undescribed = new SQLProcessor("UPDATE foo SET name = |name|");
+      undescribed.set("name", "bar");
+      undescribed.execute(new _MockConnectionSource(undescribedConnection));
+      assertEquals(1, metrics.getStats("UPDATE foo SET name = |name|").getExecutions());
+      assertNull(metrics.getStats(AbstractSQLProcessorBase.NO_DESCRIPTION));
+
+      AbstractSQLProcessorBase.setMetricsCapability(new MetricsCapability()
+      {
+        public void recordExecution(String description, TaggedSQLTemplate template, long prepareNanos,
+          long executeNanos, long fetchNanos, long rows, boolean failed)
+        {
+          throw new IllegalStateException("Test metrics failure");
+        }
+      });
+      MockConnection connection = new MockConnection();
+      connection.addExpectedPreparedStatement(new _MockPreparedStatement());
+      update.execute(new _MockConnectionSource(connection));
+    }
+    finally
+    {
+      AbstractSQLProcessorBase.setMetricsCapability(null);
+    }
+  }
+
+  public void testLatencyHistogram()
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    for (long nanos = 1; nanos <= 1000; nanos++)
+    {
+      histogram.record(nanos * 1000);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000000, histogram.getMax());
+    assertEquals(500500, histogram.getMean(), 0.001);
+    assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / 8);
+    assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 8);
+    assertEquals(1000000, histogram.getValueAtPercentile(100));
+    for (int bucket = 1; bucket < 320; bucket++)
+    {
+      assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValueIn(bucket)));
+      assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValueIn(bucket - 1) + 1));
+    }
+  }
+
   public void testSQLException()
   {
     mockPreparedStatement.setupThrowExceptionOnExecute(new SQLException("Test SQLException"));
@@ -602,6 +726,43 @@ public class _SQLProcessorTest extends TestCase
     mockConnectionSource.verify();
   }
 
+  public void testSetReplacesEarlierValue()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, null);
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.addExpectedSetParameter(3, Integer.valueOf(7));
+    mockPreparedStatement.setupUpdateCount(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ? AND distance = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor =
+      new SQLProcessor("UPDATE foo SET state = |state| WHERE name = |name| AND distance = |distance|");
+    sqlProcessor.setBean(new Bean("closed", "bean", 7));
+    sqlProcessor.set("state", 5);
+    sqlProcessor.setNull("state", Types.CHAR);
+    sqlProcessor.set("name", 5);
+    sqlProcessor.set("name", "bar");
+    assertEquals("bar", sqlProcessor.getParameterValue("name"));
+    assertFalse(sqlProcessor.hasParameterKey("distance"));
+
+    sqlProcessor.execute(mockConnectionSource);
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+  }
+
+  public void testHasParameterKeySetToNull()
+  {
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE foo SET state = |state| WHERE name = |name|");
+    assertFalse(sqlProcessor.hasParameterKey("state"));
+    sqlProcessor.set("state", null);
+    assertTrue(sqlProcessor.hasParameterKey("state"));
+    assertNull(sqlProcessor.getParameterValue("state"));
+    sqlProcessor.set("name", 3);
+    assertTrue(sqlProcessor.hasParameterKey("name"));
+  }
+
   public void testChainingParameterEvaluator()
   {
     mockPreparedStatement.addResultSet(mockResultSet);
@@ -636,6 +797,121 @@ public class _SQLProcessorTest extends TestCase
     sqlProcessor.execute(mockConnectionSource);
   }
 
+  public void testTypedBinding()
+  {
+    final List calls = new LinkedList();
+    _MockPreparedStatement typedStatement = new _MockPreparedStatement()
+    {
+      public void setInt(int index, int x) throws SQLException
+      {
+        calls.add("setInt " + index + " " + x);
+        super.setInt(index, x);
+      }
+
+      public void setLong(int index, long x) throws SQLException
+      {
+        calls.add("setLong " + index + " " + x);
+        super.setLong(index, x);
+      }
+
+      public void setDouble(int index, double x) throws SQLException
+      {
+        calls.add("setDouble " + index + " " + x);
+        super.setDouble(index, x);
+      }
+
+      public void setBoolean(int index, boolean x) throws SQLException
+      {
+        calls.add("setBoolean " + index + " " + x);
+        super.setBoolean(index, x);
+      }
+
+      public void setString(int index, String x) throws SQLException
+      {
+        calls.add("setString " + index + " " + x);
+        super.setString(index, x);
+      }
+    };
+    typedStatement.setExpectedExecuteCalls(1);
+    typedStatement.setExpectedCloseCalls(1);
+    typedStatement.addExpectedSetParameter(1, Integer.valueOf(3));
+    typedStatement.addExpectedSetParameter(2, Long.valueOf(4));
+    typedStatement.addExpectedSetParameter(3, Double.valueOf(1.5));
+    typedStatement.addExpectedSetParameter(4, Boolean.TRUE);
+    typedStatement.addExpectedSetParameter(5, "bar");
+    typedStatement.addExpectedSetParameter(6, Integer.valueOf(3));
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET a = ?, b = ?, c = ?, d = ? WHERE name = ? AND e = ?");
+    mockConnection.addExpectedPreparedStatement(typedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE #table# SET a = |a|, b = |b|, c = |c|, d = |d| WHERE name = |name| AND e = |a|");
+    sqlProcessor.set("table", "foo");
+    sqlProcessor.set("a", "replaced");
+    sqlProcessor.set("a", 3);
+    sqlProcessor.set("b", 4L);
+    sqlProcessor.set("c", 1.5);
+    sqlProcessor.set("d", true);
+    sqlProcessor.set("name", "bar");
+    sqlProcessor.execute(mockConnectionSource);
+
+    assertEquals(Arrays.asList(new Object[]{"setInt 1 3", "setInt 6 3", "setLong 2 4", "setDouble 3 1.5",
+      "setBoolean 4 true", "setString 5 bar"}), calls);
+    typedStatement.verify();
+    mockConnection.verify();
+  }
+
+  public void testBindSQLNullSubclass()
+  {
+    final List calls = new LinkedList();
+    _MockPreparedStatement nullStatement = new _MockPreparedStatement()
+    {
+      public void setNull(int index, int sqlType)
+      {
+        calls.add("setNull " + index + " " + sqlType);
+      }
+
+      public void setObject(int index, Object x)
+      {
+        calls.add("setObject " + index + " " + x);
+      }
+    };
+    nullStatement.setExpectedExecuteCalls(1);
+    nullStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET a = ?");
+    mockConnection.addExpectedPreparedStatement(nullStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE foo SET a = |a|");
+    sqlProcessor.set("a", new SQLNull(Types.VARCHAR)
+    {
+    });
+    sqlProcessor.execute(mockConnectionSource);
+
+    assertEquals(Collections.singletonList("setNull 1 " + Types.VARCHAR), calls);
+    nullStatement.verify();
+    mockConnection.verify();
+  }
+
+  public void testPrimitiveSeenByEvaluator()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, Integer.valueOf(8));
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET distance = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE foo SET distance = |distance|");
+    sqlProcessor.addEvaluator(new ParameterEvaluator()
+    {
+      public Object getParameterValue(String parameter, Object suggestedValue)
+      {
+        return Integer.valueOf(((Integer) suggestedValue).intValue() * 2);
+      }
+    });
+    sqlProcessor.set("distance", 4);
+    sqlProcessor.execute(mockConnectionSource);
+
+    mockPreparedStatement.verify();
+  }
+
   public class Bean
   {
     private String state;
@@ -670,6 +946,51 @@ public class _SQLProcessorTest extends TestCase
     }
   };
 
+  public static class Job
+  {
+    public int getId()
+    {
+      return id;
+    }
+
+    public void setId(int id)
+    {
+      this.id = id;
+    }
+
+    public String getJob()
+    {
+      return job;
+    }
+
+    public void setJob(String job)
+    {
+      this.job = job;
+    }
+
+    private int id;
+    private String job;
+  }
+
+  public void testSetBeanPrimitiveAndNullGetters()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, Integer.valueOf(7));
+    mockPreparedStatement.addExpectedSetParameter(2, null);
+    mockPreparedStatement.setupUpdateCount(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET distance = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE foo SET distance = |distance| WHERE name = |name|");
+    sqlProcessor.setDefaultNullType(String.class, Types.VARCHAR);
+    sqlProcessor.setBean(new Bean(null, null, 7));
+    sqlProcessor.execute(mockConnectionSource);
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
   public void testBeanShellParameterEvaluator()
   {
     mockPreparedStatement.addResultSet(mockResultSet);
@@ -781,6 +1102,37 @@ public class _SQLProcessorTest extends TestCase
     mockConnectionSource.verify();
   }
 
+  public void testBeanShellFallbackExpression()
+  {
+    mockPreparedStatement.addResultSet(createMockResultSet());
+    mockPreparedStatement.addResultSet(createMockResultSet());
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "ST");
+    mockPreparedStatement.addExpectedSetParameter(2, "RI");
+    mockPreparedStatement.addExpectedSetParameter(3, Integer.valueOf(6));
+    mockPreparedStatement.setExpectedExecuteCalls(2);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE state = ? AND name = ? AND distance = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    List names = new LinkedList();
+    names.add("Steve");
+    names.add("Rich");
+
+    MultiBeanSQLProcessor sqlProcessor = new MultiBeanSQLProcessor("testing",
+      "SELECT id, job FROM #table# WHERE state = |dbdbean.state| AND name = |name.substring(0, 2).toUpperCase()| AND distance = |dbdbean.distance + 1|");
+    sqlProcessor.setIteratedBean("name", names.iterator());
+    sqlProcessor.set("dbdbean", new Bean("closed", "bar", 5));
+    sqlProcessor.set("table", "foo");
+
+    sqlProcessor.execute(mockConnectionSource);
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
   public void testBeanShellParameterEvaluatorWithEmptyIterator()
   {
     mockPreparedStatement.setExpectedExecuteCalls(0);
@@ -877,47 +1229,1572 @@ public class _SQLProcessorTest extends TestCase
     mockConnectionSource.verify();
   }
 
-  public void testInsertedIdCapability()
+  public void testLoggingSkippedWhenInfoDisabled()
   {
     mockPreparedStatement.addExpectedSetParameter(1, "closed");
-    mockPreparedStatement.addExpectedSetParameter(2, "STEVE");
-    mockPreparedStatement.addExpectedSetParameter(2, "RICH");
-    mockPreparedStatement.addExpectedSetParameter(2, "LESLIE");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.setupUpdateCount(1);
 
-    mockPreparedStatement.setExpectedExecuteCalls(3);
-    mockPreparedStatement.setExpectedCloseCalls(1);
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
 
-    mockConnection.addExpectedPreparedStatementString("INSERT INTO foo VALUES (?, ?)");
+    final List messages = new LinkedList();
+    LoggingCapability disabledLogger = new LoggingCapability()
+    {
+      public void logInfo(String information)
+      {
+        messages.add(information);
+      }
+
+      public void logInfo(LogMessage message)
+      {
+        messages.add(message);
+      }
+
+      public boolean isInfoEnabled()
+      {
+        return false;
+      }
+
+      public void logWarning(String error, Throwable t)
+      {
+      }
+
+      public void logError(String error, Throwable t)
+      {
+      }
+    };
+
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE #table# SET state = |state| WHERE name = |name|");
+    sqlProcessor.setLoggingCapability(disabledLogger);
+    try
+    {
+      setAndExecute(sqlProcessor, mockConnectionSource);
+    }
+    finally
+    {
+      sqlProcessor.setLoggingCapability(LoggingCapabilityFactory.getLoggingCapability("sqlprocessor"));
+    }
+
+    assertEquals(0, messages.size());
+    mockPreparedStatement.verify();
+  }
+
+  public void testLoggingUsesOverriddenPrettyPrint()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, "secret");
+    mockPreparedStatement.setupUpdateCount(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE users SET password = ?");
     mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
 
-    java.util.List names = new LinkedList();
-    names.add("Steve");
-    names.add("Rich");
-    names.add("Leslie");
+    final List infos = new LinkedList();
+    LoggingCapability mockLogger = new LoggingCapability()
+    {
+      public void logInfo(String information)
+      {
+        infos.add(information);
+      }
 
-    InsertedIdCapability mockInsertedIdCapability = new InsertedIdCapability()
+      public void logInfo(LogMessage message)
+      {
+        fail("structured message logged for a processor that masks its values");
+      }
+
+      public void logWarning(String error, Throwable t)
+      {
+      }
+
+      public void logError(String error, Throwable t)
+      {
+      }
+    };
+
+    SQLProcessor sqlProcessor = new SQLProcessor("masked", "UPDATE users SET password = |password|")
     {
-      int i = 0;
-      public BigInteger fetchLastInsertedId(Connection conn)
+      protected String prettyPrint()
       {
-        return new BigInteger(String.valueOf(i++));
+        return "masked: UPDATE users SET password = ****";
       }
     };
+    sqlProcessor.setLoggingCapability(mockLogger);
+    sqlProcessor.set("password", "secret");
+    try
+    {
+      sqlProcessor.execute(mockConnectionSource);
+    }
+    finally
+    {
+      sqlProcessor.setLoggingCapability(LoggingCapabilityFactory.getLoggingCapability("sqlprocessor"));
+    }
 
-    MultiBeanSQLProcessor sqlProcessor = new MultiBeanSQLProcessor("testing", "INSERT INTO #table# VALUES (|dbdbean.state|, |name.toUpperCase()|)");
-    sqlProcessor.setInsertedIdCapability(mockInsertedIdCapability);
-    sqlProcessor.setIteratedBean("name", names.iterator());
-    sqlProcessor.set("dbdbean", new Bean());
-    sqlProcessor.set("table", "foo");
+    assertEquals(Collections.singletonList("masked: UPDATE users SET password = ****"), infos);
+    mockPreparedStatement.verify();
+  }
 
-    sqlProcessor.execute(mockConnectionSource);
+  public void testLogSampling()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, "a");
+    mockPreparedStatement.addExpectedSetParameter(1, "b");
+    mockPreparedStatement.addExpectedSetParameter(1, "c");
+    mockPreparedStatement.addExpectedSetParameter(1, "d");
+    mockPreparedStatement.addExpectedSetParameter(1, "e");
+    mockPreparedStatement.setupUpdateCount(1);
+    mockPreparedStatement.setExpectedExecuteCalls(5);
 
-    assertEquals("Collected inserted ids",sqlProcessor.getInsertedIds().length,3);
-    assertEquals("Last inserted id",sqlProcessor.getLastInsertedId(),new BigInteger("2"));
+    mockConnection.addExpectedPreparedStatementString("UPDATE sampled SET state = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
 
-    mockPreparedStatement.verify();
-    mockConnection.verify();
-    mockConnectionSource.verify();
+    final List infos = new LinkedList();
+    LoggingCapability mockLogger = new LoggingCapability()
+    {
+      public void logInfo(String information)
+      {
+        infos.add(information);
+      }
+
+      public void logWarning(String error, Throwable t)
+      {
+      }
+
+      public void logError(String error, Throwable t)
+      {
+      }
+    };
+
+    List beanList = new LinkedList();
+    String[] states = new String[]{"a", "b", "c", "d", "e"};
+    for (int i = 0; i < states.length; i++)
+    {
+      beanList.add(new Bean(states[i], null, 0));
+    }
+
+    SQLProcessor sqlProcessor = new SQLProcessor("sampled", "UPDATE sampled SET state = |state|");
+    sqlProcessor.setLoggingCapability(mockLogger);
+    sqlProcessor.setLogSampleRate(2);
+    sqlProcessor.setBean(beanList.iterator());
+    try
+    {
+      sqlProcessor.execute(mockConnectionSource);
+    }
+    finally
+    {
+      sqlProcessor.setLoggingCapability(LoggingCapabilityFactory.getLoggingCapability("sqlprocessor"));
+    }
+
+    assertEquals(3, infos.size());
+    assertEquals("sampled: UPDATE sampled SET state = 'a'", infos.get(0));
+    assertEquals("sampled: UPDATE sampled SET state = 'c'", infos.get(1));
+    assertEquals("sampled: UPDATE sampled SET state = 'e'", infos.get(2));
+    mockPreparedStatement.verify();
+  }
+
+  public void testSlowQueryLog()
+  {
+    mockPreparedStatement = new _MockPreparedStatement()
+    {
+      public int executeUpdate() throws SQLException
+      {
+        try
+        {
+          Thread.sleep(5);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+        return super.executeUpdate();
+      }
+    };
+    mockPreparedStatement.setExpectedCloseCalls(1);
+    mockPreparedStatement.addExpectedSetParameter(1, "a");
+    mockPreparedStatement.addExpectedSetParameter(1, "b");
+    mockPreparedStatement.addExpectedSetParameter(1, "c");
+    mockPreparedStatement.setupUpdateCount(1);
+    mockPreparedStatement.setExpectedExecuteCalls(3);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE slow_log SET state = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    final List infos = new LinkedList();
+    final List warnings = new LinkedList();
+    LoggingCapability mockLogger = new LoggingCapability()
+    {
+      public void logInfo(String information)
+      {
+        infos.add(information);
+      }
+
+      public void logWarning(String error, Throwable t)
+      {
+        warnings.add(error);
+      }
+
+      public void logError(String error, Throwable t)
+      {
+      }
+    };
+
+    List beanList = new LinkedList();
+    String[] states = new String[]{"a", "b", "c"};
+    for (int i = 0; i < states.length; i++)
+    {
+      beanList.add(new Bean(states[i], null, 0));
+    }
+
+    SQLProcessor sqlProcessor = new SQLProcessor("slow", "UPDATE slow_log SET state = |state|");
+    sqlProcessor.setLoggingCapability(mockLogger);
+    sqlProcessor.setSlowQueryThreshold(1);
+    sqlProcessor.setBean(beanList.iterator());
+    try
+    {
+      sqlProcessor.execute(mockConnectionSource);
+    }
+    finally
+    {
+      sqlProcessor.setLoggingCapability(LoggingCapabilityFactory.getLoggingCapability("sqlprocessor"));
+    }
+
+    assertEquals(0, infos.size());
+    assertEquals(1, warnings.size());
+    String warning = (String) warnings.get(0);
+    assertTrue(warning, warning.startsWith("Slow statement took "));
+    assertTrue(warning, warning.endsWith(" ms for 1 row: slow: UPDATE slow_log SET state = 'a'"));
+    assertEquals(2, TaggedSQLTemplate.compile("UPDATE slow_log SET state = |state|").claimSlowLog(System.nanoTime(), 0));
+    mockPreparedStatement.verify();
+
+    try
+    {
+      sqlProcessor.setSlowQueryThreshold(-1);
+      fail("negative threshold accepted");
+    }
+    catch (IllegalArgumentException expected)
+    {
+    }
+  }
+
+  public void testSlowQueryLogStreamsAndPreparedStatements() throws SQLException
+  {
+    mockPreparedStatement = new _MockPreparedStatement()
+    {
+      public void setFetchSize(int rows)
+      {
+      }
+    };
+    mockPreparedStatement.setExpectedExecuteCalls(1);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockConnection = new MockConnection()
+    {
+      public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+        throws SQLException
+      {
+        return prepareStatement(sql);
+      }
+    };
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+    mockConnectionSource = new _MockConnectionSource(mockConnection);
+
+    final List infos = new LinkedList();
+    final List warnings = new LinkedList();
+    LoggingCapability mockLogger = new LoggingCapability()
+    {
+      public void logInfo(String information)
+      {
+        infos.add(information);
+      }
+
+      public void logWarning(String error, Throwable t)
+      {
+        warnings.add(error);
+      }
+
+      public void logError(String error, Throwable t)
+      {
+      }
+    };
+
+    SQLProcessor query = new SQLProcessor("slow stream", "SELECT id, job FROM slow_stream");
+    query.setLoggingCapability(mockLogger);
+    query.setSlowQueryThreshold(1);
+    try
+    {
+      Stream<String> jobs = query.stream(mockConnectionSource, new RowMapper<String>()
+      {
+        public String mapRow(ResultSet resultSet) throws SQLException
+        {
+          try
+          {
+            Thread.sleep(5);
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+          return resultSet.getString(2);
+        }
+      });
+      assertEquals(2, jobs.count());
+      assertEquals(1, warnings.size());
+      String warning = (String) warnings.get(0);
+      assertTrue(warning, warning.endsWith(" ms for 2 rows: slow stream: SELECT id, job FROM slow_stream"));
+
+      MockConnection connection = new MockConnection();
+      connection.addExpectedPreparedStatement(new _MockPreparedStatement());
+      SQLProcessor update = new SQLProcessor("untimed", "UPDATE slow_stream SET job = 'none'");
+      update.setLoggingCapability(mockLogger);
+      update.setSlowQueryThreshold(1);
+      update.getPreparedStatement(connection);
+      assertEquals(Collections.singletonList("untimed: UPDATE slow_stream SET job = 'none'"), infos);
+    }
+    finally
+    {
+      query.setLoggingCapability(LoggingCapabilityFactory.getLoggingCapability("sqlprocessor"));
+    }
+    verifyAll();
+  }
+
+  public void testAsyncLogging() throws InterruptedException
+  {
+    final List logged = Collections.synchronizedList(new ArrayList());
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    LoggingCapability blockingLogger = new LoggingCapability()
+    {
+      public void logInfo(String information)
+      {
+        logged.add(information);
+        if (information.equals("one"))
+        {
+          writing.countDown();
+          try
+          {
+            release.await();
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+
+      public void logWarning(String error, Throwable t)
+      {
+        logged.add("warning: " + error);
+      }
+
+      public void logError(String error, Throwable t)
+      {
+        logged.add("error: " + error);
+      }
+    };
+
+    final List renderedOn = new ArrayList();
+    AsyncLoggingCapability asyncLogger = new AsyncLoggingCapability(blockingLogger, 2);
+    asyncLogger.logInfo("one");
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+    asyncLogger.logInfo(new LogMessage()
+    {
+      public String getMessage()
+      {
+        renderedOn.add(Thread.currentThread().getName());
+        return "two";
+      }
+    });
+    asyncLogger.logInfo("three");
+    asyncLogger.logInfo("four");
+    asyncLogger.logWarning("overflow", null);
+    assertEquals(1, asyncLogger.getDroppedCount());
+    assertEquals(3, asyncLogger.getPendingCount());
+
+    release.countDown();
+    assertTrue(asyncLogger.flush(5000));
+    asyncLogger.close();
+    asyncLogger.logError("closed", null);
+
+    assertEquals(Arrays.asList(new String[]{"one", "warning: overflow", "two", "three",
+      "warning: 1 log messages were dropped because the buffer was full", "error: closed"}), logged);
+    assertEquals(Collections.singletonList("sqlprocessor-async-log"), renderedOn);
+  }
+
+  public void testParameterExpressionCacheTrims()
+  {
+    for (int i = 0; i < ParameterExpression.MAX_CACHED + 10; i++)
+    {
+      ParameterExpression.compile("trimmed" + i + ".getName()");
+    }
+    assertEquals(ParameterExpression.MAX_CACHED, ParameterExpression.getCacheSize());
+  }
+
+  public void testInsertedIdCapability()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "STEVE");
+    mockPreparedStatement.addExpectedSetParameter(2, "RICH");
+    mockPreparedStatement.addExpectedSetParameter(2, "LESLIE");
+
+    mockPreparedStatement.setExpectedExecuteCalls(3);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("INSERT INTO foo VALUES (?, ?)");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    java.util.List names = new LinkedList();
+    names.add("Steve");
+    names.add("Rich");
+    names.add("Leslie");
+
+    InsertedIdCapability mockInsertedIdCapability = new InsertedIdCapability()
+    {
+      int i = 0;
+      public BigInteger fetchLastInsertedId(Connection conn)
+      {
+        return new BigInteger(String.valueOf(i++));
+      }
+    };
+
+    MultiBeanSQLProcessor sqlProcessor = new MultiBeanSQLProcessor("testing", "INSERT INTO #table# VALUES (|dbdbean.state|, |name.toUpperCase()|)");
+    sqlProcessor.setInsertedIdCapability(mockInsertedIdCapability);
+    sqlProcessor.setIteratedBean("name", names.iterator());
+    sqlProcessor.set("dbdbean", new Bean());
+    sqlProcessor.set("table", "foo");
+
+    sqlProcessor.execute(mockConnectionSource);
+
+    assertEquals("Collected inserted ids",sqlProcessor.getInsertedIds().length,3);
+    assertEquals("Last inserted id",sqlProcessor.getLastInsertedId(),new BigInteger("2"));
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testBatchedIterator()
+  {
+    final int[] pending = new int[1];
+    final List batchSizes = new LinkedList();
+    _MockPreparedStatement batchingStatement = new _MockPreparedStatement()
+    {
+      public void addBatch()
+      {
+        pending[0]++;
+      }
+
+      public int[] executeBatch()
+      {
+        batchSizes.add(Integer.valueOf(pending[0]));
+        int[] counts = new int[pending[0]];
+        Arrays.fill(counts, 1);
+        pending[0] = 0;
+        return counts;
+      }
+    };
+    batchingStatement.addExpectedSetParameter(1, "closed");
+    batchingStatement.addExpectedSetParameter(1, "open");
+    batchingStatement.addExpectedSetParameter(1, "delayed");
+    batchingStatement.addExpectedSetParameter(1, "held");
+    batchingStatement.addExpectedSetParameter(1, "paid");
+    batchingStatement.addExpectedSetParameter(2, "bar");
+    batchingStatement.setExpectedExecuteCalls(0);
+    batchingStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(batchingStatement);
+
+    List beanList = new LinkedList();
+    beanList.add(new Bean("closed", null, 0));
+    beanList.add(new Bean("open", null, 0));
+    beanList.add(new Bean("delayed", null, 0));
+    beanList.add(new Bean("held", null, 0));
+    beanList.add(new Bean("paid", null, 0));
+
+    final int[] processed = new int[1];
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE #table# SET state = |state| WHERE name = |name|")
+    {
+      protected void process(int rowsUpdated) throws SQLException
+      {
+        processed[0] += rowsUpdated;
+      }
+    };
+    sqlProcessor.setBatchSize(2);
+    sqlProcessor.setBean(beanList.iterator());
+    sqlProcessor.set("table", "foo");
+    sqlProcessor.set("name", "bar");
+
+    assertEquals(5, sqlProcessor.execute(mockConnectionSource));
+    assertEquals(5, processed[0]);
+    assertEquals(Arrays.asList(new Object[]{Integer.valueOf(2), Integer.valueOf(2), Integer.valueOf(1)}), batchSizes);
+
+    batchingStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testBatchedSingleRowKeepsInsertedId()
+  {
+    final int[] pending = new int[1];
+    mockPreparedStatement = new _MockPreparedStatement()
+    {
+      public void addBatch()
+      {
+        pending[0]++;
+      }
+
+      public void clearBatch()
+      {
+        pending[0] = 0;
+      }
+    };
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.setupUpdateCount(1);
+    mockPreparedStatement.setExpectedExecuteCalls(1);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("INSERT INTO foo VALUES (?)");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("INSERT INTO foo VALUES (|state|)");
+    sqlProcessor.setInsertedIdCapability(new InsertedIdCapability()
+    {
+      public BigInteger fetchLastInsertedId(Connection conn)
+      {
+        return BigInteger.valueOf(12);
+      }
+    });
+    sqlProcessor.setBatchSize(2);
+    sqlProcessor.set("state", "closed");
+
+    assertEquals(1, sqlProcessor.execute(mockConnectionSource));
+    assertEquals(0, pending[0]);
+    assertEquals(BigInteger.valueOf(12), sqlProcessor.getLastInsertedId());
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testBatchedIteratedBean()
+  {
+    final int[] pending = new int[1];
+    final List batchSizes = new LinkedList();
+    _MockPreparedStatement batchingStatement = new _MockPreparedStatement()
+    {
+      public void addBatch()
+      {
+        pending[0]++;
+      }
+
+      public int[] executeBatch()
+      {
+        batchSizes.add(Integer.valueOf(pending[0]));
+        int[] counts = new int[pending[0]];
+        Arrays.fill(counts, 1);
+        pending[0] = 0;
+        return counts;
+      }
+    };
+    batchingStatement.addExpectedSetParameter(1, "closed");
+    batchingStatement.addExpectedSetParameter(2, "STEVE");
+    batchingStatement.addExpectedSetParameter(2, "RICH");
+    batchingStatement.addExpectedSetParameter(2, "LESLIE");
+    batchingStatement.setExpectedExecuteCalls(0);
+    batchingStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(batchingStatement);
+
+    List names = new LinkedList();
+    names.add("Steve");
+    names.add("Rich");
+    names.add("Leslie");
+
+    MultiBeanSQLProcessor sqlProcessor = new MultiBeanSQLProcessor("testing",
+      "UPDATE #table# SET state = |dbdbean.state| WHERE name = |name.toUpperCase()|");
+    sqlProcessor.setBatchSize(2);
+    sqlProcessor.setIteratedBean("name", names.iterator());
+    sqlProcessor.set("dbdbean", new Bean());
+    sqlProcessor.set("table", "foo");
+
+    assertEquals(3, sqlProcessor.execute(mockConnectionSource));
+    assertEquals(Arrays.asList(new Object[]{Integer.valueOf(2), Integer.valueOf(1)}), batchSizes);
+
+    batchingStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testGeneratedKeys()
+  {
+    final int[] pending = new int[1];
+    final long[] nextKey = {41};
+    final List batchSizes = new LinkedList();
+    _MockPreparedStatement batchingStatement = new _MockPreparedStatement()
+    {
+      public void addBatch()
+      {
+        pending[0]++;
+      }
+
+      public int[] executeBatch()
+      {
+        batchSizes.add(Integer.valueOf(pending[0]));
+        int[] counts = new int[pending[0]];
+        Arrays.fill(counts, 1);
+        return counts;
+      }
+
+      public ResultSet getGeneratedKeys()
+      {
+        Object[][] keys = new Object[pending[0]][];
+        for (int i = 0; i < keys.length; i++)
+        {
+          keys[i] = new Object[]{Long.valueOf(nextKey[0]++)};
+        }
+        pending[0] = 0;
+        MockMultiRowResultSet keySet = new MockMultiRowResultSet()
+        {
+          public boolean wasNull()
+          {
+            return false;
+          }
+        };
+        keySet.setupColumnNames(new String[]{"id"});
+        keySet.setupRows(keys);
+        return keySet;
+      }
+    };
+    batchingStatement.addExpectedSetParameter(1, "closed");
+    batchingStatement.addExpectedSetParameter(1, "open");
+    batchingStatement.addExpectedSetParameter(1, "delayed");
+    batchingStatement.setExpectedExecuteCalls(0);
+    batchingStatement.setExpectedCloseCalls(1);
+
+    mockConnection = new MockConnection()
+    {
+      public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException
+      {
+        _SQLProcessorTest.assertEquals(Statement.RETURN_GENERATED_KEYS, autoGeneratedKeys);
+        return prepareStatement(sql);
+      }
+    };
+    mockConnection.addExpectedPreparedStatementString("INSERT INTO foo (state) VALUES (?)");
+    mockConnection.addExpectedPreparedStatement(batchingStatement);
+    mockConnectionSource = new _MockConnectionSource(mockConnection);
+
+    List beanList = new LinkedList();
+    beanList.add(new Bean("closed", null, 0));
+    beanList.add(new Bean("open", null, 0));
+    beanList.add(new Bean("delayed", null, 0));
+
+    final List reported = new LinkedList();
+    SQLProcessor sqlProcessor = new SQLProcessor("INSERT INTO foo (state) VALUES (|state|)")
+    {
+      protected void process(int rowsUpdated, BigInteger id) throws SQLException
+      {
+        reported.add(id);
+      }
+    };
+    sqlProcessor.setBatchSize(2);
+    sqlProcessor.setGeneratedKeys(true);
+    sqlProcessor.setBean(beanList.iterator());
+
+    assertEquals(3, sqlProcessor.execute(mockConnectionSource));
+    assertEquals(Arrays.asList(new Object[]{Integer.valueOf(2), Integer.valueOf(1)}), batchSizes);
+    assertEquals(Arrays.asList(new Object[]{BigInteger.valueOf(41), BigInteger.valueOf(42), BigInteger.valueOf(43)}), reported);
+    assertTrue(Arrays.equals(new long[]{41, 42, 43}, sqlProcessor.getInsertedIdValues()));
+    assertEquals(BigInteger.valueOf(43), sqlProcessor.getLastInsertedId());
+
+    batchingStatement.verify();
+    mockConnection.verify();
+  }
+
+  public void testMultiRowInsert()
+  {
+    final List statements = new LinkedList();
+    final List prepared = new LinkedList();
+    final List executed = new LinkedList();
+    mockConnection = new MockConnection()
+    {
+      public PreparedStatement prepareStatement(String sql)
+      {
+        statements.add(sql);
+        final int rows = sql.split("\\(\\?").length - 1;
+        _MockPreparedStatement statement = new _MockPreparedStatement()
+        {
+          public int executeUpdate()
+          {
+            executed.add(Integer.valueOf(rows));
+            return rows;
+          }
+        };
+        for (int r = 0; r < rows; r++)
+        {
+          statement.addExpectedSetParameter(r * 2 + 1, "name" + (statements.size() * 10 + r));
+          statement.addExpectedSetParameter(r * 2 + 2, "bar");
+        }
+        prepared.add(statement);
+        return statement;
+      }
+    };
+    mockConnectionSource = new _MockConnectionSource(mockConnection);
+
+    List beanList = new LinkedList();
+    for (int r = 0; r < 5; r++)
+    {
+      beanList.add(new Bean(null, "name" + (r < 3 ? 10 + r : 17 + r), 0));
+    }
+
+    final int[] processed = new int[1];
+    SQLProcessor sqlProcessor = new SQLProcessor("INSERT INTO #table# (name, state) VALUES (|name|, |state|)")
+    {
+      protected void process(int rowsUpdated) throws SQLException
+      {
+        processed[0] += rowsUpdated;
+      }
+    };
+    sqlProcessor.setMultiRowInsert(7);
+    sqlProcessor.setBean(beanList.iterator());
+    sqlProcessor.set("table", "foo");
+    sqlProcessor.set("state", "bar");
+
+    assertEquals(5, sqlProcessor.execute(mockConnectionSource));
+    assertEquals(5, processed[0]);
+    assertEquals(Arrays.asList(new Object[]{
+      "INSERT INTO foo (name, state) VALUES (?, ?), (?, ?), (?, ?)",
+      "INSERT INTO foo (name, state) VALUES (?, ?), (?, ?)"}), statements);
+    assertEquals(Arrays.asList(new Object[]{Integer.valueOf(3), Integer.valueOf(2)}), executed);
+    for (Iterator i = prepared.iterator(); i.hasNext();)
+    {
+      ((_MockPreparedStatement) i.next()).verify();
+    }
+  }
+
+  public void testStatementCaching()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(1, "open");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.setupUpdateCount(1);
+    mockPreparedStatement.setExpectedExecuteCalls(2);
+    mockPreparedStatement.setExpectedClearParametersCalls(2);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    mockConnectionSource.setExpectedGetConnectionCalls(2);
+    mockConnectionSource.setExpectedReturnConnectionCalls(2);
+    StatementCachingConnectionSource cachingSource = new StatementCachingConnectionSource(mockConnectionSource, 10);
+
+    SQLProcessor first = new SQLProcessor("UPDATE #table# SET state = |state| WHERE name = |name|");
+    first.set("table", "foo");
+    first.set("state", "closed");
+    first.set("name", "bar");
+    first.execute(cachingSource);
+
+    SQLProcessor second = new SQLProcessor("UPDATE #table# SET state = |state| WHERE name = |name|");
+    second.set("table", "foo");
+    second.set("state", "open");
+    second.set("name", "bar");
+    second.execute(cachingSource);
+
+    assertEquals(1, cachingSource.getCachedStatementCount());
+    cachingSource.close();
+    assertEquals(0, cachingSource.getCachedStatementCount());
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testStatementCachingDropsClosedConnections()
+  {
+    mockPreparedStatement.setupUpdateCount(1);
+    mockPreparedStatement.setExpectedClearParametersCalls(1);
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = 'idle'");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    final Connection[] handedOut = new Connection[]{mockConnection, new MockConnection()};
+    ConnectionSource pool = new ConnectionSource()
+    {
+      public Connection getConnection()
+      {
+        return handedOut[next++];
+      }
+
+      public void returnConnection(Connection connection)
+      {
+      }
+
+      private int next;
+    };
+    StatementCachingConnectionSource cachingSource = new StatementCachingConnectionSource(pool, 10);
+
+    new SQLProcessor("UPDATE foo SET state = 'idle'").execute(cachingSource);
+    assertEquals(1, cachingSource.getCachedStatementCount());
+
+    mockConnection.setupIsClosed(true);
+    cachingSource.returnConnection(cachingSource.getConnection());
+    assertEquals(0, cachingSource.getCachedStatementCount());
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+  }
+
+  public void testStatementCachingWithGeneratedKeys() throws SQLException
+  {
+    final int[] prepared = new int[1];
+    mockConnection = new MockConnection()
+    {
+      public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+      {
+        TestCase.assertEquals(Statement.RETURN_GENERATED_KEYS, autoGeneratedKeys);
+        prepared[0]++;
+        return new _MockPreparedStatement();
+      }
+    };
+    StatementCachingConnection connection = new StatementCachingConnection(mockConnection, 10);
+
+    PreparedStatement first = connection.prepareStatement("INSERT INTO foo VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+    first.close();
+    PreparedStatement second = connection.prepareStatement("INSERT INTO foo VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+    PreparedStatement concurrent = connection.prepareStatement("INSERT INTO foo VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+
+    assertSame(first, second);
+    assertNotSame(second, concurrent);
+    assertEquals(2, prepared[0]);
+    assertEquals(1, connection.getCachedStatementCount());
+  }
+
+  public void testQueryList()
+  {
+    MockResultSetMetaData metaData = new MockResultSetMetaData()
+    {
+      public String getColumnLabel(int column) throws SQLException
+      {
+        return getColumnName(column);
+      }
+    };
+    metaData.setupGetColumnCount(2);
+    metaData.setupAddColumnNames(new String[]{"ID", "JOB"});
+    mockResultSet.setupMetaData(metaData);
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+
+    mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE state = ? AND name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("SELECT id, job FROM #table# WHERE state = |state| AND name = |name|");
+    sqlProcessor.set("table", "foo");
+    sqlProcessor.set("state", "closed");
+    sqlProcessor.set("name", "bar");
+
+    List<Job> jobs = sqlProcessor.queryList(mockConnectionSource, Job.class);
+
+    assertEquals(2, jobs.size());
+    assertEquals(5, jobs.get(0).getId());
+    assertEquals("mowing", jobs.get(0).getJob());
+    assertEquals(7, jobs.get(1).getId());
+    assertEquals("painting", jobs.get(1).getJob());
+    assertTrue(sqlProcessor.resultsExist());
+
+    verifyAll();
+  }
+
+  public void testQueryListChoosesOverloadedSetter()
+  {
+    final int[] types = new int[]{Types.INTEGER, Types.VARCHAR};
+    MockResultSetMetaData metaData = new MockResultSetMetaData()
+    {
+      public String getColumnLabel(int column) throws SQLException
+      {
+        return getColumnName(column);
+      }
+
+      public int getColumnType(int column)
+      {
+        return types[column - 1];
+      }
+    };
+    metaData.setupGetColumnCount(2);
+    metaData.setupAddColumnNames(new String[]{"ID", "JOB"});
+    mockResultSet.setupMetaData(metaData);
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("SELECT id, job FROM foo");
+    List<OverloadedJob> jobs = sqlProcessor.queryList(mockConnectionSource, OverloadedJob.class);
+
+    assertEquals(2, jobs.size());
+    assertEquals("int 5", jobs.get(0).id);
+    assertEquals("String mowing", jobs.get(0).job);
+    assertEquals("String painting", jobs.get(1).job);
+
+    verifyAll();
+  }
+
+  public static class OverloadedJob
+  {
+    public void setId(int id)
+    {
+      this.id = "int " + id;
+    }
+
+    public void setId(String id)
+    {
+      this.id = "String " + id;
+    }
+
+    public void setJob(int job)
+    {
+      this.job = "int " + job;
+    }
+
+    public void setJob(String job)
+    {
+      this.job = "String " + job;
+    }
+
+    String id;
+    String job;
+  }
+
+  public void testQueryColumnarWithoutIterations()
+  {
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+    SQLProcessor sqlProcessor = new SQLProcessor("SELECT id FROM items WHERE state = |state|")
+    {
+      protected boolean setUp()
+      {
+        return false;
+      }
+    };
+    ColumnarResult result = sqlProcessor.queryColumnar(mockConnectionSource);
+
+    assertEquals(0, result.getRowCount());
+    assertEquals(0, result.getColumnCount());
+    assertFalse(result.iterator().hasNext());
+  }
+
+  public void testQueryColumnar()
+  {
+    final int[] types = new int[]{Types.INTEGER, Types.DOUBLE, Types.VARCHAR, Types.BOOLEAN};
+    MockResultSetMetaData metaData = new MockResultSetMetaData()
+    {
+      public String getColumnLabel(int column) throws SQLException
+      {
+        return getColumnName(column);
+      }
+
+      public int getColumnType(int column)
+      {
+        return types[column - 1];
+      }
+    };
+    metaData.setupGetColumnCount(4);
+    metaData.setupAddColumnNames(new String[]{"ID", "PRICE", "STATE", "ACTIVE"});
+
+    Object[][] values = new Object[20][];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = new Object[]{Integer.valueOf(i), i == 3 ? null : Double.valueOf(i * 1.5),
+        i == 5 ? null : i % 3 == 0 ? "open" : "closed", Boolean.valueOf(i % 2 == 0)};
+    }
+    mockResultSet = new MockMultiRowResultSet()
+    {
+      public long getLong(int column) throws SQLException
+      {
+        Object value = read(column);
+        return value == null ? 0 : ((Number) value).longValue();
+      }
+
+      public double getDouble(int column) throws SQLException
+      {
+        Object value = read(column);
+        return value == null ? 0 : ((Number) value).doubleValue();
+      }
+
+      public boolean getBoolean(int column) throws SQLException
+      {
+        Object value = read(column);
+        return value != null && ((Boolean) value).booleanValue();
+      }
+
+      public String getString(int column) throws SQLException
+      {
+        return (String) read(column);
+      }
+
+      public boolean wasNull()
+      {
+        return lastWasNull;
+      }
+
+      private Object read(int column) throws SQLException
+      {
+        Object value = getObject(column);
+        lastWasNull = value == null;
+        return value;
+      }
+
+      private boolean lastWasNull;
+    };
+    mockResultSet.setupColumnNames(new String[]{"ID", "PRICE", "STATE", "ACTIVE"});
+    mockResultSet.setupRows(values);
+    mockResultSet.setExpectedNextCalls(21);
+    mockResultSet.setExpectedCloseCalls(1);
+    mockResultSet.setupMetaData(metaData);
+    mockPreparedStatement.addResultSet(mockResultSet);
+
+    mockConnection.addExpectedPreparedStatementString("SELECT id, price, state, active FROM items");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("SELECT id, price, state, active FROM items");
+    ColumnarResult result = sqlProcessor.queryColumnar(mockConnectionSource, 1);
+
+    assertEquals(20, result.getRowCount());
+    assertEquals(4, result.getColumnCount());
+    assertEquals("STATE", result.getColumnName(3));
+    assertEquals(2, result.findColumn("price"));
+
+    assertEquals(19L, result.getLong(19, 1));
+    assertEquals(Long.valueOf(7), result.getObject(7, 1));
+    assertEquals(15.0, result.getDouble(10, 2), 0);
+    assertTrue(result.isNull(3, 2));
+    assertEquals(0.0, result.getDouble(3, 2), 0);
+    assertNull(result.getObject(3, 2));
+    assertFalse(result.isNull(4, 2));
+
+    assertEquals("open", result.getString(18, 3));
+    assertEquals("closed", result.getString(19, 3));
+    assertNull(result.getString(5, 3));
+    assertTrue(result.isNull(5, 3));
+    assertTrue(result.getBoolean(18, 4));
+    assertEquals(Boolean.FALSE, result.getObject(17, 4));
+    assertFalse(result.isNull(17, 4));
+
+    int count = 0;
+    long idTotal = 0;
+    for (ColumnarResult.Row row : result)
+    {
+      assertEquals(count++, row.getIndex());
+      idTotal += row.getInt(1);
+    }
+    assertEquals(20, count);
+    assertEquals(190, idTotal);
+    assertEquals("closed", result.getRow(1).getString(3));
+
+    try
+    {
+      result.getLong(20, 1);
+      fail("read past the last row");
+    }
+    catch (IndexOutOfBoundsException expected)
+    {
+    }
+
+    verifyAll();
+  }
+
+  public void testStream()
+  {
+    final int[] fetchSize = new int[1];
+    mockPreparedStatement = new _MockPreparedStatement()
+    {
+      public void setFetchSize(int rows)
+      {
+        fetchSize[0] = rows;
+      }
+    };
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.setExpectedExecuteCalls(1);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+    mockResultSet.setExpectedNextCalls(1);
+
+    mockConnection = new MockConnection()
+    {
+      public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+        throws SQLException
+      {
+        _SQLProcessorTest.assertEquals(ResultSet.TYPE_FORWARD_ONLY, resultSetType);
+        _SQLProcessorTest.assertEquals(ResultSet.CONCUR_READ_ONLY, resultSetConcurrency);
+        return prepareStatement(sql);
+      }
+    };
+    mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE state = ? AND name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    mockConnectionSource = new _MockConnectionSource(mockConnection);
+    mockConnectionSource.setExpectedGetConnectionCalls(1);
+    mockConnectionSource.setExpectedReturnConnectionCalls(1);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("SELECT id, job FROM #table# WHERE state = |state| AND name = |name|");
+    sqlProcessor.set("table", "foo");
+    sqlProcessor.set("state", "closed");
+    sqlProcessor.set("name", "bar");
+    sqlProcessor.setFetchSize(500);
+
+    Stream<String> jobs = sqlProcessor.stream(mockConnectionSource, new RowMapper<String>()
+    {
+      public String mapRow(ResultSet resultSet) throws SQLException
+      {
+        return resultSet.getString(2);
+      }
+    });
+    try
+    {
+      assertEquals(Collections.singletonList("mowing"), jobs.limit(1).collect(Collectors.toList()));
+    }
+    finally
+    {
+      jobs.close();
+    }
+    jobs.close();
+
+    assertEquals(500, fetchSize[0]);
+    verifyAll();
+  }
+
+  public void testStatementLimits()
+  {
+    final int[] limits = new int[3];
+    mockPreparedStatement = new _MockPreparedStatement()
+    {
+      public void setFetchSize(int rows)
+      {
+        limits[0] = rows;
+      }
+
+      public void setMaxRows(int max)
+      {
+        limits[1] = max;
+      }
+
+      public void setQueryTimeout(int seconds)
+      {
+        limits[2] = seconds;
+      }
+    };
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.setExpectedExecuteCalls(1);
+    mockPreparedStatement.setExpectedCloseCalls(1);
+
+    mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE state = ? AND name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    AbstractSQLProcessorBase.setDefaultFetchSize(200);
+    AbstractSQLProcessorBase.setDefaultQueryTimeout(60);
+    try
+    {
+      SQLProcessor sqlProcessor = new SQLProcessor("SELECT id, job FROM #table# WHERE state = |state| AND name = |name|");
+      sqlProcessor.setMaxRows(2);
+      sqlProcessor.setQueryTimeout(5);
+      setAndExecute(sqlProcessor, mockConnectionSource);
+    }
+    finally
+    {
+      AbstractSQLProcessorBase.setDefaultFetchSize(0);
+      AbstractSQLProcessorBase.setDefaultQueryTimeout(0);
+    }
+
+    assertEquals(200, limits[0]);
+    assertEquals(2, limits[1]);
+    assertEquals(5, limits[2]);
+    verifyAll();
+  }
+
+  public void testPooledConnectionSource() throws InterruptedException
+  {
+    _MockDataSource dataSource = new _MockDataSource();
+    dataSource.setExpectedGetConnectionCalls(2);
+    PooledConnectionSource pool = new PooledConnectionSource(dataSource, 1, 2);
+    assertEquals(1, pool.getIdleCount());
+
+    Connection first = pool.getConnection();
+    Connection second = pool.getConnection();
+    assertNotSame(first, second);
+    assertEquals(2, pool.getActiveCount());
+
+    pool.setBorrowTimeout(0);
+    try
+    {
+      pool.getConnection();
+      fail("pool should be exhausted");
+    }
+    catch (SystemException expected)
+    {
+    }
+
+    pool.returnConnection(second);
+    assertSame(second, pool.getConnection());
+    pool.returnConnection(second);
+    pool.returnConnection(first);
+    assertEquals(2, pool.getIdleCount());
+    assertEquals(0, pool.getActiveCount());
+
+    try
+    {
+      pool.returnConnection(first);
+      fail("connection was already returned");
+    }
+    catch (IllegalArgumentException expected)
+    {
+    }
+
+    pool.setIdleTimeout(1);
+    Thread.sleep(10);
+    pool.evictIdle();
+    assertEquals(1, pool.getSize());
+
+    pool.close();
+    assertEquals(0, pool.getSize());
+    dataSource.verify();
+  }
+
+  public void testDataSourceRegistry()
+  {
+    _MockDataSource dataSource = new _MockDataSource();
+    dataSource.setExpectedGetConnectionCalls(1);
+    DataSourceConnectionSource.register("jdbc/test", dataSource);
+    try
+    {
+      assertSame(dataSource, DataSourceConnectionSource.lookup("jdbc/test"));
+      assertNotNull(new DataSourceConnectionSource("jdbc/test").getConnection());
+    }
+    finally
+    {
+      DataSourceConnectionSource.invalidate("jdbc/test");
+    }
+
+    try
+    {
+      new DataSourceConnectionSource("jdbc/test");
+      fail("there is no JNDI context to look the name up in");
+    }
+    catch (SystemException expected)
+    {
+    }
+    dataSource.verify();
+  }
+
+  public void testExecuteAsync() throws Exception
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.setupUpdateCount(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor sqlProcessor = new SQLProcessor("UPDATE #table# SET state = |state| WHERE name = |name|");
+    sqlProcessor.set("table", "foo");
+    sqlProcessor.set("state", "closed");
+    sqlProcessor.set("name", "bar");
+
+    AsyncExecution.setMaxConcurrency(mockConnectionSource, 1);
+    assertEquals(Integer.valueOf(1), sqlProcessor.executeAsync(mockConnectionSource).get(5, TimeUnit.SECONDS));
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testAsyncLimitQueuesWithoutTakingThreads() throws Exception
+  {
+    final Executor previous = AsyncExecution.getExecutor();
+    final List<Runnable> submitted = Collections.synchronizedList(new ArrayList<Runnable>());
+    AsyncExecution.setExecutor(new Executor()
+    {
+      public void execute(Runnable command)
+      {
+        submitted.add(command);
+        previous.execute(command);
+      }
+    });
+    ConnectionSource source = new _MockConnectionSource(mockConnection);
+    AsyncExecution.setMaxConcurrency(source, 1);
+    try
+    {
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+      for (int i = 0; i < 5; i++)
+      {
+        final int task = i;
+        futures.add(AsyncExecution.supply(source, new Supplier<Integer>()
+        {
+          public Integer get()
+          {
+            if (task == 0)
+            {
+              try
+              {
+                release.await();
+              }
+              catch (InterruptedException e)
+              {
+                Thread.currentThread().interrupt();
+              }
+            }
+            order.add(task);
+            return task;
+          }
+        }));
+      }
+      assertEquals(1, submitted.size());
+
+      release.countDown();
+      for (int i = 0; i < futures.size(); i++)
+      {
+        assertEquals(Integer.valueOf(i), futures.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+      assertEquals(5, submitted.size());
+    }
+    finally
+    {
+      AsyncExecution.setExecutor(previous);
+    }
+  }
+
+  public void testParallelSQLBatch()
+  {
+    mockPreparedStatement.addExpectedSetParameter(1, "closed");
+    mockPreparedStatement.addExpectedSetParameter(2, "bar");
+    mockPreparedStatement.setupUpdateCount(1);
+
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = ? WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+
+    SQLProcessor update = new SQLProcessor("UPDATE #table# SET state = |state| WHERE name = |name|");
+    update.set("table", "foo");
+    update.set("state", "closed");
+    update.set("name", "bar");
+
+    SQLProcessor unfinished = new SQLProcessor("unfinished", "UPDATE #table# SET state = |state|");
+
+    ParallelSQLBatch batch = new ParallelSQLBatch(1);
+    batch.add(update);
+    batch.add(unfinished);
+    try
+    {
+      batch.execute(mockConnectionSource);
+      fail("the unfinished statement should fail");
+    }
+    catch (SystemException e)
+    {
+      assertTrue(e.getMessage().startsWith("1 of the batch's statements failed:\n  unfinished: "));
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+
+    mockPreparedStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testParallelSQLBatchRollsBack() throws SQLException
+  {
+    final List<String> calls = new ArrayList<String>();
+    final boolean[] failCommit = new boolean[1];
+    mockConnection = new MockConnection()
+    {
+      public int getTransactionIsolation()
+      {
+        return Connection.TRANSACTION_READ_COMMITTED;
+      }
+
+      public void setTransactionIsolation(int level)
+      {
+      }
+
+      public boolean getAutoCommit()
+      {
+        return true;
+      }
+
+      public void setAutoCommit(boolean autoCommit)
+      {
+        calls.add("autoCommit=" + autoCommit);
+      }
+
+      public void commit() throws SQLException
+      {
+        calls.add("commit");
+        if (failCommit[0])
+        {
+          throw new SQLException("commit failed");
+        }
+      }
+
+      public void rollback()
+      {
+        calls.add("rollback");
+      }
+    };
+    mockConnectionSource = new _MockConnectionSource(mockConnection);
+
+    ParallelSQLBatch batch = new ParallelSQLBatch(1);
+    batch.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    batch.add(new SQLProcessor("unfinished", "UPDATE #table# SET state = |state|"));
+    try
+    {
+      batch.execute(mockConnectionSource);
+      fail("the unfinished statement should fail");
+    }
+    catch (SystemException expected)
+    {
+    }
+    assertEquals(Arrays.asList("autoCommit=false", "rollback", "autoCommit=true"), calls);
+
+    calls.clear();
+    failCommit[0] = true;
+    batch = new ParallelSQLBatch(1);
+    batch.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    mockPreparedStatement.setupUpdateCount(1);
+    mockConnection.addExpectedPreparedStatementString("UPDATE foo SET state = 'done'");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+    batch.add(new SQLProcessor("done", "UPDATE foo SET state = 'done'"));
+    try
+    {
+      batch.execute(mockConnectionSource);
+      fail("the commit should fail");
+    }
+    catch (SystemException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("transaction: Error running batch transaction"));
+    }
+    assertEquals(Arrays.asList("autoCommit=false", "commit", "rollback", "autoCommit=true"), calls);
+    mockPreparedStatement.verify();
+  }
+
+  public void testResultCache()
+  {
+    mockConnection = new MockConnection()
+    {
+      public boolean getAutoCommit()
+      {
+        return true;
+      }
+    };
+    mockConnectionSource = new _MockConnectionSource(mockConnection);
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockPreparedStatement.addExpectedSetParameter(1, "bar");
+    MockPreparedStatement updateStatement = new _MockPreparedStatement();
+    updateStatement.addExpectedSetParameter(1, "bar");
+    updateStatement.setupUpdateCount(1);
+
+    mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+    mockConnection.addExpectedPreparedStatementString("DELETE FROM foo WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(updateStatement);
+    mockConnectionSource.setExpectedGetConnectionCalls(2);
+    mockConnectionSource.setExpectedReturnConnectionCalls(2);
+
+    QueryResultCache cache = new QueryResultCache(10);
+    for (int i = 0; i < 2; i++)
+    {
+      SQLProcessor query = new SQLProcessor("SELECT id, job FROM #table# WHERE name = |name|");
+      query.setResultCache(cache, 60000);
+      query.set("table", "foo");
+      query.set("name", "bar");
+      query.execute(mockConnectionSource);
+      assertTrue(query.resultsExist());
+      assertEquals(Integer.valueOf(7), query.getSingleResult());
+    }
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.size());
+
+    SQLProcessor delete = new SQLProcessor("DELETE FROM foo WHERE name = |name|");
+    delete.set("name", "bar");
+    delete.execute(mockConnectionSource);
+    assertEquals(0, cache.size());
+
+    assertEquals(new HashSet<String>(Arrays.asList("foo", "bar", "baz", "qux")),
+      QueryResultCache.tablesOf("SELECT a FROM s.foo f, bar JOIN baz ON f.id = baz.id WHERE a IN (SELECT b FROM qux)"));
+
+    try
+    {
+      new SQLProcessor("SELECT id FROM foo")
+      {
+        protected void process(ResultSet resultSet)
+        {
+        }
+      }.setResultCache(cache, 60000);
+      fail("a processor that handles its own rows cannot be cached");
+    }
+    catch (IllegalStateException expected)
+    {
+    }
+
+    mockResultSet.verify();
+    updateStatement.verify();
+    mockConnection.verify();
+    mockConnectionSource.verify();
+  }
+
+  public void testResultCacheInTransaction()
+  {
+    final boolean[] autoCommit = new boolean[]{true};
+    mockConnection = new MockConnection()
+    {
+      public boolean getAutoCommit()
+      {
+        return autoCommit[0];
+      }
+
+      public void setAutoCommit(boolean value)
+      {
+        autoCommit[0] = value;
+      }
+    };
+    mockConnection.setExpectedCommitCalls(1);
+    mockPreparedStatement.addResultSet(mockResultSet);
+    mockPreparedStatement.addExpectedSetParameter(1, "bar");
+    MockPreparedStatement deleteStatement = new _MockPreparedStatement();
+    deleteStatement.addExpectedSetParameter(1, "bar");
+    deleteStatement.setupUpdateCount(1);
+    mockConnection.addExpectedPreparedStatementString("SELECT id, job FROM foo WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(mockPreparedStatement);
+    mockConnection.addExpectedPreparedStatementString("DELETE FROM foo WHERE name = ?");
+    mockConnection.addExpectedPreparedStatement(deleteStatement);
+
+    final QueryResultCache cache = new QueryResultCache(10);
+    final QueryResultCache.Key key = new QueryResultCache.Key("SELECT id, job FROM foo WHERE name = ?", new Object[]{"bar"});
+    cache.put(key, 60000, true, Integer.valueOf(99), cache.generation(key));
+
+    final SQLProcessor query = new SQLProcessor("SELECT id, job FROM foo WHERE name = |name|");
+    query.setResultCache(cache, 60000);
+    query.set("name", "bar");
+    final SQLProcessor delete = new SQLProcessor("DELETE FROM foo WHERE name = |name|");
+    delete.set("name", "bar");
+    new SQLTransaction()
+    {
+      protected void transactionBody(Connection connection)
+      {
+        query.execute(connection);
+        delete.execute(connection);
+        // another thread caching the rows the transaction is about to replace
+        cache.put(key, 60000, true, Integer.valueOf(99), cache.generation(key));
+      }
+    }.execute(mockConnection);
+
+    assertEquals(Integer.valueOf(7), query.getSingleResult());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(0, cache.size());
+
+    long generation = cache.generation(key);
+    cache.invalidate("FOO");
+    cache.put(key, 60000, true, Integer.valueOf(99), generation);
+    assertEquals(0, cache.size());
+
+    mockResultSet.verify();
+    deleteStatement.verify();
+    mockConnection.verify();
   }
 
   private void setAndExecute(SQLProcessor sqlProcessor, ConnectionSource connectionSource)
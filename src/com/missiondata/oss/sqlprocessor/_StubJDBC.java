@@ -0,0 +1,283 @@
+/*
+ * SQLProcessor - a facade for the JDBC API
+ * Copyright (C) 2001-2003 Mission Data
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the Free
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.missiondata.oss.sqlprocessor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * An in-memory JDBC stand-in for benchmarks.  Every statement prepared on a
+ * stub connection returns the same canned rows from <code>executeQuery</code>
+ * and reports one row updated per execution or batched row.  Binding is a
+ * no-op, so the numbers measure this library rather than a driver.
+ */
+final class _StubJDBC
+{
+  private _StubJDBC()
+  {
+  }
+
+  static Connection connection(String[] columns, Object[][] rows)
+  {
+    final PreparedStatement statement = statement(columns, rows);
+    return (Connection) Proxy.newProxyInstance(_StubJDBC.class.getClassLoader(), new Class[]{Connection.class},
+      new InvocationHandler()
+      {
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+          String name = method.getName();
+          if (name.equals("prepareStatement"))
+          {
+            return statement;
+          }
+          if (name.equals("getAutoCommit") || name.equals("isValid"))
+          {
+            return Boolean.TRUE;
+          }
+          return defaultValue(method);
+        }
+      });
+  }
+
+  static ConnectionSource connectionSource(final Connection connection)
+  {
+    return new ConnectionSource()
+    {
+      public Connection getConnection()
+      {
+        return connection;
+      }
+
+      public void returnConnection(Connection returned)
+      {
+      }
+    };
+  }
+
+  private static PreparedStatement statement(final String[] columns, final Object[][] rows)
+  {
+    final ResultSetMetaData metaData = metaData(columns, rows);
+    return (PreparedStatement) Proxy.newProxyInstance(_StubJDBC.class.getClassLoader(), new Class[]{PreparedStatement.class},
+      new InvocationHandler()
+      {
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+          String name = method.getName();
+          if (name.equals("executeQuery"))
+          {
+            return new StubResultSet(columns, rows, metaData);
+          }
+          if (name.equals("executeUpdate"))
+          {
+            return 1;
+          }
+          if (name.equals("addBatch"))
+          {
+            pending++;
+            return null;
+          }
+          if (name.equals("executeBatch"))
+          {
+            int[] counts = new int[pending];
+            java.util.Arrays.fill(counts, 1);
+            pending = 0;
+            return counts;
+          }
+          return defaultValue(method);
+        }
+
+        private int pending;
+      });
+  }
+
+  private static Object defaultValue(Method method)
+  {
+    Class type = method.getReturnType();
+    if (type == boolean.class)
+    {
+      return Boolean.FALSE;
+    }
+    if (type == int.class)
+    {
+      return 0;
+    }
+    if (type == long.class)
+    {
+      return 0L;
+    }
+    if (type == void.class || !type.isPrimitive())
+    {
+      return null;
+    }
+    throw new UnsupportedOperationException(method.getName());
+  }
+
+  static ResultSetMetaData metaData(final String[] columns, final Object[][] rows)
+  {
+    return (ResultSetMetaData) Proxy.newProxyInstance(_StubJDBC.class.getClassLoader(), new Class[]{ResultSetMetaData.class},
+      new InvocationHandler()
+      {
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+          String name = method.getName();
+          if (name.equals("getColumnCount"))
+          {
+            return columns.length;
+          }
+          if (name.equals("getColumnName") || name.equals("getColumnLabel"))
+          {
+            return columns[((Integer) args[0]).intValue() - 1];
+          }
+          if (name.equals("getColumnType"))
+          {
+            Object value = rows.length == 0 ? null : rows[0][((Integer) args[0]).intValue() - 1];
+            return value instanceof Number ? Types.NUMERIC : Types.VARCHAR;
+          }
+          return defaultValue(method);
+        }
+      });
+  }
+
+  private static final ResultSet UNSUPPORTED = (ResultSet) Proxy.newProxyInstance(_StubJDBC.class.getClassLoader(),
+    new Class[]{ResultSet.class}, new InvocationHandler()
+    {
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        throw new UnsupportedOperationException("Stub result set does not support " + method.getName());
+      }
+    });
+
+  /**
+   * Rows held as objects and read back with the usual conversions.  It reuses
+   * the delegating methods of {@link RestrictingResultSet}; the few a
+   * benchmark reaches are overridden, and the rest fail.
+   */
+  static final class StubResultSet extends RestrictingResultSet
+  {
+    StubResultSet(String[] columns, Object[][] rows, ResultSetMetaData metaData)
+    {
+      super(UNSUPPORTED);
+      this.columns = columns;
+      this.rows = rows;
+      this.metaData = metaData;
+    }
+
+
+    public boolean next()
+    {
+      return ++row < rows.length;
+    }
+
+    public void close()
+    {
+      row = rows.length;
+    }
+
+    public boolean wasNull()
+    {
+      return wasNull;
+    }
+
+    public int findColumn(String columnName) throws SQLException
+    {
+      for (int i = 0; i < columns.length; i++)
+      {
+        if (columns[i].equalsIgnoreCase(columnName))
+        {
+          return i + 1;
+        }
+      }
+      throw new SQLException("No column " + columnName);
+    }
+
+    public Object getObject(int columnIndex)
+    {
+      Object value = rows[row][columnIndex - 1];
+      wasNull = value == null;
+      return value;
+    }
+
+    public Object getObject(String columnName) throws SQLException
+    {
+      return getObject(findColumn(columnName));
+    }
+
+    public String getString(int columnIndex)
+    {
+      Object value = getObject(columnIndex);
+      return value == null ? null : value.toString();
+    }
+
+    public String getString(String columnName) throws SQLException
+    {
+      return getString(findColumn(columnName));
+    }
+
+    public int getInt(int columnIndex)
+    {
+      Object value = getObject(columnIndex);
+      return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public int getInt(String columnName) throws SQLException
+    {
+      return getInt(findColumn(columnName));
+    }
+
+    public long getLong(int columnIndex)
+    {
+      Object value = getObject(columnIndex);
+      return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    public long getLong(String columnName) throws SQLException
+    {
+      return getLong(findColumn(columnName));
+    }
+
+    public double getDouble(int columnIndex)
+    {
+      Object value = getObject(columnIndex);
+      return value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    public double getDouble(String columnName) throws SQLException
+    {
+      return getDouble(findColumn(columnName));
+    }
+
+    public ResultSetMetaData getMetaData()
+    {
+      return metaData;
+    }
+
+    private final String[] columns;
+    private final Object[][] rows;
+    private final ResultSetMetaData metaData;
+    private int row = -1;
+    private boolean wasNull;
+  }
+}
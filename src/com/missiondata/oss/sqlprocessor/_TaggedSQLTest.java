@@ -218,4 +218,98 @@ public class _TaggedSQLTest extends TestCase
 
     assertEquals(expectedKeys, actualKeys);
   }
+
+  public void testTemplateIsShared()
+  {
+    String sqlText = "UPDATE #table# SET state = |state| WHERE name = |name|";
+    TaggedSQL first = new TaggedSQL(sqlText);
+    TaggedSQL second = new TaggedSQL(sqlText);
+    assertSame(first.getTemplate(), second.getTemplate());
+
+    first.setSubstitution("table", "foo");
+    second.setSubstitution("table", "bar");
+    assertEquals("UPDATE foo SET state = ? WHERE name = ?", first.getPreparedString());
+    assertEquals("UPDATE bar SET state = ? WHERE name = ?", second.getPreparedString());
+  }
+
+  public void testTemplateParameterSlots()
+  {
+    TaggedSQLTemplate template = TaggedSQLTemplate.compile("SELECT * FROM t WHERE a = |a| AND b = |b| OR a2 = |a|");
+    assertEquals(2, template.getParameterKeyCount());
+    assertEquals(3, template.getParameterCount());
+    assertEquals("a", template.getParameterKey(template.getParameterSlot(1)));
+    assertEquals("b", template.getParameterKey(template.getParameterSlot(2)));
+    assertEquals("a", template.getParameterKey(template.getParameterSlot(3)));
+    assertEquals(0, template.getParameterKeyIndex("a"));
+    assertEquals(-1, template.getParameterKeyIndex("c"));
+
+    int[] indices = template.getParameterIndices(template.getParameterKeyIndex("a"));
+    assertEquals(2, indices.length);
+    assertEquals(1, indices[0]);
+    assertEquals(3, indices[1]);
+    assertEquals("SELECT * FROM t WHERE a = ? AND b = ? OR a2 = ?", template.getPreparedString());
+  }
+
+  public void testTemplateCacheBound()
+  {
+    int oldSize = TaggedSQLTemplate.getMaxCacheSize();
+    try
+    {
+      TaggedSQLTemplate.clearCache();
+      TaggedSQLTemplate.setMaxCacheSize(2);
+      TaggedSQLTemplate first = TaggedSQLTemplate.compile("SELECT 1");
+      TaggedSQLTemplate.compile("SELECT 2");
+      TaggedSQLTemplate.compile("SELECT 3");
+      TaggedSQLTemplate.compile("SELECT 4");
+      assertTrue(TaggedSQLTemplate.getCacheSize() <= 2);
+      TaggedSQLTemplate again = TaggedSQLTemplate.compile("SELECT 1");
+      assertEquals(first.getPreparedString(), again.getPreparedString());
+      assertTrue(TaggedSQLTemplate.getCacheSize() <= 2);
+
+      TaggedSQLTemplate.setMaxCacheSize(1);
+      assertEquals(1, TaggedSQLTemplate.getCacheSize());
+    }
+    finally
+    {
+      TaggedSQLTemplate.setMaxCacheSize(oldSize);
+    }
+  }
+
+  public void testGetParameterKey()
+  {
+    TaggedSQL taggedSQL = new TaggedSQL("UPDATE #table# SET state = |state| WHERE name = |name| AND old = |state|");
+    assertEquals("state", taggedSQL.getParameterKey(1));
+    assertEquals("name", taggedSQL.getParameterKey(2));
+    assertEquals("state", taggedSQL.getParameterKey(3));
+    try
+    {
+      taggedSQL.getParameterKey(4);
+      fail("Exception expected");
+    }
+    catch (IllegalArgumentException e)
+    {
+      assertEquals("Index 4 not found.", e.getMessage());
+    }
+  }
+
+  public void testMultiRowPreparedString()
+  {
+    TaggedSQLTemplate template = TaggedSQLTemplate.compile("INSERT INTO foo (name, note) VALUES (|name|, 'a)?')");
+    assertEquals("INSERT INTO foo (name, note) VALUES (?, 'a)?')", template.getMultiRowString(1));
+    assertEquals("INSERT INTO foo (name, note) VALUES (?, 'a)?'), (?, 'a)?'), (?, 'a)?')", template.getMultiRowString(3));
+    assertSame(template.getMultiRowString(3), template.getMultiRowString(3));
+
+    TaggedSQL taggedSQL = new TaggedSQL("insert into #table# (name, total) values (|name|, coalesce(|total|, 0)) ON CONFLICT DO NOTHING");
+    taggedSQL.setSubstitution("table", "foo");
+    assertEquals("insert into foo (name, total) values (?, coalesce(?, 0)), (?, coalesce(?, 0)) ON CONFLICT DO NOTHING",
+      taggedSQL.getMultiRowPreparedString(2));
+    taggedSQL.setSubstitution("table", "bar");
+    assertEquals("insert into bar (name, total) values (?, coalesce(?, 0)), (?, coalesce(?, 0)) ON CONFLICT DO NOTHING",
+      taggedSQL.getMultiRowPreparedString(2));
+
+    assertNull(TaggedSQLTemplate.compile("INSERT INTO foo (name) SELECT name FROM bar WHERE id = |id|").getMultiRowString(2));
+    assertNull(TaggedSQLTemplate.compile("INSERT INTO foo (name) VALUES (|name|) ON DUPLICATE KEY UPDATE name = |other|").getMultiRowString(2));
+    assertNull(TaggedSQLTemplate.compile("INSERT INTO foo (name) VALUES (|name|), ('x')").getMultiRowString(2));
+    assertNull(TaggedSQLTemplate.compile("UPDATE foo SET name = |name|").getMultiRowString(2));
+  }
 }